@@ -0,0 +1,194 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import com.atlassian.bamboo.utils.SystemProperty;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes git output to the build log without blocking the thread reading it. Lines are queued and written in batches
+ * by a background thread; lines exceeding the rate limit or the queue capacity are skipped and only counted.
+ * Regardless of what gets logged, the last few KB of output are kept for error reporting.
+ */
+class AsyncBuildLogAppender
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final int QUEUE_CAPACITY = new SystemProperty(false, "atlassian.bamboo.git.log.queueCapacity",
+            "ATLASSIAN_BAMBOO_GIT_LOG_QUEUE_CAPACITY").getValue(1000);
+    private static final int MAX_LINES_PER_SECOND = new SystemProperty(false, "atlassian.bamboo.git.log.maxLinesPerSecond",
+            "ATLASSIAN_BAMBOO_GIT_LOG_MAX_LINES_PER_SECOND").getValue(200);
+    private static final int TAIL_SIZE = 1024 * new SystemProperty(false, "atlassian.bamboo.git.log.tailSize",
+            "ATLASSIAN_BAMBOO_GIT_LOG_TAIL_SIZE").getValue(16);
+
+    private static final long RATE_WINDOW = 1000;
+    private static final String TRUNCATED_TAIL_PREFIX = "[...]\n";
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("AsyncBuildLogAppender-%d").build());
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final BuildLogger buildLogger;
+    private final int maxLinesPerSecond;
+    private final BlockingQueue<String> queue;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicInteger skippedLines = new AtomicInteger();
+    private final Object drainLock = new Object();
+
+    // guarded by this
+    private final char[] tail;
+    private int tailStart;
+    private int tailLength;
+    private boolean tailTruncated;
+    private long rateWindowStart;
+    private int linesInRateWindow;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    AsyncBuildLogAppender(@NotNull final BuildLogger buildLogger)
+    {
+        this(buildLogger, QUEUE_CAPACITY, MAX_LINES_PER_SECOND, TAIL_SIZE);
+    }
+
+    AsyncBuildLogAppender(@NotNull final BuildLogger buildLogger, int queueCapacity, int maxLinesPerSecond, int tailSize)
+    {
+        this.buildLogger = buildLogger;
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        this.queue = new ArrayBlockingQueue<String>(queueCapacity);
+        this.tail = new char[tailSize];
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    void append(@NotNull final String line)
+    {
+        final boolean withinRate;
+        synchronized (this)
+        {
+            appendToTail(line);
+
+            final long now = System.currentTimeMillis();
+            if (now - rateWindowStart >= RATE_WINDOW)
+            {
+                rateWindowStart = now;
+                linesInRateWindow = 0;
+            }
+            withinRate = maxLinesPerSecond <= 0 || linesInRateWindow++ < maxLinesPerSecond;
+        }
+
+        if (!withinRate || !queue.offer(line))
+        {
+            skippedLines.incrementAndGet();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Writes all pending lines to the build log in the calling thread.
+     */
+    void flush()
+    {
+        drain();
+    }
+
+    /**
+     * @return the last few KB of the output, including the lines which were not logged
+     */
+    @NotNull
+    synchronized String getTail()
+    {
+        final StringBuilder stringBuilder = new StringBuilder(tailLength + TRUNCATED_TAIL_PREFIX.length());
+        if (tailTruncated)
+        {
+            stringBuilder.append(TRUNCATED_TAIL_PREFIX);
+        }
+        for (int i = 0; i < tailLength; i++)
+        {
+            stringBuilder.append(tail[(tailStart + i) % tail.length]);
+        }
+        return stringBuilder.toString();
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private void appendToTail(final String line)
+    {
+        if (tail.length == 0)
+        {
+            return;
+        }
+        for (int i = 0; i <= line.length(); i++)
+        {
+            tail[(tailStart + tailLength) % tail.length] = i < line.length() ? line.charAt(i) : '\n';
+            if (tailLength < tail.length)
+            {
+                tailLength++;
+            }
+            else
+            {
+                tailStart = (tailStart + 1) % tail.length;
+                tailTruncated = true;
+            }
+        }
+    }
+
+    private void scheduleDrain()
+    {
+        if (drainScheduled.compareAndSet(false, true))
+        {
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        drain();
+                    }
+                    finally
+                    {
+                        drainScheduled.set(false);
+                    }
+                    if (!queue.isEmpty())
+                    {
+                        scheduleDrain();
+                    }
+                }
+            });
+        }
+    }
+
+    private void drain()
+    {
+        synchronized (drainLock)
+        {
+            final List<String> batch = new ArrayList<String>();
+            while (queue.drainTo(batch) > 0)
+            {
+                for (String line : batch)
+                {
+                    buildLogger.addBuildLogEntry(line);
+                }
+                batch.clear();
+            }
+
+            final int skipped = skippedLines.getAndSet(0);
+            if (skipped > 0)
+            {
+                buildLogger.addBuildLogEntry(MessageFormat.format("Git: {0,number,integer} lines of output were skipped, at most {1,number,integer} lines per second are logged.",
+                                                                  skipped, maxLinesPerSecond));
+            }
+        }
+    }
+}
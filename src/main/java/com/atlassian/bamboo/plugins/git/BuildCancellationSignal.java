@@ -0,0 +1,46 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tells git operations that the build they are run for has been stopped. Bamboo interrupts the build thread when a
+ * build is stopped, so by default the signal follows the interruption of the thread which created the operation.
+ */
+public class BuildCancellationSignal
+{
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final Thread buildThread;
+    private volatile boolean cancelled;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    public BuildCancellationSignal(@Nullable final Thread buildThread)
+    {
+        this.buildThread = buildThread;
+    }
+
+    @NotNull
+    public static BuildCancellationSignal forCurrentThread()
+    {
+        return new BuildCancellationSignal(Thread.currentThread());
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        if (!cancelled && buildThread != null && buildThread.isInterrupted())
+        {
+            // remember it, the interrupted flag may get cleared by whoever handles the interruption
+            cancelled = true;
+        }
+        return cancelled;
+    }
+}
@@ -9,14 +9,21 @@ public class BuildLoggerProgressMonitor implements ProgressMonitor
 {
     private static final long MESSAGE_INTERVAL = 10000;
 
-    private final BuildLogger buildLogger;
+    private final AsyncBuildLogAppender appender;
+    private final GitProgressWatchdog watchdog;
     private long lastMessageTS;
     private int lastTotalWork;
     private int lastWork;
 
     public BuildLoggerProgressMonitor(BuildLogger buildLogger)
     {
-        this.buildLogger = buildLogger;
+        this(buildLogger, new GitProgressWatchdog(0, null));
+    }
+
+    BuildLoggerProgressMonitor(BuildLogger buildLogger, GitProgressWatchdog watchdog)
+    {
+        this.appender = new AsyncBuildLogAppender(buildLogger);
+        this.watchdog = watchdog;
     }
 
     public void start(int totalTasks)
@@ -25,16 +32,21 @@ public class BuildLoggerProgressMonitor implements ProgressMonitor
 
     public void beginTask(String title, int totalWork)
     {
+        watchdog.progress();
         lastTotalWork = totalWork;
         lastWork = 0;
         String message = MessageFormat.format("Git: {0}{1,choice,0#|1# ({1})}", title, totalWork);
 
-        buildLogger.addBuildLogEntry(message);
+        appender.append(message);
         lastMessageTS = System.currentTimeMillis();
     }
 
     public void update(int completed)
     {
+        if (completed > 0)
+        {
+            watchdog.progress();
+        }
         lastWork += completed;
         long now = System.currentTimeMillis();
         if (now > lastMessageTS + MESSAGE_INTERVAL)
@@ -43,7 +55,7 @@ public class BuildLoggerProgressMonitor implements ProgressMonitor
                     MessageFormat.format("Git: {0,number,percent} ({1}/{2})", (double)lastWork/lastTotalWork, lastWork, lastTotalWork) :
                     MessageFormat.format("Git: ({0})", lastWork);
 
-            buildLogger.addBuildLogEntry(message);
+            appender.append(message);
             lastMessageTS = now;
         }
     }
@@ -51,10 +63,11 @@ public class BuildLoggerProgressMonitor implements ProgressMonitor
     public void endTask()
     {
         lastTotalWork = 0;
+        appender.flush();
     }
 
     public boolean isCancelled()
     {
-        return false;
+        return watchdog.isStalled() || watchdog.isCancelled();
     }
 }
@@ -0,0 +1,28 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Native git for transfers and checkouts, JGit for listing remote refs and walking the history.
+ */
+class DefaultGitEnginePolicy implements GitEnginePolicy
+{
+    @NotNull
+    public GitEngine selectEngine(@NotNull final GitOperation operation, @NotNull final GitRepository.GitRepositoryAccessData accessData)
+    {
+        switch (operation)
+        {
+            case CLONE:
+            case FETCH:
+            case CHECKOUT:
+                return GitEngine.NATIVE;
+            default:
+                return GitEngine.JGIT;
+        }
+    }
+
+    public void operationCompleted(@NotNull final GitOperation operation, @NotNull final GitEngine engine,
+                                   @NotNull final GitRepository.GitRepositoryAccessData accessData, long durationMillis)
+    {
+    }
+}
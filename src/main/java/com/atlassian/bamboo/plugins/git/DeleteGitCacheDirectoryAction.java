@@ -7,7 +7,6 @@ import com.atlassian.bamboo.v2.build.repository.RepositoryV2;
 import com.atlassian.bamboo.ww2.actions.PlanActionSupport;
 import com.atlassian.bamboo.ww2.aware.permissions.PlanEditSecurityAware;
 import com.atlassian.util.concurrent.Supplier;
-import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 
 import java.io.File;
@@ -54,7 +53,7 @@ public class DeleteGitCacheDirectoryAction extends PlanActionSupport implements
                         log.info(getText("repository.git.messages.cache.cleaning", Arrays.asList(buildKey, cacheDirectoryFile.getAbsolutePath())));
                         try
                         {
-                            FileUtils.forceDelete(cacheDirectoryFile);
+                            GitCacheDirectory.deleteCache(cacheDirectoryFile);
                         }
                         catch (IOException e)
                         {
@@ -0,0 +1,109 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.plan.Plan;
+import com.atlassian.bamboo.plan.PlanHelper;
+import com.atlassian.bamboo.repository.RepositoryDefinition;
+import com.atlassian.bamboo.v2.build.repository.RepositoryV2;
+import com.atlassian.bamboo.ww2.actions.PlanActionSupport;
+import com.atlassian.bamboo.ww2.aware.permissions.PlanEditSecurityAware;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Exports the caches of the plan's repositories as bundles, which new caches - e.g. on freshly started agents which
+ * share the bundles directory - are then seeded from. Exporting a large cache takes a while, so it is done in the
+ * background, with the cache lock held so no fetch or repair changes the cache meanwhile.
+ */
+public class ExportGitCacheBundleAction extends PlanActionSupport implements PlanEditSecurityAware
+{
+    private static final Logger log = Logger.getLogger(ExportGitCacheBundleAction.class);
+
+    private static final ExecutorService executor = GitConcurrency.newDaemonExecutor(1, "GitCacheBundleExport-%d");
+
+    private static final Set<File> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    @Override
+    public String doExecute() throws Exception
+    {
+        final String buildKey = getBuildKey();
+        Plan plan = planManager.getPlanByKey(buildKey);
+        if (plan == null)
+        {
+            String message = getText("repository.git.messages.bundle.exportFailedNoPlan", Arrays.asList(buildKey));
+            log.error(message);
+            addActionError(message);
+            return ERROR;
+        }
+
+        for (RepositoryDefinition repositoryDefinition : PlanHelper.getRepositoryDefinitions(plan))
+        {
+            RepositoryV2 repository = repositoryDefinition.getRepository();
+            if (!(repository instanceof GitRepository))
+            {
+                String message = getText("repository.git.messages.bundle.notGit", Arrays.asList(buildKey));
+                log.error(message);
+                addActionError(message);
+                return ERROR;
+            }
+
+            final GitRepository gitRepository = (GitRepository) repository;
+            final File cacheDirectoryFile = gitRepository.getCacheDirectory();
+            if (!cacheDirectoryFile.exists())
+            {
+                String message = getText("repository.git.messages.cache.notExist", Arrays.asList(buildKey, cacheDirectoryFile.getAbsolutePath()));
+                log.info(message);
+                continue;
+            }
+
+            exportInBackground(buildKey, cacheDirectoryFile, gitRepository.getBundleFile());
+        }
+        return SUCCESS;
+    }
+
+    private void exportInBackground(@NotNull final String buildKey, @NotNull final File cacheDirectory, @NotNull final File bundleFile)
+    {
+        if (!scheduled.add(cacheDirectory))
+        {
+            log.info(getText("repository.git.messages.bundle.alreadyExporting", Arrays.asList(buildKey, cacheDirectory.getAbsolutePath())));
+            return;
+        }
+        final String exportingMessage = getText("repository.git.messages.bundle.exporting", Arrays.asList(buildKey, cacheDirectory.getAbsolutePath(), bundleFile.getAbsolutePath()));
+        final String failedMessage = getText("repository.git.messages.bundle.exportFailed", Arrays.asList(buildKey));
+        executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    GitCacheDirectory.getCacheLock(cacheDirectory).withLock(new Runnable()
+                    {
+                        public void run()
+                        {
+                            log.info(exportingMessage);
+                            try
+                            {
+                                GitCacheDirectory.exportBundle(cacheDirectory, bundleFile);
+                            }
+                            catch (IOException e)
+                            {
+                                log.error(failedMessage, e);
+                            }
+                        }
+                    });
+                }
+                finally
+                {
+                    scheduled.remove(cacheDirectory);
+                }
+            }
+        });
+    }
+}
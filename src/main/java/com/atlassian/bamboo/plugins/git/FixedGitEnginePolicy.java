@@ -0,0 +1,27 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runs every operation the engine supports with the same engine.
+ */
+class FixedGitEnginePolicy implements GitEnginePolicy
+{
+    private final GitEngine engine;
+
+    FixedGitEnginePolicy(@NotNull final GitEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    @NotNull
+    public GitEngine selectEngine(@NotNull final GitOperation operation, @NotNull final GitRepository.GitRepositoryAccessData accessData)
+    {
+        return engine;
+    }
+
+    public void operationCompleted(@NotNull final GitOperation operation, @NotNull final GitEngine engine,
+                                   @NotNull final GitRepository.GitRepositoryAccessData accessData, long durationMillis)
+    {
+    }
+}
@@ -1,16 +1,47 @@
 package com.atlassian.bamboo.plugins.git;
 
+import com.atlassian.bamboo.utils.SystemProperty;
 import com.atlassian.util.concurrent.Function;
 import com.atlassian.util.concurrent.ManagedLock;
 import com.atlassian.util.concurrent.ManagedLocks;
+import com.atlassian.util.concurrent.Supplier;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.apache.commons.lang.CharEncoding;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.BundleWriter;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * Class used to handle git cache directory operations.
@@ -20,25 +51,392 @@ public class GitCacheDirectory
 
     static final String GIT_REPOSITORY_CACHE_DIRECTORY = "_git-repositories-cache";
 
+    private static final String OBJECTS_DIRECTORY = "objects";
+
+    private static final String SHALLOW_CACHE_MARKER = "shallow";
+    private static final String PACK_DIRECTORY = "pack";
+    private static final String INFO_DIRECTORY = "info";
+    private static final String ALTERNATES_FILE = "alternates";
+    private static final String NAMED_POOL_MARKER = "pool";
+    private static final String ROOT_COMMIT_POOL_MARKER = "root";
+    static final String SEED_REFS = Constants.R_REFS + "bamboo/seed/";
+    private static final String RELATED_REF = SEED_REFS + "related";
+    private static final String GIT_BUNDLES_DIRECTORY = "_git-bundles";
+    private static final String BUNDLE_SUFFIX = ".bundle";
+    private static final String BUNDLES_LOCATION = new SystemProperty(false, "atlassian.bamboo.git.bundles.directory",
+            "ATLASSIAN_BAMBOO_GIT_BUNDLES_DIRECTORY").getValue("");
+    private static final byte[] PARENT_HEADER = Constants.encodeASCII("parent ");
+    private static final int TREE_LINE_LENGTH = "tree ".length() + Constants.OBJECT_ID_STRING_LENGTH;
+    private static final String GC_SECTION = "gc";
+    private static final String GC_AUTO = "auto";
+
+    private static final ConcurrentMap<File, String> rootCommits = new ConcurrentHashMap<File, String>();
+
     static final Function<File, ManagedLock> cacheLockFactory = ManagedLocks.weakManagedLockFactory();
 
+    private static final ConcurrentMap<File, ReadWriteLock> readerLocks = new ConcurrentHashMap<File, ReadWriteLock>();
+
     private static final Logger log = Logger.getLogger(GitCacheDirectory.class);
 
     private GitCacheDirectory()
     {
     }
 
+    /**
+     * All branches of a repository share one cache, whichever form of the repository URL they use. Shallow clones get
+     * a cache of their own, which holds the shallow tips of all branches fetched to it - each fetch adds only the
+     * objects its branch is missing. Each user gets separate caches, so refs one user cannot see never leak to another.
+     */
     @NotNull
     static File getCacheDirectory(@NotNull final File workingDirectory, @NotNull final GitRepository.GitRepositoryAccessData repositoryData)
     {
+        final String canonicalUrl = GitRepositoryUrls.canonicalUrl(repositoryData.repositoryUrl);
+        final String user = StringUtils.isNotBlank(repositoryData.username) ? repositoryData.username : GitRepositoryUrls.getUrlUser(repositoryData.repositoryUrl);
         String repositorySha = repositoryData.useShallowClones ?
-                calculateAggregateSha(repositoryData.repositoryUrl, repositoryData.username, repositoryData.branch) :
-                calculateAggregateSha(repositoryData.repositoryUrl, repositoryData.username);
+                calculateAggregateSha(canonicalUrl, user, SHALLOW_CACHE_MARKER) :
+                calculateAggregateSha(canonicalUrl, user);
 
         File cacheDirectory = new File(workingDirectory, GIT_REPOSITORY_CACHE_DIRECTORY);
         return new File(cacheDirectory, repositorySha);
     }
+
+    /**
+     * @return directory of the cache as it was keyed before cache keys were canonical: by the URL as configured and,
+     * for shallow clones, by the branch
+     */
+    @NotNull
+    static File getLegacyCacheDirectory(@NotNull final File cacheDirectory, @NotNull final GitRepository.GitRepositoryAccessData repositoryData)
+    {
+        String repositorySha = repositoryData.useShallowClones ?
+                calculateAggregateSha(repositoryData.repositoryUrl, repositoryData.username, repositoryData.branch) :
+                calculateAggregateSha(repositoryData.repositoryUrl, repositoryData.username);
+        return new File(cacheDirectory.getParentFile(), repositorySha);
+    }
+
+    /**
+     * Objects of full (not shallow) clones are shared by the caches of all users of the repository: each cache keeps
+     * only its refs and uses the shared object directory as its alternate. Shallow caches keep their objects, as a
+     * commit without its parents would look complete to full clones.
+     * <p/>
+     * Related repositories (e.g. forks) can share an object pool as well: the one named in their configuration or,
+     * if they are configured to pool with related repositories, the one of their root commit - the first commit on
+     * the first parent line of the fetched branch. Until the cache has been fetched, its root commit is not known.
+     *
+     * @return shared object directory of the repository of the cache, null if the cache does not use one
+     */
+    @Nullable
+    static File getSharedObjectsDirectory(@NotNull final File cacheDirectory, @NotNull final GitRepository.GitRepositoryAccessData repositoryData)
+    {
+        if (repositoryData.useShallowClones)
+        {
+            return null;
+        }
+        if (StringUtils.isNotBlank(repositoryData.objectPool))
+        {
+            return new File(cacheDirectory.getParentFile(), calculateAggregateSha(NAMED_POOL_MARKER, repositoryData.objectPool));
+        }
+        if (repositoryData.poolRelatedRepositories)
+        {
+            final String rootCommit = getRootCommit(cacheDirectory);
+            if (rootCommit != null)
+            {
+                return new File(cacheDirectory.getParentFile(), calculateAggregateSha(ROOT_COMMIT_POOL_MARKER, rootCommit));
+            }
+        }
+        return new File(cacheDirectory.getParentFile(), calculateAggregateSha(GitRepositoryUrls.canonicalUrl(repositoryData.repositoryUrl)));
+    }
+
+    /**
+     * Deletes the cache, and the shared object directories it used if no other cache uses them. They are moved to the
+     * trash right away and deleted in the background.
+     */
+    static void deleteCache(@NotNull final File cacheDirectory) throws IOException
+    {
+        final List<File> sharedObjectsDirectories = getSharedObjectsDirectories(cacheDirectory);
+
+        final Lock writeLock = getReaderLock(cacheDirectory).writeLock();
+        writeLock.lock();
+        try
+        {
+            GitTrash.delete(getWorkingDirectory(cacheDirectory), cacheDirectory);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+        rootCommits.remove(cacheDirectory);
+
+        for (final File sharedObjectsDirectory : sharedObjectsDirectories)
+        {
+            getCacheLock(sharedObjectsDirectory).withLock(new Runnable()
+            {
+                public void run()
+                {
+                    if (!isUsedByAnyCache(sharedObjectsDirectory))
+                    {
+                        log.info("Deleting shared objects " + sharedObjectsDirectory + ", no cache uses them anymore");
+                        try
+                        {
+                            GitTrash.delete(getWorkingDirectory(sharedObjectsDirectory), sharedObjectsDirectory);
+                        }
+                        catch (IOException e)
+                        {
+                            log.warn("Unable to delete shared objects " + sharedObjectsDirectory, e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes over the legacy cache of the repository, if there is one: it is renamed to cacheDirectory if that does not
+     * exist yet; otherwise it is a duplicate, so its objects are folded into the shared object directory and it is
+     * removed. Must be called with the lock of cacheDirectory held.
+     */
+    static void migrateLegacyCache(@NotNull final File cacheDirectory, @NotNull final GitRepository.GitRepositoryAccessData repositoryData)
+    {
+        final File legacyCacheDirectory = getLegacyCacheDirectory(cacheDirectory, repositoryData);
+        if (legacyCacheDirectory.equals(cacheDirectory) || !legacyCacheDirectory.isDirectory())
+        {
+            return;
+        }
+        if (!cacheDirectory.exists() && legacyCacheDirectory.renameTo(cacheDirectory))
+        {
+            log.info("Moved cache " + legacyCacheDirectory + " to " + cacheDirectory);
+            return;
+        }
+
+        final File sharedObjectsDirectory = getSharedObjectsDirectory(cacheDirectory, repositoryData);
+        if (sharedObjectsDirectory != null && !GitOperationHelper.isShallow(legacyCacheDirectory))
+        {
+            try
+            {
+                moveObjects(new File(new File(legacyCacheDirectory, Constants.DOT_GIT), OBJECTS_DIRECTORY), sharedObjectsDirectory);
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to move objects of " + legacyCacheDirectory + " to " + sharedObjectsDirectory, e);
+                return;
+            }
+        }
+        log.info("Removing duplicate cache " + legacyCacheDirectory + " of " + cacheDirectory);
+        FileUtils.deleteQuietly(legacyCacheDirectory);
+    }
+
+    /**
+     * Starts a new cache from the objects of a related cache: one which contains the given revision, e.g. the cache of
+     * the repository a plan used before its URL changed. The new cache uses the shared objects of the related cache as
+     * alternates, and refers to the revision by a seed ref until it has been fetched for the first time, so the fetch
+     * only transfers what the related history is missing.
+     *
+     * @param revision revision known to be in the history of the new cache, e.g. the revision of the last build
+     * @return true if a related cache has been found and the new cache has been prepared
+     */
+    static boolean reuseRelatedCache(@NotNull final File cacheDirectory, @NotNull final String revision)
+    {
+        final File[] candidates = cacheDirectory.getParentFile().listFiles();
+        if (cacheDirectory.exists() || !ObjectId.isId(revision) || candidates == null)
+        {
+            return false;
+        }
+        for (File candidate : candidates)
+        {
+            if (candidate.equals(cacheDirectory) || !new File(candidate, Constants.DOT_GIT).isDirectory() || GitOperationHelper.isShallow(candidate))
+            {
+                continue;
+            }
+            try
+            {
+                final List<File> sharedObjectsDirectories = getSharedObjectsDirectories(candidate);
+                if (!sharedObjectsDirectories.isEmpty() && GitOperationHelper.containsRevision(candidate, revision)
+                        && linkRelatedObjects(cacheDirectory, sharedObjectsDirectories, revision))
+                {
+                    log.info("Starting cache " + cacheDirectory + " from the objects of the related cache " + candidate);
+                    return true;
+                }
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to start cache " + cacheDirectory + " from the objects of " + candidate, e);
+                FileUtils.deleteQuietly(cacheDirectory);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the seed refs - the refs a new cache has been started from, by {@link #reuseRelatedCache} or from a
+     * bundle - once the cache has been fetched.
+     */
+    static void forgetSeedRefs(@NotNull final File cacheDirectory)
+    {
+        FileRepository repository = null;
+        try
+        {
+            repository = new FileRepository(new File(cacheDirectory, Constants.DOT_GIT));
+            for (String refName : repository.getRefDatabase().getRefs(SEED_REFS).keySet())
+            {
+                final RefUpdate refUpdate = repository.updateRef(SEED_REFS + refName);
+                refUpdate.setForceUpdate(true);
+                refUpdate.delete();
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to remove " + SEED_REFS + " from " + cacheDirectory, e);
+        }
+        finally
+        {
+            if (repository != null)
+            {
+                repository.close();
+            }
+        }
+    }
+
+    /**
+     * Bundles are kept in the directory set by atlassian.bamboo.git.bundles.directory (e.g. on shared storage),
+     * otherwise in the working directory.
+     */
+    @NotNull
+    static File getBundlesDirectory(@NotNull final File workingDirectory)
+    {
+        return StringUtils.isNotBlank(BUNDLES_LOCATION) ? new File(BUNDLES_LOCATION) : new File(workingDirectory, GIT_BUNDLES_DIRECTORY);
+    }
+
+    /**
+     * New caches of a repository are seeded from its bundle, if there is one, so only what has changed since the
+     * bundle was exported is fetched. Bundles are named after the canonical repository URL, so one bundle serves all
+     * users and all forms of the URL.
+     */
+    @NotNull
+    static File getBundleFile(@NotNull final File bundlesDirectory, @NotNull final GitRepository.GitRepositoryAccessData repositoryData)
+    {
+        return new File(bundlesDirectory, calculateAggregateSha(GitRepositoryUrls.canonicalUrl(repositoryData.repositoryUrl)) + BUNDLE_SUFFIX);
+    }
+
+    /**
+     * Writes the branches and tags of the cache, with all their history, to the bundle file. The refs are taken from
+     * the last published snapshot, if there is one. The bundle replaces the previous one only once it is complete.
+     * Must be called with the lock of cacheDirectory held.
+     */
+    static void exportBundle(@NotNull final File cacheDirectory, @NotNull final File bundleFile) throws IOException
+    {
+        if (GitOperationHelper.isShallow(cacheDirectory))
+        {
+            throw new IOException("Cache " + cacheDirectory + " is shallow, it cannot be exported");
+        }
+        final File gitDirectory = new File(cacheDirectory, Constants.DOT_GIT);
+        final GitCacheSnapshot snapshot = GitCacheSnapshot.load(gitDirectory);
+        final FileRepository repository = new FileRepository(gitDirectory);
+        final File temporaryFile = new File(bundleFile.getParentFile(), bundleFile.getName() + ".tmp");
+        OutputStream output = null;
+        try
+        {
+            final BundleWriter bundleWriter = new BundleWriter(repository);
+            if (snapshot != null)
+            {
+                for (Map.Entry<String, String> ref : snapshot.getRefs().entrySet())
+                {
+                    bundleWriter.include(ref.getKey(), ObjectId.fromString(ref.getValue()));
+                }
+            }
+            else
+            {
+                for (Ref ref : repository.getAllRefs().values())
+                {
+                    if (!ref.isSymbolic() && ref.getObjectId() != null && StringUtils.startsWithAny(ref.getName(), new String[] {Constants.R_HEADS, Constants.R_TAGS}))
+                    {
+                        bundleWriter.include(ref);
+                    }
+                }
+            }
+            FileUtils.forceMkdir(bundleFile.getParentFile());
+            output = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+            bundleWriter.writeBundle(NullProgressMonitor.INSTANCE, output);
+            output.close();
+            output = null;
+            GitFiles.replaceFile(temporaryFile, bundleFile);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(output);
+            FileUtils.deleteQuietly(temporaryFile);
+            repository.close();
+        }
+    }
+
+    /**
+     * Makes the cache use the shared object directory as its alternate and moves the objects it has fetched there.
+     * Each file is moved separately and stays readable in one of the directories, so nothing fails if this is
+     * interrupted. Must be called with the lock of cacheDirectory held.
+     */
+    static void shareObjects(@NotNull final File cacheDirectory, @NotNull final File sharedObjectsDirectory)
+    {
+        final File gitDirectory = new File(cacheDirectory, Constants.DOT_GIT);
+        final File objectsDirectory = new File(gitDirectory, OBJECTS_DIRECTORY);
+        if (!objectsDirectory.isDirectory() || GitOperationHelper.isShallow(cacheDirectory))
+        {
+            return;
+        }
+        // deleteCache must not delete the shared objects while they are being linked
+        getCacheLock(sharedObjectsDirectory).withLock(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    final List<String> alternatePaths = readAlternates(objectsDirectory);
+                    if (!alternatePaths.contains(sharedObjectsDirectory.getAbsolutePath()))
+                    {
+                        FileUtils.forceMkdir(new File(sharedObjectsDirectory, PACK_DIRECTORY));
+                        alternatePaths.add(sharedObjectsDirectory.getAbsolutePath());
+                        FileUtils.writeLines(new File(new File(objectsDirectory, INFO_DIRECTORY), ALTERNATES_FILE), alternatePaths, "\n");
+
+                        // JGit keeps repositories open by alternates in its cache, and reads their alternates only once
+                        final Repository cachedRepository = RepositoryCache.open(RepositoryCache.FileKey.exact(gitDirectory, FS.DETECTED), false);
+                        RepositoryCache.close(cachedRepository);
+                        cachedRepository.close();
+                    }
+                    // readers which have listed the packs of the cache would not find them after they are moved
+                    final Lock writeLock = getReaderLock(cacheDirectory).writeLock();
+                    writeLock.lock();
+                    try
+                    {
+                        moveObjects(objectsDirectory, sharedObjectsDirectory);
+                    }
+                    finally
+                    {
+                        writeLock.unlock();
+                    }
+                }
+                catch (IOException e)
+                {
+                    log.warn("Unable to share objects of " + cacheDirectory + " in " + sharedObjectsDirectory, e);
+                }
+            }
+        });
+    }
     
+    /**
+     * @return cache directory of another repository (e.g. a submodule), in the same place as cacheDirectory
+     */
+    @NotNull
+    static File getSiblingCacheDirectory(@NotNull final File cacheDirectory, @NotNull final GitRepository.GitRepositoryAccessData repositoryData)
+    {
+        return getCacheDirectory(getWorkingDirectory(cacheDirectory), repositoryData);
+    }
+
+    /**
+     * @return working directory which the cache directory (or shared object directory) is in
+     */
+    @NotNull
+    static File getWorkingDirectory(@NotNull final File cacheDirectory)
+    {
+        return cacheDirectory.getParentFile().getParentFile();
+    }
+
     static String calculateAggregateSha(String... params)
     {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -65,4 +463,355 @@ public class GitCacheDirectory
     {
         return cacheLockFactory.get(cache);
     }
+
+    /**
+     * Checkouts and change detection read a cache without its lock, so they do not wait for fetches, which only add
+     * objects and refs. They hold the read lock of this lock instead. Whatever removes or moves objects or refs of the
+     * cache - repairing, deleting or sharing its objects - holds the write lock as well as the cache lock, so it waits
+     * until the readers are done. Readers must not take the cache lock while they hold the read lock.
+     */
+    @NotNull
+    static ReadWriteLock getReaderLock(@NotNull final File cacheDirectory)
+    {
+        return GitConcurrency.getReadWriteLock(readerLocks, cacheDirectory);
+    }
+
+    /**
+     * Native git runs gc after fetches, which removes packs lock-free readers may be reading. Caches are never
+     * garbage collected instead - their objects are only ever added, or moved to shared object directories.
+     */
+    static void disableAutomaticGc(@NotNull final File cacheDirectory)
+    {
+        final File gitDirectory = new File(cacheDirectory, Constants.DOT_GIT);
+        if (!gitDirectory.isDirectory())
+        {
+            return;
+        }
+        FileRepository repository = null;
+        try
+        {
+            repository = new FileRepository(gitDirectory);
+            final StoredConfig config = repository.getConfig();
+            if (config.getInt(GC_SECTION, GC_AUTO, -1) != 0)
+            {
+                config.setInt(GC_SECTION, null, GC_AUTO, 0);
+                config.save();
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to disable automatic gc of " + cacheDirectory, e);
+        }
+        finally
+        {
+            if (repository != null)
+            {
+                repository.close();
+            }
+        }
+    }
+
+    /**
+     * Removes what an interrupted git operation leaves behind in a repository: lock files (index, HEAD, config, refs...)
+     * and partially received objects and packs. Objects and refs which were written completely are kept, so the next
+     * fetch does not need to start from scratch.
+     *
+     * @return number of files removed
+     */
+    static int cleanUpAfterInterruptedOperation(@NotNull final File directory)
+    {
+        final File gitDirectory = new File(directory, Constants.DOT_GIT);
+        return removeLeftovers(gitDirectory.isDirectory() ? gitDirectory : directory, false);
+    }
+
+    private static int removeLeftovers(@NotNull final File directory, boolean objectsDirectory)
+    {
+        final File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return 0;
+        }
+        int removed = 0;
+        for (File file : files)
+        {
+            if (file.isDirectory())
+            {
+                removed += removeLeftovers(file, objectsDirectory || file.getName().equals(OBJECTS_DIRECTORY));
+            }
+            else if (file.getName().endsWith(".lock") || objectsDirectory && isPartialObject(file.getName()))
+            {
+                if (file.delete())
+                {
+                    removed++;
+                }
+                else
+                {
+                    log.warn("Unable to delete " + file);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return shared object directories in the cache root used by the cache
+     */
+    @NotNull
+    private static List<File> getSharedObjectsDirectories(@NotNull final File cacheDirectory) throws IOException
+    {
+        final List<File> sharedObjectsDirectories = new ArrayList<File>();
+        for (String alternatePath : readAlternates(new File(new File(cacheDirectory, Constants.DOT_GIT), OBJECTS_DIRECTORY)))
+        {
+            final File alternate = new File(alternatePath);
+            if (cacheDirectory.getParentFile().equals(alternate.getParentFile()))
+            {
+                sharedObjectsDirectories.add(alternate);
+            }
+        }
+        return sharedObjectsDirectories;
+    }
+
+    /**
+     * @return false if the shared objects have been deleted in the meantime
+     */
+    private static boolean linkRelatedObjects(@NotNull final File cacheDirectory, @NotNull final List<File> sharedObjectsDirectories,
+                                              @NotNull final String revision) throws IOException
+    {
+        final File gitDirectory = new File(cacheDirectory, Constants.DOT_GIT);
+        final FileRepository newRepository = new FileRepository(gitDirectory);
+        newRepository.create();
+        newRepository.close();
+
+        final File objectsDirectory = newRepository.getObjectsDirectory();
+        for (final File sharedObjectsDirectory : sharedObjectsDirectories)
+        {
+            // deleteCache must not delete the shared objects before they are linked
+            final boolean linked = getCacheLock(sharedObjectsDirectory).withLock(new Supplier<Boolean>()
+            {
+                public Boolean get()
+                {
+                    try
+                    {
+                        if (!sharedObjectsDirectory.isDirectory())
+                        {
+                            return false;
+                        }
+                        final List<String> alternatePaths = readAlternates(objectsDirectory);
+                        alternatePaths.add(sharedObjectsDirectory.getAbsolutePath());
+                        FileUtils.writeLines(new File(new File(objectsDirectory, INFO_DIRECTORY), ALTERNATES_FILE), alternatePaths, "\n");
+                        return true;
+                    }
+                    catch (IOException e)
+                    {
+                        log.warn("Unable to link " + sharedObjectsDirectory + " to " + cacheDirectory, e);
+                        return false;
+                    }
+                }
+            });
+            if (!linked)
+            {
+                FileUtils.deleteQuietly(cacheDirectory);
+                return false;
+            }
+        }
+
+        // reopened, as repositories read their alternates only once
+        final FileRepository repository = new FileRepository(gitDirectory);
+        try
+        {
+            final RefUpdate refUpdate = repository.updateRef(RELATED_REF);
+            refUpdate.setNewObjectId(ObjectId.fromString(revision));
+            refUpdate.setForceUpdate(true);
+            refUpdate.update();
+        }
+        finally
+        {
+            repository.close();
+        }
+        return true;
+    }
+
+    @NotNull
+    private static List<String> readAlternates(@NotNull final File objectsDirectory) throws IOException
+    {
+        final File alternates = new File(new File(objectsDirectory, INFO_DIRECTORY), ALTERNATES_FILE);
+        final List<String> alternatePaths = new ArrayList<String>();
+        if (alternates.isFile())
+        {
+            for (String line : FileUtils.readLines(alternates))
+            {
+                if (StringUtils.isNotBlank(line))
+                {
+                    alternatePaths.add(StringUtils.trim(line));
+                }
+            }
+        }
+        return alternatePaths;
+    }
+
+    private static boolean isUsedByAnyCache(@NotNull final File sharedObjectsDirectory)
+    {
+        final File[] cacheDirectories = sharedObjectsDirectory.getParentFile().listFiles();
+        for (File cacheDirectory : cacheDirectories != null ? cacheDirectories : new File[0])
+        {
+            try
+            {
+                if (readAlternates(new File(new File(cacheDirectory, Constants.DOT_GIT), OBJECTS_DIRECTORY)).contains(sharedObjectsDirectory.getAbsolutePath()))
+                {
+                    return true;
+                }
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to read alternates of " + cacheDirectory + ", assuming it uses " + sharedObjectsDirectory, e);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return root commit of the branch fetched to the cache, following first parents, null if it cannot be found
+     */
+    @Nullable
+    private static String getRootCommit(@NotNull final File cacheDirectory)
+    {
+        String rootCommit = rootCommits.get(cacheDirectory);
+        if (rootCommit == null)
+        {
+            rootCommit = findRootCommit(cacheDirectory);
+            if (rootCommit != null)
+            {
+                rootCommits.put(cacheDirectory, rootCommit);
+            }
+        }
+        return rootCommit;
+    }
+
+    @Nullable
+    private static String findRootCommit(@NotNull final File cacheDirectory)
+    {
+        final File gitDirectory = new File(cacheDirectory, Constants.DOT_GIT);
+        if (!gitDirectory.isDirectory() || GitOperationHelper.isShallow(cacheDirectory))
+        {
+            return null;
+        }
+        FileRepository repository = null;
+        ObjectReader reader = null;
+        try
+        {
+            repository = new FileRepository(gitDirectory);
+            ObjectId commitId = repository.resolve(Constants.HEAD + "^{commit}");
+            if (commitId == null)
+            {
+                // HEAD is not linked to a branch, e.g. only a tag has been fetched
+                for (Ref ref : repository.getAllRefs().values())
+                {
+                    commitId = repository.resolve(ref.getName() + "^{commit}");
+                    if (commitId != null)
+                    {
+                        break;
+                    }
+                }
+            }
+            if (commitId == null)
+            {
+                return null;
+            }
+
+            // commits are parsed one by one and not kept, the history can be long
+            reader = repository.newObjectReader();
+            while (true)
+            {
+                final byte[] commit = reader.open(commitId, Constants.OBJ_COMMIT).getCachedBytes();
+                final int parentStart = RawParseUtils.nextLF(commit, TREE_LINE_LENGTH);
+                if (RawParseUtils.match(commit, parentStart, PARENT_HEADER) < 0)
+                {
+                    return commitId.getName();
+                }
+                commitId = ObjectId.fromString(commit, parentStart + PARENT_HEADER.length);
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to find root commit of " + cacheDirectory, e);
+            return null;
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                reader.release();
+            }
+            if (repository != null)
+            {
+                repository.close();
+            }
+        }
+    }
+
+    /**
+     * Moves complete packs and loose objects. A pack is moved before its index, so a reader which finds the index
+     * finds the pack too.
+     */
+    private static void moveObjects(@NotNull final File objectsDirectory, @NotNull final File targetDirectory) throws IOException
+    {
+        final File[] directories = objectsDirectory.listFiles();
+        if (directories == null)
+        {
+            return;
+        }
+        for (File directory : directories)
+        {
+            if (directory.getName().equals(PACK_DIRECTORY))
+            {
+                final File[] indexes = directory.listFiles((FilenameFilter) new SuffixFileFilter(".idx"));
+                for (File index : indexes != null ? indexes : new File[0])
+                {
+                    final File pack = new File(directory, StringUtils.removeEnd(index.getName(), ".idx") + ".pack");
+                    final File keep = new File(directory, StringUtils.removeEnd(index.getName(), ".idx") + ".keep");
+                    if (pack.isFile() && !keep.exists())
+                    {
+                        moveFile(pack, new File(targetDirectory, PACK_DIRECTORY));
+                        moveFile(index, new File(targetDirectory, PACK_DIRECTORY));
+                    }
+                }
+            }
+            else if (directory.getName().length() == 2 && directory.isDirectory())
+            {
+                final File[] objects = directory.listFiles();
+                for (File object : objects != null ? objects : new File[0])
+                {
+                    if (!isPartialObject(object.getName()))
+                    {
+                        moveFile(object, new File(targetDirectory, directory.getName()));
+                    }
+                }
+                directory.delete(); // only if empty
+            }
+        }
+    }
+
+    private static void moveFile(@NotNull final File file, @NotNull final File targetDirectory) throws IOException
+    {
+        final File target = new File(targetDirectory, file.getName());
+        if (target.exists())
+        {
+            // objects and packs are named after their contents, it is the same
+            FileUtils.forceDelete(file);
+            return;
+        }
+        FileUtils.forceMkdir(targetDirectory);
+        if (!file.renameTo(target))
+        {
+            FileUtils.moveFile(file, target);
+        }
+    }
+
+    private static boolean isPartialObject(@NotNull final String fileName)
+    {
+        return fileName.startsWith("tmp_")          // packs and loose objects being received by git
+               || fileName.startsWith("incoming_")  // packs being received by JGit
+               || fileName.startsWith("noz");       // loose objects being written by JGit
+    }
 }
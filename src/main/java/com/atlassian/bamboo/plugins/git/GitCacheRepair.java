@@ -0,0 +1,271 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Repairs a cache after a failed operation, so it does not have to be deleted and fetched from scratch: leftover locks
+ * and partial files are removed, as are loose objects named by the failure and refs whose history cannot be read. The
+ * next fetch then brings back only what is missing. Counts how often each repair has been used, and how often the
+ * cache could not be repaired.
+ */
+class GitCacheRepair
+{
+    private static final Logger log = Logger.getLogger(GitCacheRepair.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final Pattern OBJECT_ID = Pattern.compile("\\b[0-9a-f]{" + Constants.OBJECT_ID_STRING_LENGTH + "}\\b");
+
+    enum Outcome
+    {
+        STALE_FILES_REMOVED,
+        OBJECTS_REMOVED,
+        REFS_REMOVED,
+        NOT_REPAIRABLE;
+
+        private final AtomicLong count = new AtomicLong();
+
+        long getCount()
+        {
+            return count.get();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitCacheRepair()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @param failure failure of the last operation on the cache
+     * @return true if the cache has been repaired and can be fetched to again, false if it has to be deleted
+     */
+    static boolean repair(@NotNull final File cacheDirectory, @NotNull final Throwable failure)
+    {
+        final File gitDirectory = new File(cacheDirectory, Constants.DOT_GIT);
+        boolean repaired = false;
+        if (gitDirectory.isDirectory())
+        {
+            try
+            {
+                repaired = removeStaleFiles(cacheDirectory);
+                repaired |= removeObjects(gitDirectory, getObjectIds(failure));
+                repaired |= removeBrokenRefs(cacheDirectory, gitDirectory);
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to repair " + cacheDirectory, e);
+                repaired = false;
+            }
+        }
+        if (!repaired)
+        {
+            Outcome.NOT_REPAIRABLE.count.incrementAndGet();
+        }
+        log.info("Cache " + cacheDirectory + (repaired ? " repaired" : " cannot be repaired") + ", repairs so far: " + getCounts());
+        return repaired;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static boolean removeStaleFiles(@NotNull final File cacheDirectory)
+    {
+        final int removedFiles = GitCacheDirectory.cleanUpAfterInterruptedOperation(cacheDirectory);
+        if (removedFiles > 0)
+        {
+            log.info("Removed " + removedFiles + " stale locks and partial files from " + cacheDirectory);
+            Outcome.STALE_FILES_REMOVED.count.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Corrupt loose objects named by the failure are removed, to be fetched again. Packed objects cannot be removed this
+     * way, so a failure naming a corrupt packed object is not repairable.
+     */
+    private static boolean removeObjects(@NotNull final File gitDirectory, @NotNull final Set<ObjectId> objectIds) throws IOException
+    {
+        boolean removed = false;
+        for (ObjectId objectId : objectIds)
+        {
+            if (!isCorrupt(gitDirectory, objectId))
+            {
+                continue;
+            }
+            final String name = objectId.getName();
+            final File looseObject = new File(new File(new File(gitDirectory, "objects"), name.substring(0, 2)), name.substring(2));
+            if (!looseObject.isFile())
+            {
+                throw new IOException("Packed object " + name + " is corrupt");
+            }
+            FileUtils.forceDelete(looseObject);
+            log.info("Removed corrupt loose object " + looseObject);
+            removed = true;
+        }
+        if (removed)
+        {
+            Outcome.OBJECTS_REMOVED.count.incrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Refs whose history cannot be walked are removed, so the next fetch does not take the history as present. Only the
+     * tips are checked in shallow caches.
+     */
+    private static boolean removeBrokenRefs(@NotNull final File cacheDirectory, @NotNull final File gitDirectory) throws IOException
+    {
+        final boolean shallow = GitOperationHelper.isShallow(cacheDirectory);
+        boolean removed = false;
+        final FileRepository repository = new FileRepository(gitDirectory);
+        final RevWalk revWalk = new RevWalk(repository);
+        revWalk.setRetainBody(false);
+        final List<RevCommit> readableCommits = new ArrayList<RevCommit>();
+        try
+        {
+            for (Ref ref : repository.getAllRefs().values())
+            {
+                if (ref.isSymbolic() || ref.getObjectId() == null || isReadable(revWalk, ref.getObjectId(), shallow ? null : readableCommits))
+                {
+                    continue;
+                }
+                final RefUpdate refUpdate = repository.updateRef(ref.getName());
+                refUpdate.setForceUpdate(true);
+                refUpdate.delete();
+                log.info("Removed " + ref.getName() + " from " + cacheDirectory + ", its history cannot be read");
+                removed = true;
+            }
+        }
+        finally
+        {
+            revWalk.release();
+            repository.close();
+        }
+        if (removed)
+        {
+            Outcome.REFS_REMOVED.count.incrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * @param readableCommits commits whose history has already been read, null not to walk the history at all
+     */
+    private static boolean isReadable(@NotNull final RevWalk revWalk, @NotNull final ObjectId objectId, @Nullable final List<RevCommit> readableCommits)
+    {
+        try
+        {
+            final RevObject object = revWalk.peel(revWalk.parseAny(objectId));
+            if (readableCommits != null && object instanceof RevCommit)
+            {
+                revWalk.reset();
+                revWalk.markStart((RevCommit) object);
+                for (RevCommit readableCommit : readableCommits)
+                {
+                    revWalk.markUninteresting(readableCommit);
+                }
+                while (revWalk.next() != null)
+                {
+                }
+                readableCommits.add((RevCommit) object);
+            }
+            return true;
+        }
+        catch (Exception e)
+        {
+            log.debug("Cannot read history of " + objectId.getName(), e);
+            return false;
+        }
+    }
+
+    private static boolean isCorrupt(@NotNull final File gitDirectory, @NotNull final ObjectId objectId)
+    {
+        FileRepository repository = null;
+        try
+        {
+            repository = new FileRepository(gitDirectory);
+            repository.open(objectId).getBytes();
+            return false;
+        }
+        catch (MissingObjectException e)
+        {
+            return false;
+        }
+        catch (LargeObjectException e)
+        {
+            return false;
+        }
+        catch (Exception e)
+        {
+            log.debug("Cannot read " + objectId.getName(), e);
+            return true;
+        }
+        finally
+        {
+            if (repository != null)
+            {
+                repository.close();
+            }
+        }
+    }
+
+    @NotNull
+    private static Set<ObjectId> getObjectIds(@NotNull final Throwable failure)
+    {
+        final Set<ObjectId> objectIds = new HashSet<ObjectId>();
+        for (Throwable e = failure; e != null; e = e.getCause())
+        {
+            if (e instanceof MissingObjectException)
+            {
+                objectIds.add(((MissingObjectException) e).getObjectId());
+            }
+            if (e.getMessage() != null)
+            {
+                final Matcher matcher = OBJECT_ID.matcher(e.getMessage());
+                while (matcher.find())
+                {
+                    objectIds.add(ObjectId.fromString(matcher.group()));
+                }
+            }
+        }
+        return objectIds;
+    }
+
+    @NotNull
+    private static String getCounts()
+    {
+        final StringBuilder counts = new StringBuilder();
+        for (Outcome outcome : Outcome.values())
+        {
+            counts.append(counts.length() > 0 ? ", " : "").append(outcome).append('=').append(outcome.getCount());
+        }
+        return counts.toString();
+    }
+}
@@ -0,0 +1,197 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.RefDirectory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Branches, tags, HEAD and shallow commits of a cache as of its last completed fetch. A fetch publishes a new snapshot
+ * once all the objects it refers to are in place, by renaming a complete file over the previous one, so checkouts can
+ * read the cache without its lock and still never see a half-fetched state.
+ */
+class GitCacheSnapshot
+{
+    private static final Logger log = Logger.getLogger(GitCacheSnapshot.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String FILE_NAME = "bamboo-snapshot";
+    private static final String HEAD_PREFIX = "head ";
+    private static final String SHALLOW_PREFIX = "shallow ";
+    private static final String SHALLOW_FILE = "shallow";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private String head;
+    private final Map<String, String> refs = new TreeMap<String, String>();
+    private final Set<String> shallows = new TreeSet<String>();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitCacheSnapshot()
+    {
+    }
+
+    /**
+     * Publishes the current state of the cache. Must be called with the cache lock held, after the fetch.
+     */
+    static void publish(@NotNull final File cacheDirectory)
+    {
+        final File gitDirectory = new File(cacheDirectory, Constants.DOT_GIT);
+        final GitCacheSnapshot snapshot = new GitCacheSnapshot();
+        FileRepository repository = null;
+        try
+        {
+            repository = new FileRepository(gitDirectory);
+            final Ref head = repository.getRef(Constants.HEAD);
+            if (head != null && head.isSymbolic())
+            {
+                snapshot.head = head.getTarget().getName();
+            }
+            for (Ref ref : repository.getAllRefs().values())
+            {
+                if (!ref.isSymbolic() && ref.getObjectId() != null && StringUtils.startsWithAny(ref.getName(), new String[] {Constants.R_HEADS, Constants.R_TAGS}))
+                {
+                    snapshot.refs.put(ref.getName(), ref.getObjectId().getName());
+                }
+            }
+            for (ObjectId shallow : repository.getShallows())
+            {
+                snapshot.shallows.add(shallow.getName());
+            }
+            snapshot.save(gitDirectory);
+        }
+        catch (IOException e)
+        {
+            // readers fall back to the refs of the cache itself
+            log.warn("Unable to publish snapshot of " + cacheDirectory, e);
+            FileUtils.deleteQuietly(new File(gitDirectory, FILE_NAME));
+        }
+        finally
+        {
+            if (repository != null)
+            {
+                repository.close();
+            }
+        }
+    }
+
+    /**
+     * @return last published snapshot of the cache, null if there is none
+     */
+    @Nullable
+    static GitCacheSnapshot load(@NotNull final File cacheGitDirectory)
+    {
+        final File file = new File(cacheGitDirectory, FILE_NAME);
+        if (!file.isFile())
+        {
+            return null;
+        }
+        final GitCacheSnapshot snapshot = new GitCacheSnapshot();
+        try
+        {
+            for (String line : FileUtils.readLines(file))
+            {
+                if (line.startsWith(HEAD_PREFIX))
+                {
+                    snapshot.head = line.substring(HEAD_PREFIX.length());
+                }
+                else if (line.startsWith(SHALLOW_PREFIX))
+                {
+                    snapshot.shallows.add(line.substring(SHALLOW_PREFIX.length()));
+                }
+                else if (StringUtils.isNotBlank(line))
+                {
+                    snapshot.refs.put(StringUtils.substringAfter(line, " "), StringUtils.substringBefore(line, " "));
+                }
+            }
+            return snapshot;
+        }
+        catch (IOException e)
+        {
+            log.warn("Ignoring unreadable snapshot " + file, e);
+            return null;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Copies the snapshot to a repository which uses the cache as its alternate object store.
+     */
+    void writeTo(@NotNull final FileRepository repository) throws IOException
+    {
+        for (Map.Entry<String, String> ref : refs.entrySet())
+        {
+            FileUtils.writeStringToFile(new File(repository.getDirectory(), ref.getKey()), ref.getValue() + "\n");
+        }
+        if (!shallows.isEmpty())
+        {
+            FileUtils.writeLines(new File(repository.getDirectory(), SHALLOW_FILE), shallows, "\n");
+        }
+        if (head != null)
+        {
+            FileUtils.writeStringToFile(new File(repository.getDirectory(), Constants.HEAD), RefDirectory.SYMREF + head + "\n");
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private void save(@NotNull final File gitDirectory) throws IOException
+    {
+        final List<String> lines = new ArrayList<String>();
+        if (head != null)
+        {
+            lines.add(HEAD_PREFIX + head);
+        }
+        for (Map.Entry<String, String> ref : refs.entrySet())
+        {
+            lines.add(ref.getValue() + " " + ref.getKey());
+        }
+        for (String shallow : shallows)
+        {
+            lines.add(SHALLOW_PREFIX + shallow);
+        }
+
+        final File file = new File(gitDirectory, FILE_NAME);
+        final File temporaryFile = new File(gitDirectory, FILE_NAME + ".tmp");
+        FileUtils.writeLines(temporaryFile, lines, "\n");
+        GitFiles.replaceFile(temporaryFile, file);
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    @Nullable
+    String getHead()
+    {
+        return head;
+    }
+
+    @NotNull
+    Map<String, String> getRefs()
+    {
+        return refs;
+    }
+
+    @NotNull
+    Set<String> getShallows()
+    {
+        return shallows;
+    }
+}
@@ -0,0 +1,19 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.repository.RepositoryException;
+
+/**
+ * Thrown when a git operation has been aborted because the build was stopped.
+ */
+class GitCancelledException extends RepositoryException
+{
+    public GitCancelledException(String message)
+    {
+        super(message);
+    }
+
+    public GitCancelledException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,415 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.utils.SystemProperty;
+import com.atlassian.util.concurrent.Supplier;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Agent-local copies of checked out source directories, keyed by cache directory and revision. When the jobs of a stage run on one agent,
+ * the first to check out a revision to an empty source directory leaves a snapshot of it, and the others get their
+ * source directories from the snapshot instead of checking out again. Snapshots are published by renaming a complete
+ * copy, so a snapshot which exists is always complete; only the most recent ones are kept. A checked out .git
+ * directory uses the objects and refs of its cache, so repositories with different caches (e.g. forks) never share a
+ * snapshot even if they check out the same revision.
+ * <p>
+ * Jobs copy a snapshot concurrently; they only pin it so it is not removed while it is being copied.
+ * <p>
+ * Snapshots are copied with copy-on-write clones where the file system supports them, or as hard links if configured
+ * so (which is safe only if builds never modify source files in place), falling back to copying files in parallel;
+ * source directories with symbolic links are not snapshotted then.
+ * Modification times are not restored in hard linked copies, as that would change them in the snapshot and in the
+ * other jobs' copies too.
+ */
+class GitCheckoutSnapshots
+{
+    private static final Logger log = Logger.getLogger(GitCheckoutSnapshots.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    enum Method
+    {
+        /** copy-on-write clones where supported, plain copies elsewhere */
+        REFLINK,
+        /** hard links - builds must not modify source files in place, modification times are not restored */
+        HARDLINK,
+        /** files copied in parallel */
+        COPY
+    }
+
+    static final String SNAPSHOTS_DIRECTORY = "_git-checkout-snapshots";
+    private static final String SUBMODULES_SUFFIX = "-submodules";
+    private static final String KEY_SEPARATOR = "-";
+
+    static final boolean ENABLED = new SystemProperty(false, "atlassian.bamboo.git.checkoutSnapshots",
+            "ATLASSIAN_BAMBOO_GIT_CHECKOUT_SNAPSHOTS").getValue(false);
+    private static final int MAX_SNAPSHOTS = new SystemProperty(false, "atlassian.bamboo.git.checkoutSnapshots.max",
+            "ATLASSIAN_BAMBOO_GIT_CHECKOUT_SNAPSHOTS_MAX").getValue(5);
+    private static final int COPY_THREADS = new SystemProperty(false, "atlassian.bamboo.git.checkoutSnapshots.copyThreads",
+            "ATLASSIAN_BAMBOO_GIT_CHECKOUT_SNAPSHOTS_COPY_THREADS").getValue(4);
+
+    // not final - tests copy files with Java
+    static Method METHOD = parseMethod(new SystemProperty(false, "atlassian.bamboo.git.checkoutSnapshots.method",
+            "ATLASSIAN_BAMBOO_GIT_CHECKOUT_SNAPSHOTS_METHOD").getValue(Method.REFLINK.name()));
+
+    private static final ExecutorService executor = GitConcurrency.newDaemonExecutor(COPY_THREADS, "GitCheckoutSnapshotCopy-%d");
+
+    private static final AtomicLong temporaryCount = new AtomicLong();
+
+    // readers are the jobs copying a snapshot, the writer is the removal of the snapshot
+    private static final ConcurrentMap<File, ReadWriteLock> pins = new ConcurrentHashMap<File, ReadWriteLock>();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitCheckoutSnapshots()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @return directory of the snapshot of the revision checked out from the cache, which may not exist yet; null if
+     * the revision cannot be a snapshot key (e.g. it is not a full commit id)
+     */
+    @Nullable
+    static File getSnapshotDirectory(@NotNull final File workingDirectory, @NotNull final File cacheDirectory, @NotNull final String revision, boolean withSubmodules)
+    {
+        if (!ObjectId.isId(revision))
+        {
+            return null;
+        }
+        final String name = DigestUtils.shaHex(cacheDirectory.getAbsolutePath()) + KEY_SEPARATOR + revision + (withSubmodules ? SUBMODULES_SUFFIX : "");
+        return new File(new File(workingDirectory, SNAPSHOTS_DIRECTORY), name);
+    }
+
+    /**
+     * @return true if snapshots are materialized as hard links, whose files (and their modification times) are shared
+     * by the snapshot and all its copies
+     */
+    static boolean isHardLinked()
+    {
+        return METHOD == Method.HARDLINK && !SystemUtils.IS_OS_WINDOWS;
+    }
+
+    /**
+     * Copies the snapshot to the empty source directory. The snapshot is pinned while it is copied, other jobs copy
+     * it at the same time.
+     *
+     * @return false if there is no snapshot or it could not be copied, the source directory is then left empty
+     */
+    static boolean materialize(@NotNull final File snapshotDirectory, @NotNull final File sourceDirectory)
+    {
+        final Lock pin = getPin(snapshotDirectory).readLock();
+        pin.lock();
+        try
+        {
+            if (!snapshotDirectory.isDirectory())
+            {
+                return false;
+            }
+            copyDirectory(snapshotDirectory, sourceDirectory);
+            // the most recently used snapshots are kept
+            snapshotDirectory.setLastModified(System.currentTimeMillis());
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to copy snapshot " + snapshotDirectory + " to " + sourceDirectory, e);
+            cleanQuietly(sourceDirectory);
+            return false;
+        }
+        finally
+        {
+            pin.unlock();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the freshly checked out source directory, unless there already is one, and removes the least
+     * recently used snapshots above the limit. Failures are only logged, the build does not depend on the snapshot.
+     */
+    static void create(@NotNull final File sourceDirectory, @NotNull final File snapshotDirectory)
+    {
+        if (snapshotDirectory.exists())
+        {
+            return;
+        }
+        final File temporaryDirectory = new File(snapshotDirectory.getParentFile(), snapshotDirectory.getName() + ".tmp-" + temporaryCount.incrementAndGet());
+        try
+        {
+            copyDirectory(sourceDirectory, temporaryDirectory);
+            final boolean published = GitCacheDirectory.getCacheLock(snapshotDirectory).withLock(new Supplier<Boolean>()
+            {
+                public Boolean get()
+                {
+                    return !snapshotDirectory.exists() && temporaryDirectory.renameTo(snapshotDirectory);
+                }
+            });
+            if (!published)
+            {
+                GitTrash.delete(snapshotDirectory.getParentFile().getParentFile(), temporaryDirectory);
+            }
+            removeLeastRecentlyUsed(snapshotDirectory.getParentFile());
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to take snapshot of " + sourceDirectory, e);
+            FileUtils.deleteQuietly(temporaryDirectory);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static void removeLeastRecentlyUsed(@NotNull final File snapshotsDirectory)
+    {
+        // snapshots still being written belong to their writers
+        final File[] snapshots = snapshotsDirectory.listFiles(new FileFilter()
+        {
+            public boolean accept(File file)
+            {
+                final String[] key = StringUtils.split(StringUtils.removeEnd(file.getName(), SUBMODULES_SUFFIX), KEY_SEPARATOR);
+                return key.length == 2 && ObjectId.isId(key[0]) && ObjectId.isId(key[1]);
+            }
+        });
+        if (snapshots == null || snapshots.length <= MAX_SNAPSHOTS)
+        {
+            return;
+        }
+        Arrays.sort(snapshots, new Comparator<File>()
+        {
+            public int compare(File first, File second)
+            {
+                return first.lastModified() > second.lastModified() ? -1 : first.lastModified() < second.lastModified() ? 1 : 0;
+            }
+        });
+        for (final File snapshot : Arrays.asList(snapshots).subList(MAX_SNAPSHOTS, snapshots.length))
+        {
+            // a snapshot being copied has just been used, it is left for a later removal
+            final Lock pin = getPin(snapshot).writeLock();
+            if (!pin.tryLock())
+            {
+                continue;
+            }
+            try
+            {
+                GitTrash.delete(snapshotsDirectory.getParentFile(), snapshot);
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to remove snapshot " + snapshot, e);
+            }
+            finally
+            {
+                pin.unlock();
+            }
+        }
+    }
+
+    @NotNull
+    private static ReadWriteLock getPin(@NotNull final File snapshotDirectory)
+    {
+        return GitConcurrency.getReadWriteLock(pins, snapshotDirectory);
+    }
+
+    private static void copyDirectory(@NotNull final File source, @NotNull final File target) throws IOException
+    {
+        if (METHOD != Method.COPY && !SystemUtils.IS_OS_WINDOWS)
+        {
+            if (copyNatively(source, target))
+            {
+                return;
+            }
+            cleanQuietly(target);
+        }
+        copyInParallel(source, target);
+    }
+
+    /**
+     * Java cannot create hard links or clones, so cp does it.
+     */
+    private static boolean copyNatively(@NotNull final File source, @NotNull final File target) throws IOException
+    {
+        FileUtils.forceMkdir(target);
+        final List<String> command = new ArrayList<String>();
+        command.add("cp");
+        command.add(METHOD == Method.HARDLINK ? "-al" : "-a");
+        if (METHOD == Method.REFLINK && SystemUtils.IS_OS_LINUX)
+        {
+            command.add("--reflink=auto");
+        }
+        command.add(source.getAbsolutePath() + File.separator + ".");
+        command.add(target.getAbsolutePath());
+
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try
+        {
+            final String output = IOUtils.toString(process.getInputStream());
+            final int exitCode = process.waitFor();
+            if (exitCode != 0)
+            {
+                log.info("Unable to copy " + source + " with " + command + ", copying it file by file: " + output);
+            }
+            return exitCode == 0;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying " + source);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(process.getInputStream());
+            IOUtils.closeQuietly(process.getOutputStream());
+            IOUtils.closeQuietly(process.getErrorStream());
+            process.destroy();
+        }
+    }
+
+    /**
+     * Each top level entry of the directory (and of its .git directory, which holds most of the small files) is
+     * copied by a separate task.
+     */
+    static void copyInParallel(@NotNull final File source, @NotNull final File target) throws IOException
+    {
+        final List<Future<Void>> copies = new ArrayList<Future<Void>>();
+        final List<File> parts = new ArrayList<File>();
+        addParts(source, parts);
+        for (final File part : parts)
+        {
+            final File targetPart = new File(target, part.getAbsolutePath().substring(source.getAbsolutePath().length()));
+            copies.add(executor.submit(new Callable<Void>()
+            {
+                public Void call() throws IOException
+                {
+                    copy(part, targetPart);
+                    return null;
+                }
+            }));
+        }
+        FileUtils.forceMkdir(target);
+        for (Future<Void> copy : copies)
+        {
+            try
+            {
+                copy.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while copying " + source);
+            }
+            catch (ExecutionException e)
+            {
+                final IOException exception = new IOException("Unable to copy " + source + " to " + target);
+                exception.initCause(e.getCause());
+                throw exception;
+            }
+        }
+    }
+
+    private static void addParts(@NotNull final File directory, @NotNull final List<File> parts)
+    {
+        final File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0])
+        {
+            if (file.isDirectory() && file.getName().equals(Constants.DOT_GIT))
+            {
+                addParts(file, parts);
+            }
+            else
+            {
+                parts.add(file);
+            }
+        }
+    }
+
+    /**
+     * Copies preserving modification times, which keep the index of the copy valid, and executable bits. Java cannot
+     * create symbolic links - copying them would turn them into regular files and directories, so directories which
+     * contain them are not copied at all.
+     */
+    private static void copy(@NotNull final File source, @NotNull final File target) throws IOException
+    {
+        if (isSymbolicLink(source))
+        {
+            throw new IOException("Symbolic link " + source + " cannot be copied");
+        }
+        if (source.isDirectory())
+        {
+            FileUtils.forceMkdir(target);
+            final File[] files = source.listFiles();
+            for (File file : files != null ? files : new File[0])
+            {
+                copy(file, new File(target, file.getName()));
+            }
+            target.setLastModified(source.lastModified());
+        }
+        else
+        {
+            FileUtils.copyFile(source, target, true);
+            if (source.canExecute())
+            {
+                target.setExecutable(true);
+            }
+        }
+    }
+
+    private static boolean isSymbolicLink(@NotNull final File file) throws IOException
+    {
+        final File canonicalFile = new File(file.getParentFile().getCanonicalFile(), file.getName());
+        return !canonicalFile.getCanonicalFile().equals(canonicalFile.getAbsoluteFile());
+    }
+
+    private static void cleanQuietly(@NotNull final File directory)
+    {
+        try
+        {
+            if (directory.isDirectory())
+            {
+                FileUtils.cleanDirectory(directory);
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to clean " + directory, e);
+        }
+    }
+
+    private static Method parseMethod(@NotNull final String name)
+    {
+        try
+        {
+            return Method.valueOf(name.toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            log.warn("Unknown checkout snapshot method " + name + ", using " + Method.REFLINK);
+            return Method.REFLINK;
+        }
+    }
+}
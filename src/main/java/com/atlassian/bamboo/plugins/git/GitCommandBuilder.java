@@ -22,7 +22,7 @@ public class GitCommandBuilder
     private boolean sshCompression;
     private boolean verbose;
     private boolean maxVerboseOutput;
-    private boolean shallowClone;
+    private int depth;
 
     protected GitCommandBuilder(String... commands)
     {
@@ -91,7 +91,12 @@ public class GitCommandBuilder
 
     public GitCommandBuilder shallowClone()
     {
-        this.shallowClone = true;
+        return depth(1);
+    }
+
+    public GitCommandBuilder depth(int depth)
+    {
+        this.depth = depth;
         return this;
     }
 
@@ -142,10 +147,10 @@ public class GitCommandBuilder
             commandArgs.add(destination);
         }
 
-        if (shallowClone)
+        if (depth > 0)
         {
             commandArgs.add("--depth");
-            commandArgs.add("1");
+            commandArgs.add(String.valueOf(depth));
         }
 
         return commandArgs;
@@ -10,21 +10,21 @@ import com.atlassian.utils.process.LineOutputHandler;
 import com.atlassian.utils.process.OutputHandler;
 import com.atlassian.utils.process.PluggableProcessHandler;
 import com.atlassian.utils.process.StringOutputHandler;
-import com.google.common.base.CharMatcher;
-import com.google.common.base.Splitter;
-import com.google.common.collect.Sets;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.transport.RefSpec;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,6 +36,16 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
     // ------------------------------------------------------------------------------------------------------- Constants
 
     static final Pattern gitVersionPattern = Pattern.compile("^git version (.*)");
+    static final Pattern gitProgressPattern = Pattern.compile("^(remote: )?[\\w ]+:\\s+\\d+(% \\(\\d+/\\d+\\))?");
+
+    private static final String DEFAULT_GIT_EXECUTABLE = "git";
+    private static final String[] EXECUTABLE_EXTENSIONS = {"", ".exe", ".cmd", ".bat"};
+
+    /**
+     * Results of {@code git version} keyed by executable path, size and modification time, so the executable is
+     * probed again only when it gets replaced.
+     */
+    private static final ConcurrentMap<String, GitVersion> probedExecutables = new ConcurrentHashMap<String, GitVersion>();
 
     // ------------------------------------------------------------------------------------------------- Type Properties
 
@@ -46,6 +56,8 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
     private String proxyErrorMessage;
     private Throwable proxyException;
     private String sshCommand;
+    private GitVersion gitVersion;
+    private transient BuildCancellationSignal cancellationSignal;
 
     // ---------------------------------------------------------------------------------------------------- Dependencies
     // ---------------------------------------------------------------------------------------------------- Constructors
@@ -60,6 +72,20 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
     // ----------------------------------------------------------------------------------------------- Interface Methods
     // -------------------------------------------------------------------------------------------------- Public Methods
 
+    /**
+     * @return processor with the same configuration, but its own SSH proxy errors, for commands run concurrently with
+     * the ones of this processor
+     */
+    @NotNull
+    public GitCommandProcessor copy()
+    {
+        final GitCommandProcessor copy = new GitCommandProcessor(gitExecutable, buildLogger, commandTimeoutInMinutes, maxVerboseOutput);
+        copy.sshCommand = sshCommand;
+        copy.gitVersion = gitVersion;
+        copy.cancellationSignal = cancellationSignal;
+        return copy;
+    }
+
     /**
      * Checks whether git exist in current system.
      *
@@ -69,6 +95,14 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
      */
     public void checkGitExistenceInSystem(@NotNull final File workingDirectory) throws RepositoryException
     {
+        final String executableKey = getExecutableKey(gitExecutable);
+        final GitVersion probedVersion = executableKey != null ? probedExecutables.get(executableKey) : null;
+        if (probedVersion != null)
+        {
+            gitVersion = probedVersion;
+            return;
+        }
+
         GitCommandBuilder commandBuilder = createCommandBuilder("version");
 
         GitStringOutputHandler outputHandler = new GitStringOutputHandler();
@@ -84,6 +118,11 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
                 log.error(errorMessage + " Output:\n" + output);
                 throw new RepositoryException(errorMessage);
             }
+            gitVersion = new GitVersion(matcher.group(1).trim());
+            if (executableKey != null)
+            {
+                probedExecutables.put(executableKey, gitVersion);
+            }
         }
         catch (GitCommandException e)
         {
@@ -104,69 +143,121 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
         runCommand(commandBuilder, workingDirectory, new LoggingOutputHandler(buildLogger));
     }
 
-    public void runFetchCommand(@NotNull final File workingDirectory, @NotNull final GitRepository.GitRepositoryAccessData accessData, RefSpec refSpec, boolean useShallow) throws RepositoryException
+    /**
+     * Fetches watching the progress output - the command is cancelled when it stalls. Progress is logged for verbose
+     * logs only.
+     */
+    public void runFetchCommand(@NotNull final File workingDirectory, @NotNull final GitRepository.GitRepositoryAccessData accessData, RefSpec refSpec, int depth,
+                                @Nullable GitProgressWatchdog watchdog) throws RepositoryException
     {
         GitCommandBuilder commandBuilder = createCommandBuilder("fetch", accessData.repositoryUrl, refSpec.toString(), "--update-head-ok");
-        if (useShallow)
+        if (depth > 0)
         {
-            commandBuilder.shallowClone();
+            commandBuilder.depth(depth);
+        }
+        final boolean reportsProgress = supports(GitVersion.Feature.FETCH_PROGRESS);
+        if (reportsProgress && (accessData.verboseLogs || watchdog != null))
+        {
+            commandBuilder.append("--progress");
         }
         if (accessData.verboseLogs)
         {
             commandBuilder.verbose(true);
-            commandBuilder.append("--progress");
         }
-        runCommand(commandBuilder, workingDirectory, new LoggingOutputHandler(buildLogger));
+        if (!reportsProgress)
+        {
+            watchdog = null; // silent until the transfer finishes, stalls cannot be told apart
+        }
+        runCommand(commandBuilder, workingDirectory, new LoggingOutputHandler(buildLogger, watchdog, accessData.verboseLogs), watchdog);
     }
 
-    public void runCheckoutCommand(@NotNull final File workingDirectory, String revision) throws RepositoryException
+    /**
+     * @param destination revision or name of a local branch to check out
+     */
+    public void runCheckoutCommand(@NotNull final File workingDirectory, @NotNull String destination) throws RepositoryException
     {
-        /**
-         * this call to git log checks if requested revision is considered as HEAD of resolved branch. If so, instead of calling explicit revision,
-         * checkout to branch is called to avoid DETACHED HEAD
-         */
-        String possibleBranch = getPossibleBranchNameForCheckout(workingDirectory, revision);
-
-        String destination = revision;
-        if (StringUtils.isNotBlank(possibleBranch))
-        {
-           destination = possibleBranch;
-        }
         GitCommandBuilder commandBuilder = createCommandBuilder("checkout", "-f", destination);
         runCommand(commandBuilder, workingDirectory, new LoggingOutputHandler(buildLogger));
     }
 
-    public void runSubmoduleUpdateCommand(@NotNull final File workingDirectory) throws RepositoryException
+    /**
+     * @return revisions of the remote refs keyed by ref name; peeled tags are left out
+     */
+    @NotNull
+    public Map<String, String> runLsRemoteCommand(@NotNull final File workingDirectory, @NotNull final String repositoryUrl) throws RepositoryException
     {
-        GitCommandBuilder commandBuilder = createCommandBuilder("submodule", "update", "--init", "--recursive");
+        GitCommandBuilder commandBuilder = createCommandBuilder("ls-remote", repositoryUrl);
+        final GitStringOutputHandler outputHandler = new GitStringOutputHandler();
+        runCommand(commandBuilder, workingDirectory, outputHandler);
 
-        runCommand(commandBuilder, workingDirectory, new LoggingOutputHandler(buildLogger));
+        final Map<String, String> refs = new LinkedHashMap<String, String>();
+        for (String line : StringUtils.split(StringUtils.defaultString(outputHandler.getOutput()), "\n"))
+        {
+            final String revision = StringUtils.trim(StringUtils.substringBefore(line, "\t"));
+            final String refName = StringUtils.trim(StringUtils.substringAfter(line, "\t"));
+            if (ObjectId.isId(revision) && StringUtils.isNotEmpty(refName) && !refName.endsWith("^{}"))
+            {
+                refs.put(refName, revision);
+            }
+        }
+        return refs;
     }
 
     // -------------------------------------------------------------------------------------------------- Helper Methods
 
-    private String getPossibleBranchNameForCheckout(File workingDirectory, String revision) throws RepositoryException
+    /**
+     * Options of unknown executables (not probed yet) are assumed to be supported.
+     */
+    private boolean supports(@NotNull final GitVersion.Feature feature)
     {
-        GitCommandBuilder commandBuilder = createCommandBuilder("log", "-1", "--format=%d", "--decorate=full");
-        commandBuilder.append(revision);
-        final GitStringOutputHandler outputHandler = new GitStringOutputHandler();
-        runCommand(commandBuilder, workingDirectory, outputHandler);
+        return gitVersion == null || gitVersion.supports(feature);
+    }
 
-        String revisionDescription = outputHandler.getOutput();
-        if (StringUtils.isNotBlank(revisionDescription))
+    @Nullable
+    static String getExecutableKey(@Nullable final String gitExecutable)
+    {
+        final File executable = resolveExecutable(StringUtils.defaultIfEmpty(gitExecutable, DEFAULT_GIT_EXECUTABLE));
+        if (executable == null)
+        {
+            return null;
+        }
+        try
+        {
+            return executable.getCanonicalPath() + File.pathSeparator + executable.length() + File.pathSeparator + executable.lastModified();
+        }
+        catch (IOException e)
         {
-            Set<String> possibleBranches = Sets.newHashSet(
-                    Splitter.on(',').trimResults().split(
-                            CharMatcher.anyOf("()").removeFrom(StringUtils.trim(revisionDescription))));
-            for (String possibleBranch : possibleBranches)
+            log.debug("Cannot resolve git executable " + executable, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static File resolveExecutable(@NotNull final String gitExecutable)
+    {
+        final File executable = new File(gitExecutable);
+        if (executable.isAbsolute() || gitExecutable.contains("/") || gitExecutable.contains(File.separator))
+        {
+            return executable.isFile() ? executable : null;
+        }
+
+        final String path = System.getenv("PATH");
+        if (path == null)
+        {
+            return null;
+        }
+        for (String directory : StringUtils.split(path, File.pathSeparator))
+        {
+            for (String extension : EXECUTABLE_EXTENSIONS)
             {
-                if (possibleBranch.startsWith(Constants.R_HEADS))
+                final File candidate = new File(directory, gitExecutable + extension);
+                if (candidate.isFile())
                 {
-                    return StringUtils.removeStart(possibleBranch, Constants.R_HEADS);
+                    return candidate;
                 }
             }
         }
-        return "";
+        return null;
     }
 
     private GitCommandBuilder createCommandBuilder(String... commands)
@@ -185,13 +276,20 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
     private void runCommand(@NotNull final GitCommandBuilder commandBuilder, @NotNull final File workingDirectory,
                             @NotNull final GitOutputHandler outputHandler) throws RepositoryException
     {
+        runCommand(commandBuilder, workingDirectory, outputHandler, null);
+    }
+
+    private void runCommand(@NotNull final GitCommandBuilder commandBuilder, @NotNull final File workingDirectory,
+                            @NotNull final GitOutputHandler outputHandler, @Nullable GitProgressWatchdog watchdog) throws RepositoryException
+    {
+        if (watchdog == null && cancellationSignal != null)
+        {
+            watchdog = new GitProgressWatchdog(0, cancellationSignal);
+        }
+
         //noinspection ResultOfMethodCallIgnored
         workingDirectory.mkdirs();
 
-        PluggableProcessHandler handler = new PluggableProcessHandler();
-        handler.setOutputHandler(outputHandler);
-        handler.setErrorHandler(outputHandler);
-
         final List<String> commandArgs = commandBuilder.build();
         if (maxVerboseOutput)
         {
@@ -203,26 +301,112 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
             buildLogger.addBuildLogEntry(stringBuilder.toString());
         }
 
-        final ExternalProcessBuilder externalProcessBuilder = new ExternalProcessBuilder()
-                .command((commandArgs), workingDirectory)
-                .handler(handler);
-
         final Map<String, String> environment = commandBuilder.prepareEnvironment();
-        if (!environment.isEmpty())
+        final long timeout = TimeUnit.MINUTES.toMillis(commandTimeoutInMinutes);
+
+        GitProcessLauncher.Execution execution = null;
+        if (GitProcessLauncher.ENABLED)
         {
-            externalProcessBuilder.env(environment);
+            try
+            {
+                execution = GitProcessLauncher.getInstance().start(commandArgs, workingDirectory, environment, outputHandler);
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to start git through a helper process, starting it directly", e);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new GitCancelledException("Interrupted while waiting for a git helper process", e);
+            }
         }
-        ExternalProcess process = externalProcessBuilder.build();
 
-        process.setTimeout(TimeUnit.MINUTES.toMillis(commandTimeoutInMinutes));
-        process.execute();
+        final boolean succeeded;
+        final Throwable exception;
+        if (execution != null)
+        {
+            final GitProcessLauncher.Execution launchedExecution = execution;
+            if (watchdog != null)
+            {
+                watchdog.start(new Runnable()
+                {
+                    public void run()
+                    {
+                        launchedExecution.cancel();
+                    }
+                });
+            }
+            try
+            {
+                execution.waitFor(timeout);
+            }
+            finally
+            {
+                if (watchdog != null)
+                {
+                    watchdog.stop();
+                }
+                outputHandler.flush();
+            }
+            succeeded = execution.succeeded();
+            exception = execution.getException();
+        }
+        else
+        {
+            PluggableProcessHandler handler = new PluggableProcessHandler();
+            handler.setOutputHandler(outputHandler);
+            handler.setErrorHandler(outputHandler);
+
+            final ExternalProcessBuilder externalProcessBuilder = new ExternalProcessBuilder()
+                    .command((commandArgs), workingDirectory)
+                    .handler(handler);
+
+            if (!environment.isEmpty())
+            {
+                externalProcessBuilder.env(environment);
+            }
+            final ExternalProcess process = externalProcessBuilder.build();
 
-        if (!handler.succeeded())
+            process.setTimeout(timeout);
+            if (watchdog != null)
+            {
+                watchdog.start(new Runnable()
+                {
+                    public void run()
+                    {
+                        process.cancel();
+                    }
+                });
+            }
+            try
+            {
+                process.execute();
+            }
+            finally
+            {
+                if (watchdog != null)
+                {
+                    watchdog.stop();
+                }
+                outputHandler.flush();
+            }
+            succeeded = handler.succeeded();
+            exception = handler.getException();
+        }
+
+        if (watchdog != null && watchdog.isCancelled())
+        {
+            throw new GitCancelledException("command " + RepositoryUrlObfuscator.obfuscatePasswordsInUrls(commandArgs)
+                                            + " was cancelled because the build has been stopped. Working directory was `" + workingDirectory + "'.");
+        }
+        if (!succeeded)
         {
             // command may contain user password (url) in plaintext -> hide it from bamboo plan/build logs. see BAM-5781
-            throw new GitCommandException("command " + RepositoryUrlObfuscator.obfuscatePasswordsInUrls(commandArgs) + " failed. Working directory was `"
-                                          + workingDirectory + "'.",
-                                          proxyException != null ? proxyException : handler.getException(),
+            throw new GitCommandException("command " + RepositoryUrlObfuscator.obfuscatePasswordsInUrls(commandArgs)
+                                          + (watchdog != null && watchdog.isStalled() ? " stalled and was cancelled" : " failed")
+                                          + ". Working directory was `" + workingDirectory + "'.",
+                                          proxyException != null ? proxyException : exception,
                                           outputHandler.getStdout(),
                                           proxyErrorMessage != null ? "SSH Proxy error: " + proxyErrorMessage : outputHandler.getStdout());
         }
@@ -231,6 +415,11 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
     interface GitOutputHandler extends OutputHandler
     {
         String getStdout();
+
+        /**
+         * Called when the command has finished, output which is still buffered should be written out.
+         */
+        void flush();
     }
 
     class GitStringOutputHandler extends StringOutputHandler implements GitOutputHandler
@@ -239,29 +428,55 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
         {
             return getOutput();
         }
+
+        public void flush()
+        {
+        }
     }
 
+    /**
+     * Logs the output asynchronously, keeping only the last few KB of it in memory.
+     */
     class LoggingOutputHandler extends LineOutputHandler implements GitCommandProcessor.GitOutputHandler
     {
-        final BuildLogger buildLogger;
-        final StringBuilder stringBuilder;
+        final AsyncBuildLogAppender appender;
+        final GitProgressWatchdog watchdog;
+        final boolean logProgress;
 
         public LoggingOutputHandler(@NotNull final BuildLogger buildLogger)
         {
-            this.buildLogger = buildLogger;
-            stringBuilder = new StringBuilder();
+            this(buildLogger, null, true);
+        }
+
+        public LoggingOutputHandler(@NotNull final BuildLogger buildLogger, @Nullable final GitProgressWatchdog watchdog, boolean logProgress)
+        {
+            appender = new AsyncBuildLogAppender(buildLogger);
+            this.watchdog = watchdog;
+            this.logProgress = logProgress;
         }
 
         @Override
         protected void processLine(int i, String s)
         {
-            buildLogger.addBuildLogEntry(s);
-            stringBuilder.append(s);
+            if (watchdog != null)
+            {
+                // throughput may change while nothing is being received
+                watchdog.progress(StringUtils.substringBefore(s, " | "));
+            }
+            if (logProgress || !gitProgressPattern.matcher(s).find())
+            {
+                appender.append(s);
+            }
         }
 
         public String getStdout()
         {
-            return stringBuilder.toString();
+            return appender.getTail();
+        }
+
+        public void flush()
+        {
+            appender.flush();
         }
     }
 
@@ -272,4 +487,18 @@ class GitCommandProcessor implements Serializable, ProxyErrorReceiver
     {
         this.sshCommand = sshCommand;
     }
+
+    /**
+     * Git processes are terminated as soon as the signal tells the build has been stopped.
+     */
+    public void setCancellationSignal(@Nullable final BuildCancellationSignal cancellationSignal)
+    {
+        this.cancellationSignal = cancellationSignal;
+    }
+
+    @Nullable
+    GitVersion getGitVersion()
+    {
+        return gitVersion;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread pools and locks shared by the background work of the plugin.
+ */
+class GitConcurrency
+{
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitConcurrency()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Pool of at most the given number of daemon threads, which end after a minute without work, so an idle pool
+     * holds no threads and never keeps the JVM from exiting.
+     */
+    @NotNull
+    static ExecutorService newDaemonExecutor(final int threads, @NotNull final String nameFormat)
+    {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * Gets the lock of the key, creating it the first time the key is seen.
+     */
+    @NotNull
+    static <K> ReadWriteLock getReadWriteLock(@NotNull final ConcurrentMap<K, ReadWriteLock> locks, @NotNull final K key)
+    {
+        final ReadWriteLock lock = locks.get(key);
+        if (lock != null)
+        {
+            return lock;
+        }
+        final ReadWriteLock newLock = new ReentrantReadWriteLock();
+        final ReadWriteLock existingLock = locks.putIfAbsent(key, newLock);
+        return existingLock != null ? existingLock : newLock;
+    }
+}
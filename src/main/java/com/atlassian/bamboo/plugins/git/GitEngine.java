@@ -0,0 +1,10 @@
+package com.atlassian.bamboo.plugins.git;
+
+/**
+ * Implementations git operations can be run with.
+ */
+enum GitEngine
+{
+    JGIT,
+    NATIVE
+}
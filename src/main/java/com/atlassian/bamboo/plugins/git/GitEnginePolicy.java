@@ -0,0 +1,18 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Decides which engine runs a git operation when native git is available.
+ */
+interface GitEnginePolicy
+{
+    @NotNull
+    GitEngine selectEngine(@NotNull GitOperation operation, @NotNull GitRepository.GitRepositoryAccessData accessData);
+
+    /**
+     * Called after an operation has finished successfully.
+     */
+    void operationCompleted(@NotNull GitOperation operation, @NotNull GitEngine engine,
+                            @NotNull GitRepository.GitRepositoryAccessData accessData, long durationMillis);
+}
@@ -0,0 +1,31 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Per repository choice of the {@link GitEnginePolicy}; only used when native git is available.
+ */
+enum GitEngineSelection
+{
+    DEFAULT,
+    NATIVE,
+    JGIT,
+    AUTOMATIC;
+
+    @NotNull
+    GitEnginePolicy createPolicy()
+    {
+        switch (this)
+        {
+            case NATIVE:
+                return new FixedGitEnginePolicy(GitEngine.NATIVE);
+            case JGIT:
+                return new FixedGitEnginePolicy(GitEngine.JGIT);
+            case AUTOMATIC:
+                return TimingGitEnginePolicy.getSharedInstance();
+            default:
+                return new DefaultGitEnginePolicy();
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Files the plugin keeps next to caches and checkouts (manifests, snapshots, statistics, bundles) are written to a
+ * temporary file first, which then replaces the file, so readers never see a partially written one.
+ */
+class GitFiles
+{
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitFiles()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Moves the completely written temporary file to the place of the file, replacing it if it exists.
+     */
+    static void replaceFile(@NotNull final File temporaryFile, @NotNull final File file) throws IOException
+    {
+        if (!temporaryFile.renameTo(file))
+        {
+            // renaming over an existing file is not possible everywhere (Windows)
+            FileUtils.deleteQuietly(file);
+            FileUtils.moveFile(temporaryFile, file);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.utils.SystemProperty;
+import com.opensymphony.webwork.dispatcher.json.JSONObject;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.CharEncoding;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues GitHub API calls on behalf of a single user. Responses are cached per user and revalidated with conditional
+ * requests (ETag/Last-Modified) once they get older than the cache TTL, so reloading the repository list is cheap.
+ */
+class GitHubApiClient
+{
+    @SuppressWarnings("UnusedDeclaration")
+    private static final Logger log = Logger.getLogger(GitHubApiClient.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final int API_THREADS = new SystemProperty(false, "atlassian.bamboo.github.api.threads",
+            "ATLASSIAN_BAMBOO_GITHUB_API_THREADS").getValue(8);
+    static final long DEFAULT_CACHE_TTL = TimeUnit.SECONDS.toMillis(new SystemProperty(false, "atlassian.bamboo.github.api.cache.ttl",
+            "ATLASSIAN_BAMBOO_GITHUB_API_CACHE_TTL").getValue(300));
+    private static final long CACHE_EXPIRY = TimeUnit.DAYS.toMillis(1);
+    private static final int HTTP_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+
+    private static final ExecutorService executor = GitConcurrency.newDaemonExecutor(API_THREADS, "GitHubApiClient-%d");
+
+    private static final ConcurrentMap<String, CachedResponse> responseCache = new ConcurrentHashMap<String, CachedResponse>();
+    private static final ConcurrentMap<String, Future<JSONObject>> pendingRequests = new ConcurrentHashMap<String, Future<JSONObject>>();
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+    private final String baseUrl;
+    private final String username;
+    private final String password;
+    private final long cacheTtl;
+
+    private static class CachedResponse
+    {
+        final String body;
+        final String etag;
+        final String lastModified;
+        volatile long validatedTimestamp;
+
+        CachedResponse(final String body, final String etag, final String lastModified)
+        {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validatedTimestamp = System.currentTimeMillis();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    GitHubApiClient(@NotNull final String baseUrl, @NotNull final String username, @Nullable final String password)
+    {
+        this(baseUrl, username, password, DEFAULT_CACHE_TTL);
+    }
+
+    GitHubApiClient(@NotNull final String baseUrl, @NotNull final String username, @Nullable final String password, final long cacheTtl)
+    {
+        this.baseUrl = baseUrl;
+        this.username = username;
+        this.password = password;
+        this.cacheTtl = cacheTtl;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    @NotNull
+    JSONObject getJsonObject(@NotNull final String path) throws Exception
+    {
+        return new JSONObject(getResponse(path));
+    }
+
+    /**
+     * Schedules the call on the shared, bounded executor. Concurrent calls for the same user and path share one request.
+     */
+    @NotNull
+    Future<JSONObject> getJsonObjectAsync(@NotNull final String path)
+    {
+        final String key = cacheKey(path);
+        Future<JSONObject> pending = pendingRequests.get(key);
+        if (pending != null)
+        {
+            return pending;
+        }
+
+        final FutureTask<JSONObject> task = new FutureTask<JSONObject>(new Callable<JSONObject>()
+        {
+            public JSONObject call() throws Exception
+            {
+                try
+                {
+                    return getJsonObject(path);
+                }
+                finally
+                {
+                    pendingRequests.remove(key);
+                }
+            }
+        });
+        pending = pendingRequests.putIfAbsent(key, task);
+        if (pending != null)
+        {
+            return pending;
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    @NotNull
+    private String getResponse(@NotNull final String path) throws IOException
+    {
+        final String key = cacheKey(path);
+        final CachedResponse cached = responseCache.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.validatedTimestamp < cacheTtl)
+        {
+            return cached.body;
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        try
+        {
+            connection.setConnectTimeout(HTTP_TIMEOUT);
+            connection.setReadTimeout(HTTP_TIMEOUT);
+            if (StringUtils.isNotBlank(password))
+            {
+                final byte[] credentials = (username + ":" + password).getBytes(CharEncoding.UTF_8);
+                connection.setRequestProperty("Authorization", "Basic " + new String(Base64.encodeBase64(credentials), CharEncoding.US_ASCII));
+            }
+            if (cached != null)
+            {
+                if (cached.etag != null)
+                {
+                    connection.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if (cached.lastModified != null)
+                {
+                    connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
+
+            if (cached != null && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+            {
+                cached.validatedTimestamp = System.currentTimeMillis();
+                return cached.body;
+            }
+
+            final InputStream inputStream = connection.getInputStream(); // throws FileNotFoundException on 404
+            final String body;
+            try
+            {
+                body = IOUtils.toString(inputStream, CharEncoding.UTF_8);
+            }
+            finally
+            {
+                IOUtils.closeQuietly(inputStream);
+            }
+            evictExpiredResponses();
+            responseCache.put(key, new CachedResponse(body, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified")));
+            return body;
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Responses are cached per user and password - users must not see listings loaded with someone else's credentials.
+     */
+    private String cacheKey(final String path)
+    {
+        return GitCacheDirectory.calculateAggregateSha(baseUrl + path, username, password);
+    }
+
+    private static void evictExpiredResponses()
+    {
+        final long now = System.currentTimeMillis();
+        for (Iterator<CachedResponse> it = responseCache.values().iterator(); it.hasNext(); )
+        {
+            if (now - it.next().validatedTimestamp > CACHE_EXPIRY)
+            {
+                it.remove();
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ import com.atlassian.bamboo.plan.branch.VcsBranch;
 import com.atlassian.bamboo.repository.AbstractStandaloneRepository;
 import com.atlassian.bamboo.repository.AdvancedConfigurationAwareRepository;
 import com.atlassian.bamboo.repository.BranchDetectionCapableRepository;
+import com.atlassian.bamboo.repository.NameValuePair;
 import com.atlassian.bamboo.repository.Repository;
 import com.atlassian.bamboo.repository.RepositoryException;
 import com.atlassian.bamboo.security.StringEncrypter;
@@ -23,12 +24,14 @@ import com.opensymphony.xwork.TextProvider;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 public class GitHubRepository extends AbstractStandaloneRepository implements CustomSourceDirectoryAwareRepository,
@@ -42,14 +45,22 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
     private static final String REPOSITORY_GITHUB_REPOSITORY = "repository.github.repository";
     private static final String REPOSITORY_GITHUB_BRANCH = "repository.github.branch";
     private static final String REPOSITORY_GITHUB_USE_SHALLOW_CLONES = "repository.github.useShallowClones";
+    private static final String REPOSITORY_GITHUB_SHALLOW_DEPTH = "repository.github.shallowDepth";
+    private static final String REPOSITORY_GITHUB_AUTOMATIC_SHALLOW_CLONES = "repository.github.automaticShallowClones";
     private static final String REPOSITORY_GITHUB_USE_SUBMODULES = "repository.github.useSubmodules";
     private static final String REPOSITORY_GITHUB_COMMAND_TIMEOUT = "repository.github.commandTimeout";
     private static final String REPOSITORY_GITHUB_VERBOSE_LOGS = "repository.github.verbose.logs";
+    private static final String REPOSITORY_GITHUB_ENGINE_SELECTION = "repository.github.engineSelection";
+    private static final String REPOSITORY_GITHUB_OBJECT_POOL = "repository.github.objectPool";
+    private static final String REPOSITORY_GITHUB_POOL_RELATED_REPOSITORIES = "repository.github.poolRelatedRepositories";
+    private static final String REPOSITORY_GITHUB_EXPORT_ONLY = "repository.github.exportOnly";
+    private static final String REPOSITORY_GITHUB_PRESERVE_MODIFICATION_TIMES = "repository.github.preserveModificationTimes";
 
     private static final String REPOSITORY_GITHUB_TEMPORARY_PASSWORD = "repository.github.temporary.password";
     private static final String TEMPORARY_GITHUB_PASSWORD_CHANGE = "temporary.github.password.change";
 
     private static final String REPOSITORY_GITHUB_ERROR_MISSING_REPOSITORY = "repository.github.error.missingRepository";
+    private static final String REPOSITORY_GITHUB_ERROR_INVALID_SHALLOW_DEPTH = "repository.github.error.invalidShallowDepth";
 
     // ------------------------------------------------------------------------------------------------- Type Properties
     private static final Logger log = Logger.getLogger(GitHubRepository.class);
@@ -61,9 +72,16 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
     private String repository;
     private String branch;
     private boolean useShallowClones;
+    private int shallowDepth = GitRepository.DEFAULT_SHALLOW_DEPTH;
+    private boolean automaticShallowClones;
     private boolean useSubmodules;
     private boolean verboseLogs;
     private int commandTimeout;
+    private GitEngineSelection engineSelection = GitEngineSelection.DEFAULT;
+    private String objectPool;
+    private boolean poolRelatedRepositories;
+    private boolean exportOnly;
+    private boolean preserveModificationTimes;
 
 
     // ---------------------------------------------------------------------------------------------------- Dependencies
@@ -146,7 +164,14 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
         buildConfiguration.setProperty(REPOSITORY_GITHUB_COMMAND_TIMEOUT, String.valueOf(GitRepository.DEFAULT_COMMAND_TIMEOUT_IN_MINUTES));
         buildConfiguration.clearTree(REPOSITORY_GITHUB_VERBOSE_LOGS);
         buildConfiguration.setProperty(REPOSITORY_GITHUB_USE_SHALLOW_CLONES, true);
+        buildConfiguration.setProperty(REPOSITORY_GITHUB_SHALLOW_DEPTH, String.valueOf(GitRepository.DEFAULT_SHALLOW_DEPTH));
+        buildConfiguration.clearTree(REPOSITORY_GITHUB_AUTOMATIC_SHALLOW_CLONES);
         buildConfiguration.clearTree(REPOSITORY_GITHUB_USE_SUBMODULES);
+        buildConfiguration.setProperty(REPOSITORY_GITHUB_ENGINE_SELECTION, GitEngineSelection.DEFAULT.name());
+        buildConfiguration.clearTree(REPOSITORY_GITHUB_OBJECT_POOL);
+        buildConfiguration.clearTree(REPOSITORY_GITHUB_POOL_RELATED_REPOSITORIES);
+        buildConfiguration.clearTree(REPOSITORY_GITHUB_EXPORT_ONLY);
+        buildConfiguration.clearTree(REPOSITORY_GITHUB_PRESERVE_MODIFICATION_TIMES);
 
     }
 
@@ -159,6 +184,8 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
         }
         buildConfiguration.setProperty(REPOSITORY_GITHUB_REPOSITORY, buildConfiguration.getString(REPOSITORY_GITHUB_REPOSITORY, "").trim());
         buildConfiguration.setProperty(REPOSITORY_GITHUB_BRANCH, buildConfiguration.getString(REPOSITORY_GITHUB_BRANCH, "").trim());
+        final int shallowDepth = NumberUtils.toInt(StringUtils.trim(buildConfiguration.getString(REPOSITORY_GITHUB_SHALLOW_DEPTH)), 0);
+        buildConfiguration.setProperty(REPOSITORY_GITHUB_SHALLOW_DEPTH, shallowDepth >= 1 ? shallowDepth : GitRepository.DEFAULT_SHALLOW_DEPTH);
     }
 
     @Override
@@ -170,9 +197,16 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
         repository = config.getString(REPOSITORY_GITHUB_REPOSITORY);
         branch = config.getString(REPOSITORY_GITHUB_BRANCH);
         useShallowClones = config.getBoolean(REPOSITORY_GITHUB_USE_SHALLOW_CLONES);
+        shallowDepth = config.getInt(REPOSITORY_GITHUB_SHALLOW_DEPTH, GitRepository.DEFAULT_SHALLOW_DEPTH);
+        automaticShallowClones = config.getBoolean(REPOSITORY_GITHUB_AUTOMATIC_SHALLOW_CLONES, false);
         useSubmodules = config.getBoolean(REPOSITORY_GITHUB_USE_SUBMODULES);
         commandTimeout = config.getInt(REPOSITORY_GITHUB_COMMAND_TIMEOUT, GitRepository.DEFAULT_COMMAND_TIMEOUT_IN_MINUTES);
         verboseLogs = config.getBoolean(REPOSITORY_GITHUB_VERBOSE_LOGS, false);
+        engineSelection = GitRepository.safeParseEngineSelection(config.getString(REPOSITORY_GITHUB_ENGINE_SELECTION));
+        objectPool = StringUtils.trimToNull(config.getString(REPOSITORY_GITHUB_OBJECT_POOL));
+        poolRelatedRepositories = config.getBoolean(REPOSITORY_GITHUB_POOL_RELATED_REPOSITORIES, false);
+        exportOnly = config.getBoolean(REPOSITORY_GITHUB_EXPORT_ONLY, false);
+        preserveModificationTimes = config.getBoolean(REPOSITORY_GITHUB_PRESERVE_MODIFICATION_TIMES, false);
 
         gitRepository.accessData.repositoryUrl = "https://github.com/" + repository + ".git";
         gitRepository.accessData.username = username;
@@ -182,9 +216,16 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
         gitRepository.accessData.sshPassphrase = "";
         gitRepository.accessData.authenticationType = GitAuthenticationType.PASSWORD;
         gitRepository.accessData.useShallowClones = useShallowClones;
+        gitRepository.accessData.shallowDepth = shallowDepth;
+        gitRepository.accessData.automaticShallowClones = automaticShallowClones;
         gitRepository.accessData.useSubmodules = useSubmodules;
         gitRepository.accessData.commandTimeout = commandTimeout;
         gitRepository.accessData.verboseLogs = verboseLogs;
+        gitRepository.accessData.engineSelection = engineSelection;
+        gitRepository.accessData.objectPool = objectPool;
+        gitRepository.accessData.poolRelatedRepositories = poolRelatedRepositories;
+        gitRepository.accessData.exportOnly = exportOnly;
+        gitRepository.accessData.preserveModificationTimes = preserveModificationTimes;
     }
 
     @NotNull
@@ -197,9 +238,16 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
         configuration.setProperty(REPOSITORY_GITHUB_REPOSITORY, repository);
         configuration.setProperty(REPOSITORY_GITHUB_BRANCH, branch);
         configuration.setProperty(REPOSITORY_GITHUB_USE_SHALLOW_CLONES, useShallowClones);
+        configuration.setProperty(REPOSITORY_GITHUB_SHALLOW_DEPTH, shallowDepth);
+        configuration.setProperty(REPOSITORY_GITHUB_AUTOMATIC_SHALLOW_CLONES, automaticShallowClones);
         configuration.setProperty(REPOSITORY_GITHUB_USE_SUBMODULES, useSubmodules);
         configuration.setProperty(REPOSITORY_GITHUB_COMMAND_TIMEOUT, commandTimeout);
         configuration.setProperty(REPOSITORY_GITHUB_VERBOSE_LOGS, verboseLogs);
+        configuration.setProperty(REPOSITORY_GITHUB_ENGINE_SELECTION, engineSelection.name());
+        configuration.setProperty(REPOSITORY_GITHUB_OBJECT_POOL, objectPool);
+        configuration.setProperty(REPOSITORY_GITHUB_POOL_RELATED_REPOSITORIES, poolRelatedRepositories);
+        configuration.setProperty(REPOSITORY_GITHUB_EXPORT_ONLY, exportOnly);
+        configuration.setProperty(REPOSITORY_GITHUB_PRESERVE_MODIFICATION_TIMES, preserveModificationTimes);
 
         return configuration;
     }
@@ -214,6 +262,10 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
         {
             errorCollection.addError(REPOSITORY_GITHUB_REPOSITORY, textProvider.getText(REPOSITORY_GITHUB_ERROR_MISSING_REPOSITORY));
         }
+        if (buildConfiguration.getBoolean(REPOSITORY_GITHUB_USE_SHALLOW_CLONES) && NumberUtils.toInt(StringUtils.trim(buildConfiguration.getString(REPOSITORY_GITHUB_SHALLOW_DEPTH)), 0) < 1)
+        {
+            errorCollection.addError(REPOSITORY_GITHUB_SHALLOW_DEPTH, textProvider.getText(REPOSITORY_GITHUB_ERROR_INVALID_SHALLOW_DEPTH));
+        }
         return errorCollection;
     }
 
@@ -259,6 +311,16 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
         return useShallowClones;
     }
 
+    public int getShallowDepth()
+    {
+        return shallowDepth;
+    }
+
+    public boolean isAutomaticShallowClones()
+    {
+        return automaticShallowClones;
+    }
+
     String getPassword()
     {
         return password;
@@ -279,6 +341,41 @@ public class GitHubRepository extends AbstractStandaloneRepository implements Cu
         return verboseLogs;
     }
 
+    public List<NameValuePair> getEngineSelections()
+    {
+        return gitRepository.getEngineSelections();
+    }
+
+    public String getEngineSelectionName()
+    {
+        return gitRepository.getEngineSelectionName(engineSelection.name());
+    }
+
+    public String getObjectPool()
+    {
+        return objectPool;
+    }
+
+    public boolean isPoolRelatedRepositories()
+    {
+        return poolRelatedRepositories;
+    }
+
+    public boolean isExportOnly()
+    {
+        return exportOnly;
+    }
+
+    public boolean isPreserveModificationTimes()
+    {
+        return preserveModificationTimes;
+    }
+
+    GitRepository getGitRepository()
+    {
+        return gitRepository;
+    }
+
     @NotNull
     @Override
     public Set<VcsBranch> getOpenBranches() throws RepositoryException
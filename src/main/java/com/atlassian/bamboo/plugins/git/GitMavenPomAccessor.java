@@ -5,13 +5,17 @@ import com.atlassian.bamboo.repository.MavenPomAccessorAbstract;
 import com.atlassian.bamboo.repository.RepositoryException;
 import com.atlassian.bamboo.ssh.SshProxyService;
 import com.opensymphony.xwork.TextProvider;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.Constants;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
 
 public class GitMavenPomAccessor extends MavenPomAccessorAbstract<GitRepository>
 {
@@ -69,29 +73,85 @@ public class GitMavenPomAccessor extends MavenPomAccessorAbstract<GitRepository>
         repository.accessData.repositoryUrl = mavenScmUrl;
     }
 
+    /**
+     * Materializes only the pom file. The tree is read from the cache directory of the repository if it already exists,
+     * otherwise the latest revision is fetched (shallow) next to the pom and removed afterwards.
+     */
     @NotNull
-    public File checkoutMavenPom(@NotNull File destinationPath) throws RepositoryException
+    public File checkoutMavenPom(@NotNull final File destinationPath) throws RepositoryException
     {
         log.info("checkoutMavenPom to: " + destinationPath);
-        GitOperationHelper helper = new JGitOperationHelper(new NullBuildLogger(), textProvider);
-        GitRepository.GitRepositoryAccessData substitutedAccessData = repository.getSubstitutedAccessData();
-        String targetRevision = helper.obtainLatestRevision(substitutedAccessData);
+        final GitOperationHelper helper = new JGitOperationHelper(new NullBuildLogger(), textProvider);
+        final GitRepository.GitRepositoryAccessData substitutedAccessData = repository.getSubstitutedAccessData();
+        final String targetRevision = helper.obtainLatestRevision(substitutedAccessData);
+
+        final File cacheDirectory = repository.getCacheDirectory();
+        if (cacheDirectory.isDirectory())
+        {
+            try
+            {
+                return GitCacheDirectory.getCacheLock(cacheDirectory).withLock(new Callable<File>()
+                {
+                    public File call() throws Exception
+                    {
+                        try
+                        {
+                            helper.checkRevisionExistsInCacheRepository(cacheDirectory, targetRevision);
+                        }
+                        catch (IOException e)
+                        {
+                            helper.fetch(cacheDirectory, substitutedAccessData, false);
+                        }
+                        return extractMavenPom(helper, cacheDirectory, targetRevision, destinationPath);
+                    }
+                });
+            }
+            catch (RepositoryException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new RepositoryException(e.getMessage(), e);
+            }
+        }
+
         helper.fetch(destinationPath, substitutedAccessData, true);
-        helper.checkout(null, destinationPath, targetRevision, helper.getCurrentRevision(destinationPath), substitutedAccessData.useSubmodules);
-        final File pomLocation = new File(destinationPath, pathToPom);
-        if (pomLocation.isFile())
+        try
         {
-            return pomLocation;
+            return extractMavenPom(helper, destinationPath, targetRevision, destinationPath);
         }
+        finally
+        {
+            FileUtils.deleteQuietly(new File(destinationPath, Constants.DOT_GIT));
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
 
-        if (pomLocation.isDirectory())
+    @NotNull
+    private File extractMavenPom(@NotNull final GitOperationHelper helper, @NotNull final File repositoryDirectory,
+                                 @NotNull final String targetRevision, @NotNull final File destinationPath) throws RepositoryException
+    {
+        final String path = StringUtils.defaultIfEmpty(StringUtils.strip(pathToPom, "/"), POM_XML);
+        try
         {
-            File candidate = new File(pomLocation, POM_XML);
-            if (candidate.isFile())
+            final File pomLocation = new File(destinationPath, path);
+            if (helper.extractFile(repositoryDirectory, targetRevision, path, pomLocation))
+            {
+                return pomLocation;
+            }
+
+            final File candidate = new File(pomLocation, POM_XML);
+            if (helper.extractFile(repositoryDirectory, targetRevision, path + "/" + POM_XML, candidate))
             {
                 return candidate;
             }
         }
+        catch (IOException e)
+        {
+            throw new RepositoryException(textProvider.getText("repository.git.messages.cannotFindPom", Arrays.asList(pathToPom)), e);
+        }
 
         throw new RepositoryException(textProvider.getText("repository.git.messages.cannotFindPom", Arrays.asList(pathToPom)));
     }
@@ -0,0 +1,162 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the modification times of files whose content has not changed, so incremental builds (Maven, Gradle, make)
+ * do not rebuild everything after the source directory has been checked out from scratch - e.g. after it has been
+ * removed to recover from a failed checkout. After each checkout a manifest of the content and modification time of
+ * every file is written outside the source directory; a checkout from scratch gives the files which still have the
+ * same content their recorded modification times back, and updates the index to match.
+ * <p>
+ * Manifest lines: {@code <blob id> <modification time> <path>}.
+ */
+class GitModificationTimes
+{
+    private static final Logger log = Logger.getLogger(GitModificationTimes.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    static final String MANIFESTS_DIRECTORY = "_git-modification-times";
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitModificationTimes()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    @NotNull
+    static File getManifestFile(@NotNull final File workingDirectory, @NotNull final File sourceDirectory)
+    {
+        return new File(new File(workingDirectory, MANIFESTS_DIRECTORY), DigestUtils.shaHex(sourceDirectory.getAbsolutePath()));
+    }
+
+    /**
+     * Restores the modification times of the files which have the same content as when the manifest was recorded, if
+     * restore is true, and records a new manifest. Failures are only logged, the build does not depend on them.
+     *
+     * @return number of files whose modification time has been restored
+     */
+    static int update(@NotNull final File sourceDirectory, @NotNull final File manifestFile, boolean restore)
+    {
+        final Map<String, String[]> manifest = restore ? load(manifestFile) : new HashMap<String, String[]>();
+        int restored = 0;
+        FileRepository repository = null;
+        DirCache dirCache = null;
+        try
+        {
+            repository = new FileRepository(new File(sourceDirectory, Constants.DOT_GIT));
+            dirCache = repository.lockDirCache();
+            final List<String> lines = new ArrayList<String>(dirCache.getEntryCount());
+            for (int i = 0; i < dirCache.getEntryCount(); i++)
+            {
+                final DirCacheEntry entry = dirCache.getEntry(i);
+                if (entry.getStage() != DirCacheEntry.STAGE_0 || entry.getFileMode() == FileMode.GITLINK)
+                {
+                    continue;
+                }
+                final File file = new File(sourceDirectory, entry.getPathString());
+                final String blobId = entry.getObjectId().getName();
+                final String[] recorded = manifest.get(entry.getPathString());
+                if (recorded != null && recorded[0].equals(blobId))
+                {
+                    final long recordedLastModified = Long.parseLong(recorded[1]);
+                    if (file.lastModified() != recordedLastModified && file.setLastModified(recordedLastModified))
+                    {
+                        restored++;
+                    }
+                }
+                final long lastModified = file.lastModified();
+                entry.setLastModified(lastModified);
+                lines.add(blobId + " " + lastModified + " " + entry.getPathString());
+            }
+            if (restored > 0)
+            {
+                dirCache.write();
+                dirCache.commit();
+            }
+            save(manifestFile, lines);
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to update modification times of " + sourceDirectory, e);
+        }
+        finally
+        {
+            if (dirCache != null)
+            {
+                dirCache.unlock();
+            }
+            if (repository != null)
+            {
+                repository.close();
+            }
+        }
+        return restored;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    @NotNull
+    private static Map<String, String[]> load(@NotNull final File manifestFile)
+    {
+        final Map<String, String[]> manifest = new HashMap<String, String[]>();
+        if (!manifestFile.isFile())
+        {
+            return manifest;
+        }
+        LineIterator lines = null;
+        try
+        {
+            // manifests of large trees are read line by line
+            lines = FileUtils.lineIterator(manifestFile, "UTF-8");
+            while (lines.hasNext())
+            {
+                // paths may contain any characters but new lines, so they are not split
+                final String line = lines.nextLine();
+                final int timeStart = line.indexOf(' ') + 1;
+                final int pathStart = line.indexOf(' ', timeStart) + 1;
+                if (timeStart > 1 && pathStart > timeStart + 1 && StringUtils.isNumeric(line.substring(timeStart, pathStart - 1)))
+                {
+                    manifest.put(line.substring(pathStart), new String[] {line.substring(0, timeStart - 1), line.substring(timeStart, pathStart - 1)});
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Ignoring unreadable manifest " + manifestFile, e);
+            manifest.clear();
+        }
+        finally
+        {
+            LineIterator.closeQuietly(lines);
+        }
+        return manifest;
+    }
+
+    private static void save(@NotNull final File manifestFile, @NotNull final List<String> lines) throws IOException
+    {
+        final File temporaryFile = new File(manifestFile.getParentFile(), manifestFile.getName() + ".tmp");
+        FileUtils.writeLines(temporaryFile, "UTF-8", lines, "\n");
+        GitFiles.replaceFile(temporaryFile, manifestFile);
+    }
+}
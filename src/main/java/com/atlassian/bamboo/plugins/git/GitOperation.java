@@ -0,0 +1,29 @@
+package com.atlassian.bamboo.plugins.git;
+
+/**
+ * Operations whose engine is chosen by a {@link GitEnginePolicy}.
+ */
+enum GitOperation
+{
+    /** fetch into a repository which has no refs yet */
+    CLONE(true),
+    /** incremental fetch */
+    FETCH(true),
+    CHECKOUT(true),
+    /** listing remote refs to find the latest revision */
+    RESOLVE_REFS(true),
+    /** walking the history of the cache repository, done by JGit only */
+    EXTRACT_CHANGES(false);
+
+    private final boolean nativeSupported;
+
+    GitOperation(boolean nativeSupported)
+    {
+        this.nativeSupported = nativeSupported;
+    }
+
+    boolean isNativeSupported()
+    {
+        return nativeSupported;
+    }
+}
@@ -13,18 +13,28 @@ import com.atlassian.bamboo.utils.SystemProperty;
 import com.atlassian.bamboo.v2.build.BuildRepositoryChanges;
 import com.atlassian.bamboo.v2.build.BuildRepositoryChangesImpl;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.opensymphony.xwork.TextProvider;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.CharEncoding;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NotSupportedException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepository;
@@ -39,11 +49,17 @@ import org.eclipse.jgit.transport.TransportHttp;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -51,6 +67,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Class used for issuing various git operations. We don't want to hold this logic in
@@ -62,9 +85,19 @@ public abstract class GitOperationHelper
     // ------------------------------------------------------------------------------------------------------- Constants
     private static final int DEFAULT_TRANSFER_TIMEOUT = new SystemProperty(false, "atlassian.bamboo.git.timeout", "GIT_TIMEOUT").getValue(10 * 60);
     private static final int CHANGESET_LIMIT = new SystemProperty(false, "atlassian.bamboo.git.changeset.limit", "GIT_CHANGESET_LIMIT").getValue(100);
+    private static final int SUBMODULE_THREADS = new SystemProperty(false, "atlassian.bamboo.git.submoduleThreads", "ATLASSIAN_BAMBOO_GIT_SUBMODULE_THREADS").getValue(4);
 
+    private static final String SHALLOW = "shallow";
     private static final String[] FQREF_PREFIXES = {Constants.R_HEADS, Constants.R_REFS};
+    private static final String ALL_BRANCHES = Constants.R_HEADS + "*";
+    private static final String DEEPEN_REF = Constants.R_REFS + "bamboo/deepen";
+    static final String CHANGED_FILES = Constants.DOT_GIT + "/bamboo-changed-files";
+    static final String EXPORT_MANIFESTS_DIRECTORY = "_git-export-manifests";
+
+    private static final int DEEPEN_STEP = new SystemProperty(false, "atlassian.bamboo.git.deepenStep", "ATLASSIAN_BAMBOO_GIT_DEEPEN_STEP").getValue(50);
+    private static final int MAX_DEEPEN_DEPTH = new SystemProperty(false, "atlassian.bamboo.git.maxDeepenDepth", "ATLASSIAN_BAMBOO_GIT_MAX_DEEPEN_DEPTH").getValue(1000);
     // ------------------------------------------------------------------------------------------------- Type Properties
+    protected BuildCancellationSignal cancellationSignal;
     // ---------------------------------------------------------------------------------------------------- Dependencies
     protected final BuildLogger buildLogger;
     protected final TextProvider textProvider;
@@ -75,6 +108,7 @@ public abstract class GitOperationHelper
     {
         this.buildLogger = buildLogger;
         this.textProvider = textProvider;
+        this.cancellationSignal = BuildCancellationSignal.forCurrentThread();
     }
 
     // ----------------------------------------------------------------------------------------------- Interface Methods
@@ -83,13 +117,20 @@ public abstract class GitOperationHelper
                                     @NotNull final File sourceDirectory,
                                     @NotNull final GitRepository.GitRepositoryAccessData accessData,
                                     RefSpec refSpec,
-                                    boolean useShallow) throws RepositoryException;
+                                    int depth,
+                                    @NotNull final GitProgressWatchdog watchdog) throws RepositoryException;
 
     protected abstract String doCheckout(@NotNull final FileRepository localRepository,
                                          @NotNull File sourceDirectory,
                                          @NotNull String targetRevision,
-                                         @Nullable String previousRevision,
-                                         final boolean useSubmodules) throws RepositoryException;
+                                         @Nullable String previousRevision) throws RepositoryException;
+
+    /**
+     * @return helper for operations run concurrently with the ones of this helper (e.g. submodule updates), which
+     * shares no per-operation state with it
+     */
+    @NotNull
+    abstract GitOperationHelper createConcurrentHelper();
 
     // -------------------------------------------------------------------------------------------------- Action Methods
     // -------------------------------------------------------------------------------------------------- Public Methods
@@ -101,11 +142,11 @@ public abstract class GitOperationHelper
     public String checkout(@Nullable File cacheDirectory,
                            @NotNull final File sourceDirectory,
                            @NotNull final String targetRevision,
-                           @Nullable final String previousRevision,
-                           final boolean useSubmodules) throws RepositoryException
+                           @Nullable final String previousRevision) throws RepositoryException
     {
         // would be cool to store lastCheckoutedRevision in the localRepository somehow - so we don't need to specify it
         buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.checkingOutRevision", Arrays.asList(targetRevision)));
+        checkNotCancelled();
 
         try
         {
@@ -115,7 +156,7 @@ public abstract class GitOperationHelper
             File lck = new File(localRepository.getIndexFile().getParentFile(), localRepository.getIndexFile().getName() + ".lock");
             FileUtils.deleteQuietly(lck);
 
-            return doCheckout(localRepository, sourceDirectory, targetRevision, previousRevision, useSubmodules);
+            return doCheckout(localRepository, sourceDirectory, targetRevision, previousRevision);
         }
         catch (IOException e)
         {
@@ -123,11 +164,243 @@ public abstract class GitOperationHelper
         }
    }
 
+    /**
+     * @return file listing the paths the last export has written to the source directory
+     */
+    @NotNull
+    static File getExportManifestFile(@NotNull final File workingDirectory, @NotNull final File sourceDirectory)
+    {
+        return new File(new File(workingDirectory, EXPORT_MANIFESTS_DIRECTORY), DigestUtils.shaHex(sourceDirectory.getAbsolutePath()));
+    }
+
+    /**
+     * Writes the files of the revision from the repository in repositoryDirectory to sourceDirectory, which ends up with
+     * no git metadata at all. Blobs are streamed straight to their files, so large files are never held in memory.
+     * Submodules are left as empty directories. Java cannot create symbolic links, so they are written as files
+     * holding their target, unlike by a checkout with native git.
+     * <p/>
+     * The source directory may hold other files too (e.g. checkouts of other repositories of the plan, or build
+     * outputs), so only the paths the previous export has written - listed in manifestFile, which is kept outside the
+     * source directory - are removed before the revision is written. Without a manifest (e.g. the source directory has
+     * held a checkout so far) only the .git directory is removed.
+     *
+     * @return revision which has been exported
+     */
+    @NotNull
+    public String export(@NotNull final File repositoryDirectory, @NotNull final File sourceDirectory, @NotNull final String targetRevision,
+                         @NotNull final File manifestFile) throws RepositoryException
+    {
+        buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.exportingRevision", Arrays.asList(targetRevision, sourceDirectory)));
+        checkNotCancelled();
+
+        FileRepository repository = null;
+        RevWalk revWalk = null;
+        TreeWalk treeWalk = null;
+        try
+        {
+            repository = new FileRepository(new File(repositoryDirectory, Constants.DOT_GIT));
+            final ObjectId revisionId = repository.resolve(targetRevision);
+            if (revisionId == null)
+            {
+                throw new RepositoryException(buildLogger.addErrorLogEntry(textProvider.getText("repository.git.messages.exportFailed", Arrays.asList(targetRevision))));
+            }
+            revWalk = new RevWalk(repository);
+            final RevCommit commit = revWalk.parseCommit(revisionId);
+
+            FileUtils.forceMkdir(sourceDirectory);
+            if (manifestFile.isFile())
+            {
+                // every file is written again anyway, and a path may turn from a file into a directory or back
+                for (String previousPath : FileUtils.readLines(manifestFile, CharEncoding.UTF_8))
+                {
+                    removeExportedPath(sourceDirectory, new File(sourceDirectory, previousPath));
+                }
+            }
+            else
+            {
+                FileUtils.deleteDirectory(new File(sourceDirectory, Constants.DOT_GIT));
+            }
+            final List<String> exportedPaths = new ArrayList<String>();
+
+            treeWalk = new TreeWalk(repository);
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            final ObjectReader reader = treeWalk.getObjectReader();
+            while (treeWalk.next())
+            {
+                checkNotCancelled();
+                final File file = new File(sourceDirectory, treeWalk.getPathString());
+                final FileMode mode = treeWalk.getFileMode(0);
+                exportedPaths.add(treeWalk.getPathString());
+                if (mode == FileMode.GITLINK)
+                {
+                    FileUtils.forceMkdir(file);
+                    continue;
+                }
+                final File parent = file.getParentFile();
+                if (!parent.isDirectory())
+                {
+                    FileUtils.forceMkdir(parent);
+                }
+                // symbolic links are written as files holding their target, as by JGit's checkout
+                final OutputStream output = new FileOutputStream(file);
+                try
+                {
+                    reader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).copyTo(output);
+                }
+                finally
+                {
+                    output.close();
+                }
+                if (mode == FileMode.EXECUTABLE_FILE)
+                {
+                    repository.getFS().setExecute(file, true);
+                }
+            }
+            writeExportManifest(manifestFile, exportedPaths);
+            return commit.getName();
+        }
+        catch (MissingObjectException e)
+        {
+            final String message = textProvider.getText("repository.git.messages.checkoutFailedMissingObject", Arrays.asList(targetRevision, e.getObjectId().getName()));
+            throw new RepositoryException(buildLogger.addErrorLogEntry(message), e);
+        }
+        catch (IOException e)
+        {
+            throw new RepositoryException(buildLogger.addErrorLogEntry(textProvider.getText("repository.git.messages.exportFailed", Arrays.asList(targetRevision))) + " " + e.getMessage(), e);
+        }
+        finally
+        {
+            if (treeWalk != null)
+            {
+                treeWalk.release();
+            }
+            if (revWalk != null)
+            {
+                revWalk.release();
+            }
+            if (repository != null)
+            {
+                repository.close();
+            }
+        }
+    }
+
+    /**
+     * Removes a file (or the empty directory of a submodule) of a previous export, and the directories it leaves empty.
+     */
+    private static void removeExportedPath(@NotNull final File sourceDirectory, @NotNull final File file)
+    {
+        File directory = file;
+        while (!directory.equals(sourceDirectory) && (directory.isFile() || ArrayUtils.isEmpty(directory.list())) && directory.delete())
+        {
+            directory = directory.getParentFile();
+        }
+    }
+
+    private static void writeExportManifest(@NotNull final File manifestFile, @NotNull final Collection<String> paths) throws IOException
+    {
+        final File temporaryFile = new File(manifestFile.getParentFile(), manifestFile.getName() + ".tmp");
+        FileUtils.writeLines(temporaryFile, CharEncoding.UTF_8, paths, "\n");
+        GitFiles.replaceFile(temporaryFile, manifestFile);
+    }
+
+    /**
+     * Writes the paths which differ between the revision of the plan's previous build and the checked out revision of
+     * the source directory to {@link #CHANGED_FILES}, one per line, for tools which select what to build or test. The
+     * list covers the changes since the plan's previous build, not since the last state of this source directory,
+     * which may have been checked out by an older build or not at all. The trees are compared directly, so each path
+     * is listed once however many commits have changed it, and paths are written as they are found. Without a
+     * previous build the file is not written at all - everything has to be considered changed.
+     */
+    public void writeChangedFiles(@NotNull final File sourceDirectory, @Nullable final String previousRevision, @NotNull final String revision)
+    {
+        final File changedFiles = new File(sourceDirectory, CHANGED_FILES);
+        FileUtils.deleteQuietly(changedFiles);
+        if (previousRevision == null)
+        {
+            return;
+        }
+
+        final File temporaryFile = new File(changedFiles.getParentFile(), changedFiles.getName() + ".tmp");
+        FileRepository localRepository = null;
+        RevWalk revWalk = null;
+        TreeWalk treeWalk = null;
+        Writer writer = null;
+        try
+        {
+            localRepository = new FileRepository(new File(sourceDirectory, Constants.DOT_GIT));
+            revWalk = new RevWalk(localRepository);
+            final ObjectId previousId = localRepository.resolve(previousRevision);
+            final ObjectId revisionId = localRepository.resolve(revision);
+            if (previousId == null || revisionId == null)
+            {
+                throw new IOException("Revision " + (previousId == null ? previousRevision : revision) + " is not in " + sourceDirectory);
+            }
+            treeWalk = new TreeWalk(localRepository);
+            treeWalk.addTree(revWalk.parseCommit(previousId).getTree());
+            treeWalk.addTree(revWalk.parseCommit(revisionId).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+
+            int count = 0;
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), Constants.CHARSET));
+            while (treeWalk.next())
+            {
+                writer.write(treeWalk.getPathString());
+                writer.write('\n');
+                count++;
+            }
+            writer.close();
+            writer = null;
+            GitFiles.replaceFile(temporaryFile, changedFiles);
+            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.changedFilesWritten", Arrays.asList(count, previousRevision, revision, changedFiles)));
+        }
+        catch (IOException e)
+        {
+            log.warn(buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.changedFilesFailed", Arrays.asList(previousRevision, revision)) + " " + e.getMessage()), e);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(writer);
+            FileUtils.deleteQuietly(temporaryFile);
+            if (treeWalk != null)
+            {
+                treeWalk.release();
+            }
+            if (revWalk != null)
+            {
+                revWalk.release();
+            }
+            if (localRepository != null)
+            {
+                localRepository.close();
+            }
+        }
+    }
+
     public void fetch(@NotNull final File sourceDirectory, @NotNull final GitRepositoryAccessData accessData, boolean useShallow) throws RepositoryException
+    {
+        fetch(sourceDirectory, accessData, useShallow ? 1 : 0);
+    }
+
+    /**
+     * @param depth number of commits to fetch from the tip of the branch, 0 to fetch the whole history
+     */
+    public void fetch(@NotNull final File sourceDirectory, @NotNull final GitRepositoryAccessData accessData, int depth) throws RepositoryException
+    {
+        fetch(sourceDirectory, accessData, depth, false);
+    }
+
+    /**
+     * @param deepen true to deepen the history of a shallow repository to depth, even if the branch is up to date
+     */
+    private void fetch(@NotNull final File sourceDirectory, @NotNull final GitRepositoryAccessData accessData, int depth, boolean deepen) throws RepositoryException
     {
         Transport transport = null;
         FileRepository localRepository = null;
         String branchDescription = "(unresolved) " + accessData.branch;
+        checkNotCancelled();
         try
         {
             localRepository = createLocalRepository(sourceDirectory, null);
@@ -153,15 +426,46 @@ public abstract class GitOperationHelper
             branchDescription = resolvedBranch;
 
             buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.fetchingBranch", Arrays.asList(branchDescription, accessData.repositoryUrl))
-                    + (useShallow ? " " + textProvider.getText("repository.git.messages.doingShallowFetch") : ""));
+                    + (depth > 0 ? " " + textProvider.getText("repository.git.messages.doingShallowFetch") : ""));
+            // refs which are up to date are not fetched at all, so history is deepened through a temporary ref
+            final boolean deepening = deepen && depth > 0 && !localRepository.getShallows().isEmpty();
             RefSpec refSpec = new RefSpec()
                     .setForceUpdate(true)
                     .setSource(resolvedBranch)
-                    .setDestination(resolvedBranch);
+                    .setDestination(deepening ? DEEPEN_REF : resolvedBranch);
 
-            doFetch(transport, sourceDirectory, accessData, refSpec, useShallow);
+            for (int attempt = 0; ; attempt++)
+            {
+                final GitProgressWatchdog watchdog = new GitProgressWatchdog(cancellationSignal);
+                try
+                {
+                    doFetch(transport, sourceDirectory, accessData, refSpec, depth, watchdog);
+                    break;
+                }
+                catch (RepositoryException e)
+                {
+                    if (watchdog.isCancelled() && !(e instanceof GitCancelledException))
+                    {
+                        throw new GitCancelledException(buildLogger.addErrorLogEntry(textProvider.getText("repository.git.messages.cancelled")), e);
+                    }
+                    if (!watchdog.isStalled() || attempt >= GitProgressWatchdog.STALL_RETRIES)
+                    {
+                        throw e;
+                    }
+                    buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.fetchStalled",
+                            Arrays.asList(accessData.repositoryUrl, TimeUnit.MILLISECONDS.toSeconds(watchdog.getStallTimeout()))));
+                    transport.close();
+                    transport = open(localRepository, accessData);
+                }
+            }
 
-            if (resolvedBranch.startsWith(Constants.R_HEADS))
+            if (deepening)
+            {
+                final RefUpdate refUpdate = localRepository.updateRef(DEEPEN_REF);
+                refUpdate.setForceUpdate(true);
+                refUpdate.delete();
+            }
+            else if (resolvedBranch.startsWith(Constants.R_HEADS) && !resolvedBranch.equals(ALL_BRANCHES))
             {
                 localRepository.updateRef(Constants.HEAD).link(resolvedBranch);
             }
@@ -184,6 +488,165 @@ public abstract class GitOperationHelper
         }
     }
 
+    /**
+     * @see #deepenUntilContains(File, GitRepositoryAccessData, String, int, int)
+     */
+    public int deepenUntilContains(@NotNull final File sourceDirectory, @NotNull final GitRepositoryAccessData accessData, @NotNull final String revision) throws RepositoryException
+    {
+        return deepenUntilContains(sourceDirectory, accessData, revision, DEEPEN_STEP, MAX_DEEPEN_DEPTH);
+    }
+
+    /**
+     * Fetches more and more history to a shallow repository (step commits first, doubling each time) until the
+     * revision is in it or maxDepth is reached. Does nothing if the repository is not shallow.
+     *
+     * @return depth of the history which had to be fetched to find the revision, 0 if nothing had to be fetched, -1 if
+     * the revision has not been found within maxDepth commits
+     */
+    int deepenUntilContains(@NotNull final File sourceDirectory, @NotNull final GitRepositoryAccessData accessData, @NotNull final String revision,
+                            final int step, final int maxDepth) throws RepositoryException
+    {
+        if (containsRevision(sourceDirectory, revision) || !isShallow(sourceDirectory))
+        {
+            return 0;
+        }
+        for (int depth = Math.min(step, maxDepth); ; depth = Math.min(2 * depth, maxDepth))
+        {
+            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.deepeningHistory", Arrays.asList(revision, depth)));
+            fetch(sourceDirectory, accessData, depth, true);
+            if (containsRevision(sourceDirectory, revision))
+            {
+                return depth;
+            }
+            if (depth >= maxDepth)
+            {
+                buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.deepeningFailed", Arrays.asList(revision, depth)));
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Fetches all refs of the bundle to the seed refs of a new repository, so the fetch which follows only transfers what
+     * has changed since the bundle was exported. A bundle which cannot be read is not an error - the repository is then
+     * fetched in full.
+     *
+     * @return true if the repository has been seeded
+     */
+    public boolean fetchBundle(@NotNull final File sourceDirectory, @NotNull final File bundle)
+    {
+        buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.seedingFromBundle", Arrays.asList(bundle)));
+        Transport transport = null;
+        FileRepository localRepository = null;
+        try
+        {
+            localRepository = createLocalRepository(sourceDirectory, null);
+            transport = Transport.open(localRepository, new URIish(bundle.getAbsolutePath()));
+            transport.fetch(NullProgressMonitor.INSTANCE, Collections.singletonList(new RefSpec("+" + Constants.R_REFS + "*:" + GitCacheDirectory.SEED_REFS + "*")));
+            return true;
+        }
+        catch (URISyntaxException e)
+        {
+            log.warn("Unable to seed " + sourceDirectory + " from " + bundle, e);
+            return false;
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to seed " + sourceDirectory + " from " + bundle, e);
+            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.seedingFromBundleFailed", Arrays.asList(bundle, e.getMessage())));
+            return false;
+        }
+        finally
+        {
+            if (localRepository != null)
+            {
+                localRepository.close();
+            }
+            if (transport != null)
+            {
+                transport.close();
+            }
+        }
+    }
+
+    /**
+     * Checks out the submodules of the revision checked out in sourceDirectory, recursively. Each submodule is fetched
+     * to its own cache directory, next to cacheDirectory, which is then used as an alternate object store of the
+     * submodule; without a cache directory submodules are fetched straight to their source directories. Independent
+     * submodules are updated in parallel.
+     */
+    public void updateSubmodules(@Nullable final File cacheDirectory, @NotNull final File sourceDirectory, @NotNull final GitRepositoryAccessData accessData) throws RepositoryException
+    {
+        checkNotCancelled();
+        final List<GitSubmodule> submodules;
+        FileRepository localRepository = null;
+        try
+        {
+            localRepository = new FileRepository(new File(sourceDirectory, Constants.DOT_GIT));
+            submodules = GitSubmodule.readSubmodules(localRepository, Constants.HEAD, accessData.repositoryUrl);
+        }
+        catch (IOException e)
+        {
+            throw new RepositoryException(buildLogger.addErrorLogEntry(textProvider.getText("repository.git.messages.readingSubmodulesFailed", Arrays.asList(sourceDirectory)) + " " + e.getMessage()), e);
+        }
+        finally
+        {
+            if (localRepository != null)
+            {
+                localRepository.close();
+            }
+        }
+        if (submodules.isEmpty())
+        {
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(SUBMODULE_THREADS, submodules.size())),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("GitSubmoduleUpdate-%d").build());
+        try
+        {
+            final List<Future<Void>> updates = new ArrayList<Future<Void>>();
+            for (final GitSubmodule submodule : submodules)
+            {
+                final GitOperationHelper submoduleHelper = createConcurrentHelper();
+                updates.add(executor.submit(new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
+                        submoduleHelper.updateSubmodule(cacheDirectory, sourceDirectory, submodule, accessData);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < updates.size(); i++)
+            {
+                try
+                {
+                    updates.get(i).get();
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof RepositoryException)
+                    {
+                        throw (RepositoryException) e.getCause();
+                    }
+                    final GitSubmodule submodule = submodules.get(i);
+                    final String message = textProvider.getText("repository.git.messages.submoduleUpdateFailed", Arrays.asList(submodule.getPath(), submodule.getUrl()));
+                    throw new RepositoryException(buildLogger.addErrorLogEntry(message + " " + e.getCause().getMessage()), e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new GitCancelledException(buildLogger.addErrorLogEntry(textProvider.getText("repository.git.messages.cancelled")), e);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
     @Nullable
     public String getCurrentRevision(@NotNull final File sourceDirectory)
     {
@@ -303,27 +766,77 @@ public abstract class GitOperationHelper
         final RevCommit targetCommit = revWalk.parseCommit(localRepository.resolve(targetRevision));
         return targetCommit != null;
     }
-    
-    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
 
-    @Nullable
-    protected static Ref resolveRefSpec(GitRepositoryAccessData repositoryData, FetchConnection fetchConnection)
+    /**
+     * Writes a single file of the given revision to destinationFile, without checking out the rest of the tree.
+     *
+     * @param repositoryDirectory directory where repository is fetched
+     * @param revision revision to read the file from
+     * @param path path of the file relative to the repository root
+     * @param destinationFile file to write
+     * @return false if there is no such file in the revision
+     * @throws IOException thrown when the revision or file cannot be read or written
+     */
+    public boolean extractFile(@NotNull File repositoryDirectory, @NotNull String revision, @NotNull String path, @NotNull File destinationFile) throws IOException
     {
-        final Collection<String> candidates;
-        if (StringUtils.isBlank(repositoryData.branch))
+        FileRepository localRepository = new FileRepository(new File(repositoryDirectory, Constants.DOT_GIT));
+        RevWalk revWalk = new RevWalk(localRepository);
+        TreeWalk treeWalk = null;
+        try
         {
-            candidates = Arrays.asList(Constants.R_HEADS + Constants.MASTER, Constants.HEAD);
+            final RevCommit commit = revWalk.parseCommit(localRepository.resolve(revision));
+            treeWalk = TreeWalk.forPath(localRepository, path, commit.getTree());
+            if (treeWalk == null || treeWalk.getFileMode(0).getObjectType() != Constants.OBJ_BLOB)
+            {
+                return false;
+            }
+            final ObjectLoader loader = localRepository.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB);
+            FileUtils.forceMkdir(destinationFile.getParentFile());
+            final OutputStream outputStream = new FileOutputStream(destinationFile);
+            try
+            {
+                loader.copyTo(outputStream);
+            }
+            finally
+            {
+                outputStream.close();
+            }
+            return true;
         }
-        else if (StringUtils.startsWithAny(repositoryData.branch, FQREF_PREFIXES))
+        finally
         {
-            candidates = Collections.singletonList(repositoryData.branch);
+            if (treeWalk != null)
+            {
+                treeWalk.release();
+            }
+            revWalk.release();
+            localRepository.close();
         }
-        else
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    /**
+     * Replaces the signal which tells that the build has been stopped; by default the interruption of the thread that
+     * created the helper is followed.
+     */
+    public void setCancellationSignal(@NotNull final BuildCancellationSignal cancellationSignal)
+    {
+        this.cancellationSignal = cancellationSignal;
+    }
+
+    protected void checkNotCancelled() throws GitCancelledException
+    {
+        if (cancellationSignal.isCancelled())
         {
-            candidates = Arrays.asList(repositoryData.branch, Constants.R_HEADS + repositoryData.branch, Constants.R_TAGS + repositoryData.branch);
+            throw new GitCancelledException(buildLogger.addErrorLogEntry(textProvider.getText("repository.git.messages.cancelled")));
         }
+    }
 
-        for (String candidate : candidates)
+    @Nullable
+    protected static Ref resolveRefSpec(GitRepositoryAccessData repositoryData, FetchConnection fetchConnection)
+    {
+        for (String candidate : getRefCandidates(repositoryData))
         {
             Ref headRef = fetchConnection.getRef(candidate);
             if (headRef != null)
@@ -334,6 +847,26 @@ public abstract class GitOperationHelper
         return null;
     }
 
+    /**
+     * @return names of the remote refs which may be meant by the configured branch, in order of preference
+     */
+    @NotNull
+    protected static Collection<String> getRefCandidates(GitRepositoryAccessData repositoryData)
+    {
+        if (StringUtils.isBlank(repositoryData.branch))
+        {
+            return Arrays.asList(Constants.R_HEADS + Constants.MASTER, Constants.HEAD);
+        }
+        else if (StringUtils.startsWithAny(repositoryData.branch, FQREF_PREFIXES))
+        {
+            return Collections.singletonList(repositoryData.branch);
+        }
+        else
+        {
+            return Arrays.asList(repositoryData.branch, Constants.R_HEADS + repositoryData.branch, Constants.R_TAGS + repositoryData.branch);
+        }
+    }
+
     protected FileRepository createLocalRepository(File workingDirectory, @Nullable File cacheDirectory)
             throws IOException
     {
@@ -374,13 +907,20 @@ public abstract class GitOperationHelper
             FileUtils.writeLines(alternates, alternatePaths, "\n");
         }
 
-        if (cacheGitDir != null && cacheGitDir.isDirectory())
+        final GitCacheSnapshot snapshot = cacheGitDir != null ? GitCacheSnapshot.load(cacheGitDir) : null;
+        if (snapshot != null)
+        {
+            // the cache is read without its lock, only what the last complete fetch has published is consistent
+            snapshot.writeTo(localRepository);
+            headRef = null;
+        }
+        else if (cacheGitDir != null && cacheGitDir.isDirectory())
         {
             // copy tags and branches heads from the cache repository
             FileUtils.copyDirectoryToDirectory(new File(cacheGitDir, Constants.R_TAGS), new File(localRepository.getDirectory(), Constants.R_REFS));
             FileUtils.copyDirectoryToDirectory(new File(cacheGitDir, Constants.R_HEADS), new File(localRepository.getDirectory(), Constants.R_REFS));
 
-            File shallow = new File(cacheGitDir, "shallow");
+            File shallow = new File(cacheGitDir, SHALLOW);
             if (shallow.exists())
             {
                 FileUtils.copyFileToDirectory(shallow, localRepository.getDirectory());
@@ -395,6 +935,143 @@ public abstract class GitOperationHelper
         return localRepository;
     }
 
+    private void updateSubmodule(@Nullable final File cacheDirectory, @NotNull final File sourceDirectory, @NotNull final GitSubmodule submodule,
+                                 @NotNull final GitRepositoryAccessData parentAccessData) throws Exception
+    {
+        final GitRepositoryAccessData accessData = createSubmoduleAccessData(parentAccessData, submodule.getUrl());
+        final File submoduleDirectory = new File(sourceDirectory, submodule.getPath());
+        final File gitFile = new File(submoduleDirectory, Constants.DOT_GIT);
+        if (gitFile.isFile())
+        {
+            // left by "git submodule update" of a newer git, the repository itself is in the parent's .git/modules
+            FileUtils.deleteQuietly(gitFile);
+        }
+        buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.updatingSubmodule", Arrays.asList(submodule.getPath(), submodule.getRevision(), submodule.getUrl())));
+        final String previousRevision = getCurrentRevision(submoduleDirectory);
+
+        final File submoduleCacheDirectory = cacheDirectory != null ? GitCacheDirectory.getSiblingCacheDirectory(cacheDirectory, accessData) : null;
+        if (submoduleCacheDirectory != null)
+        {
+            GitCacheDirectory.getCacheLock(submoduleCacheDirectory).withLock(new Callable<Void>()
+            {
+                public Void call() throws RepositoryException
+                {
+                    fetchSubmodule(submoduleCacheDirectory, accessData, submodule.getRevision());
+                    GitCacheSnapshot.publish(submoduleCacheDirectory);
+                    return null;
+                }
+            });
+        }
+        else
+        {
+            fetchSubmodule(submoduleDirectory, accessData, submodule.getRevision());
+        }
+
+        if (submoduleCacheDirectory != null)
+        {
+            // like the checkout of the parent, the checkout does not wait for the cache lock, but it keeps the cache
+            // from being repaired or deleted
+            final Lock readLock = GitCacheDirectory.getReaderLock(submoduleCacheDirectory).readLock();
+            readLock.lock();
+            try
+            {
+                checkout(submoduleCacheDirectory, submoduleDirectory, submodule.getRevision(), previousRevision);
+            }
+            finally
+            {
+                readLock.unlock();
+            }
+        }
+        else
+        {
+            checkout(null, submoduleDirectory, submodule.getRevision(), previousRevision);
+        }
+        // nested submodules take the locks of their own caches, which readers of this cache must not do
+        updateSubmodules(submoduleCacheDirectory, submoduleDirectory, accessData);
+    }
+
+    /**
+     * Fetches all branches of the submodule, unless the recorded revision is there already.
+     */
+    private void fetchSubmodule(@NotNull final File directory, @NotNull final GitRepositoryAccessData accessData, @NotNull final String revision) throws RepositoryException
+    {
+        if (!containsRevision(directory, revision))
+        {
+            fetch(directory, accessData, false);
+        }
+    }
+
+    static boolean isShallow(@NotNull final File directory)
+    {
+        return new File(new File(directory, Constants.DOT_GIT), SHALLOW).exists();
+    }
+
+    /**
+     * @param revision revision, possibly abbreviated, or any other expression understood by JGit
+     * @return true if the repository in directory contains the revision
+     */
+    static boolean containsRevision(@NotNull final File directory, @NotNull final String revision)
+    {
+        final File gitDirectory = new File(directory, Constants.DOT_GIT);
+        if (!gitDirectory.isDirectory())
+        {
+            return false;
+        }
+        FileRepository repository = null;
+        try
+        {
+            repository = new FileRepository(gitDirectory);
+            final ObjectId revisionId = repository.resolve(revision);
+            return revisionId != null && repository.hasObject(revisionId);
+        }
+        catch (IOException e)
+        {
+            log.debug("Cannot look up " + revision + " in " + directory, e);
+            return false;
+        }
+        finally
+        {
+            if (repository != null)
+            {
+                repository.close();
+            }
+        }
+    }
+
+    /**
+     * Credentials of the parent repository are only passed to submodules hosted on the same server.
+     */
+    @NotNull
+    static GitRepositoryAccessData createSubmoduleAccessData(@NotNull final GitRepositoryAccessData parentAccessData, @NotNull final String url)
+    {
+        final GitRepositoryAccessData accessData = parentAccessData.cloneAccessData();
+        accessData.repositoryUrl = url;
+        accessData.branch = ALL_BRANCHES;
+        accessData.useShallowClones = false;
+        if (!StringUtils.equals(getHost(parentAccessData.repositoryUrl), getHost(url)))
+        {
+            accessData.authenticationType = GitAuthenticationType.NONE;
+            accessData.username = null;
+            accessData.password = null;
+            accessData.sshKey = null;
+            accessData.sshPassphrase = null;
+        }
+        return accessData;
+    }
+
+    @Nullable
+    private static String getHost(@Nullable final String url)
+    {
+        try
+        {
+            return url != null ? new URIish(url).getHost() : null;
+        }
+        catch (URISyntaxException e)
+        {
+            return null;
+        }
+    }
+
     BuildRepositoryChanges extractCommits(@NotNull final File directory, @Nullable final String previousRevision, @Nullable final String targetRevision)
             throws RepositoryException
     {
@@ -21,7 +21,10 @@ public class GitOperationHelperFactory
     {
         if (StringUtils.isNotBlank(repository.getGitCapability()))
         {
-            return new NativeGitOperationHelper(repository, accessData, sshProxyService, buildLogger, textProvider);
+            final GitEnginePolicy policy = accessData.engineSelection.createPolicy();
+            return new RoutingGitOperationHelper(policy, accessData, new JGitOperationHelper(buildLogger, textProvider),
+                                                 new NativeGitOperationHelper(repository, accessData, sshProxyService, buildLogger, textProvider),
+                                                 buildLogger, textProvider);
         }
         else
         {
@@ -0,0 +1,486 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.utils.SystemProperty;
+import com.atlassian.utils.process.OutputHandler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts git commands through small, long-lived shell processes instead of forking the Bamboo JVM for every command,
+ * which gets expensive when the JVM has a large heap. Each helper shell runs one command at a time; output is passed
+ * to the command's {@link OutputHandler} by threads of a shared pool, so no threads are created per command either.
+ * <p>
+ * Protocol: the command is written to the helper's stdin as a shell snippet which runs git in a background subshell,
+ * with stderr merged into stdout. The helper reports the pid of the subshell and later its exit code on its own
+ * stderr, and marks the end of the command's output on stdout with a random sentinel.
+ */
+class GitProcessLauncher
+{
+    private static final Logger log = Logger.getLogger(GitProcessLauncher.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    static final boolean ENABLED = !SystemUtils.IS_OS_WINDOWS && new SystemProperty(false, "atlassian.bamboo.git.processLauncher",
+            "ATLASSIAN_BAMBOO_GIT_PROCESS_LAUNCHER").getValue(false);
+    private static final int POOL_SIZE = new SystemProperty(false, "atlassian.bamboo.git.processLauncher.poolSize",
+            "ATLASSIAN_BAMBOO_GIT_PROCESS_LAUNCHER_POOL_SIZE").getValue(4);
+
+    private static final String SHELL = "/bin/sh";
+    private static final long CANCEL_GRACE_PERIOD = TimeUnit.SECONDS.toMillis(10);
+
+    private static final ExecutorService outputPumps = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("GitProcessLauncher-%d").build());
+
+    private static GitProcessLauncher instance;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final String shell;
+    private final Semaphore permits;
+    private final BlockingQueue<Helper> idleHelpers = new LinkedBlockingQueue<Helper>();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    GitProcessLauncher(@NotNull final String shell, int poolSize)
+    {
+        this.shell = shell;
+        this.permits = new Semaphore(Math.max(1, poolSize));
+    }
+
+    @NotNull
+    static synchronized GitProcessLauncher getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new GitProcessLauncher(SHELL, POOL_SIZE);
+        }
+        return instance;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Starts the command, waiting for a free helper if all of them are busy. Output is passed to outputHandler in
+     * a background thread.
+     *
+     * @throws IOException when a helper process cannot be started
+     */
+    @NotNull
+    Execution start(@NotNull final List<String> command, @NotNull final File workingDirectory,
+                    @NotNull final Map<String, String> environment, @NotNull final OutputHandler outputHandler) throws IOException, InterruptedException
+    {
+        permits.acquire();
+        Helper helper = idleHelpers.poll();
+        try
+        {
+            if (helper == null)
+            {
+                helper = new Helper();
+            }
+            final Execution execution = new Execution(helper, outputHandler);
+            helper.send(createScript(command, workingDirectory, environment, helper.sentinel));
+            outputPumps.execute(execution);
+            return execution;
+        }
+        catch (IOException e)
+        {
+            release(helper, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops all idle helpers; busy ones are stopped when their commands finish.
+     */
+    void shutdown()
+    {
+        for (Helper helper = idleHelpers.poll(); helper != null; helper = idleHelpers.poll())
+        {
+            helper.destroy();
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    static String createScript(@NotNull final List<String> command, @NotNull final File workingDirectory,
+                               @NotNull final Map<String, String> environment, @NotNull final String sentinel)
+    {
+        final StringBuilder script = new StringBuilder("( cd ").append(quote(workingDirectory.getAbsolutePath()));
+        for (Map.Entry<String, String> variable : environment.entrySet())
+        {
+            script.append(" && export ").append(variable.getKey()).append('=').append(quote(variable.getValue()));
+        }
+        script.append(" && exec");
+        for (String argument : command)
+        {
+            script.append(' ').append(quote(argument));
+        }
+        return script.append(" ) </dev/null 2>&1 &\n")
+                .append("p=$!; echo $p >&2; wait $p; s=$?; printf '\\n%s\\n' ").append(quote(sentinel)).append("; echo $s >&2\n")
+                .toString();
+    }
+
+    private static String quote(@NotNull final String argument)
+    {
+        return "'" + StringUtils.replace(argument, "'", "'\\''") + "'";
+    }
+
+    private void release(@Nullable final Helper helper, boolean reusable)
+    {
+        if (helper != null)
+        {
+            if (reusable)
+            {
+                idleHelpers.offer(helper);
+            }
+            else
+            {
+                helper.destroy();
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * A long-lived shell which runs the commands.
+     */
+    private class Helper
+    {
+        private final Process process;
+        private final Writer stdin;
+        private final InputStream stdout;
+        private final BufferedReader control;
+        private final String sentinel = "bamboo-git-" + UUID.randomUUID();
+
+        Helper() throws IOException
+        {
+            process = new ProcessBuilder(shell).start();
+            stdin = new OutputStreamWriter(process.getOutputStream());
+            stdout = new BufferedInputStream(process.getInputStream());
+            control = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+        }
+
+        void send(@NotNull final String script) throws IOException
+        {
+            stdin.write(script);
+            stdin.flush();
+        }
+
+        void destroy()
+        {
+            process.destroy();
+        }
+    }
+
+    /**
+     * A command being run by a helper.
+     */
+    class Execution implements Runnable
+    {
+        private final Helper helper;
+        private final OutputHandler outputHandler;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile String pid;
+        private volatile boolean cancelled;
+        private volatile int exitCode = -1;
+        private volatile Exception exception;
+
+        Execution(@NotNull final Helper helper, @NotNull final OutputHandler outputHandler)
+        {
+            this.helper = helper;
+            this.outputHandler = outputHandler;
+        }
+
+        public void run()
+        {
+            boolean reusable = false;
+            try
+            {
+                pid = String.valueOf(readControlNumber());
+                if (cancelled)
+                {
+                    kill();
+                }
+
+                final DelimitedInputStream output = new DelimitedInputStream(helper.stdout, "\n" + helper.sentinel + "\n");
+                try
+                {
+                    outputHandler.process(output);
+                    outputHandler.complete();
+                }
+                catch (Exception e)
+                {
+                    exception = e;
+                }
+                output.skipToDelimiter();
+
+                exitCode = readControlNumber();
+                reusable = output.isDelimiterFound();
+            }
+            catch (Exception e)
+            {
+                log.warn("Git helper process has failed", e);
+                if (exception == null)
+                {
+                    exception = e;
+                }
+            }
+            finally
+            {
+                release(helper, reusable);
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Waits for the command to finish; it is cancelled when it does not finish in time or the waiting thread gets
+         * interrupted.
+         */
+        void waitFor(long timeout)
+        {
+            boolean interrupted = false;
+            try
+            {
+                if (!finished.await(timeout, TimeUnit.MILLISECONDS))
+                {
+                    log.warn("Git command has not finished in " + timeout + "ms, cancelling it");
+                    cancel();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+                cancel();
+            }
+
+            while (true)
+            {
+                try
+                {
+                    if (!finished.await(CANCEL_GRACE_PERIOD, TimeUnit.MILLISECONDS))
+                    {
+                        // does not react to signals or something else holds its output open
+                        helper.destroy();
+                        continue;
+                    }
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void cancel()
+        {
+            cancelled = true;
+            if (pid != null)
+            {
+                kill();
+            }
+        }
+
+        boolean succeeded()
+        {
+            return exitCode == 0 && exception == null && !cancelled;
+        }
+
+        int getExitCode()
+        {
+            return exitCode;
+        }
+
+        @Nullable
+        Exception getException()
+        {
+            return exception;
+        }
+
+        private int readControlNumber() throws IOException
+        {
+            while (true)
+            {
+                final String line = helper.control.readLine();
+                if (line == null)
+                {
+                    throw new IOException("Git helper process has exited unexpectedly");
+                }
+                if (StringUtils.isNumeric(line.trim()) && line.trim().length() > 0)
+                {
+                    return Integer.parseInt(line.trim());
+                }
+                // job status messages of the shell, e.g. when the command gets killed
+                log.debug("Git helper process: " + line);
+            }
+        }
+
+        private void kill()
+        {
+            if (finished.getCount() == 0)
+            {
+                return;
+            }
+            try
+            {
+                new ProcessBuilder("kill", pid).start().waitFor();
+            }
+            catch (Exception e)
+            {
+                log.warn("Unable to kill git process " + pid + ", stopping the helper process", e);
+                helper.destroy();
+            }
+        }
+    }
+
+    /**
+     * View of the helper's output which ends where the output of the current command ends.
+     */
+    static class DelimitedInputStream extends InputStream
+    {
+        private final InputStream in;
+        private final byte[] delimiter;
+        private final byte[] pending;
+        private int pendingStart;
+        private int pendingEnd;
+        private int matched;
+        private boolean ended;
+        private boolean delimiterFound;
+
+        /**
+         * @param delimiter starts and ends with a new line and contains no other new lines
+         */
+        DelimitedInputStream(@NotNull final InputStream in, @NotNull final String delimiter)
+        {
+            this.in = in;
+            this.delimiter = delimiter.getBytes();
+            this.pending = new byte[this.delimiter.length + 1];
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            while (true)
+            {
+                if (pendingStart < pendingEnd)
+                {
+                    return pending[pendingStart++] & 0xff;
+                }
+                if (ended)
+                {
+                    return -1;
+                }
+
+                final int b = in.read();
+                if (b == -1)
+                {
+                    ended = true;
+                    releaseMatched();
+                }
+                else if (b == (delimiter[matched] & 0xff))
+                {
+                    if (++matched == delimiter.length)
+                    {
+                        ended = true;
+                        delimiterFound = true;
+                    }
+                }
+                else if (matched > 0)
+                {
+                    // the delimiter has no new lines inside, so a new match can only start at b
+                    releaseMatched();
+                    if (b == (delimiter[0] & 0xff))
+                    {
+                        matched = 1;
+                    }
+                    else
+                    {
+                        pending[pendingEnd++] = (byte) b;
+                    }
+                }
+                else
+                {
+                    return b;
+                }
+            }
+        }
+
+        /**
+         * Does not block once at least one byte has been read, so the output is passed on as soon as it arrives.
+         */
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            int count = 0;
+            do
+            {
+                final int b = read();
+                if (b == -1)
+                {
+                    return count > 0 ? count : -1;
+                }
+                buffer[offset + count++] = (byte) b;
+            }
+            while (count < length && (pendingStart < pendingEnd || in.available() > 0));
+            return count;
+        }
+
+        @Override
+        public void close()
+        {
+            // the helper's output stays open for the next command
+        }
+
+        void skipToDelimiter() throws IOException
+        {
+            //noinspection StatementWithEmptyBody
+            while (read() != -1)
+            {
+            }
+        }
+
+        boolean isDelimiterFound()
+        {
+            return delimiterFound;
+        }
+
+        private void releaseMatched()
+        {
+            System.arraycopy(delimiter, 0, pending, 0, matched);
+            pendingStart = 0;
+            pendingEnd = matched;
+            matched = 0;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.utils.SystemProperty;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aborts a git transfer which made no progress (no new objects or bytes received) within the stall window, so a hung
+ * fetch does not block the agent until the command timeout expires. Also aborts any git operation as soon as the
+ * build it is run for gets stopped.
+ */
+class GitProgressWatchdog
+{
+    private static final Logger log = Logger.getLogger(GitProgressWatchdog.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    // not final - tests shorten the window
+    static long STALL_TIMEOUT = TimeUnit.SECONDS.toMillis(new SystemProperty(false, "atlassian.bamboo.git.stallTimeout",
+            "ATLASSIAN_BAMBOO_GIT_STALL_TIMEOUT").getValue(10 * 60));
+    static int STALL_RETRIES = new SystemProperty(false, "atlassian.bamboo.git.stallRetries",
+            "ATLASSIAN_BAMBOO_GIT_STALL_RETRIES").getValue(1);
+
+    private static final long MAX_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final long CANCELLATION_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("GitProgressWatchdog-%d").build());
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final long stallTimeout;
+    private final BuildCancellationSignal cancellationSignal;
+    private volatile long lastProgressTimestamp;
+    private volatile boolean stalled;
+    private volatile boolean cancelled;
+    private String lastProgressState;
+    private ScheduledFuture<?> check;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    GitProgressWatchdog(@Nullable final BuildCancellationSignal cancellationSignal)
+    {
+        this(STALL_TIMEOUT, cancellationSignal);
+    }
+
+    /**
+     * @param stallTimeout stall window in milliseconds, 0 disables stall detection
+     * @param cancellationSignal signal of the build, null if the operation cannot be cancelled
+     */
+    GitProgressWatchdog(long stallTimeout, @Nullable final BuildCancellationSignal cancellationSignal)
+    {
+        this.stallTimeout = stallTimeout;
+        this.cancellationSignal = cancellationSignal;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Starts watching; abortAction is run once, from the watchdog thread, when the transfer stalls or the build is
+     * stopped.
+     */
+    synchronized void start(@NotNull final Runnable abortAction)
+    {
+        final boolean detectStalls = stallTimeout > 0;
+        if (!detectStalls && cancellationSignal == null)
+        {
+            return;
+        }
+        lastProgressTimestamp = System.currentTimeMillis();
+        long checkInterval = detectStalls ? Math.max(1, Math.min(MAX_CHECK_INTERVAL, stallTimeout / 4)) : MAX_CHECK_INTERVAL;
+        if (cancellationSignal != null)
+        {
+            checkInterval = Math.min(checkInterval, CANCELLATION_CHECK_INTERVAL);
+        }
+        check = scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                if (stalled || cancelled)
+                {
+                    return;
+                }
+                if (cancellationSignal != null && cancellationSignal.isCancelled())
+                {
+                    cancelled = true;
+                    log.info("Build has been stopped, aborting git operation");
+                }
+                else if (detectStalls && System.currentTimeMillis() - lastProgressTimestamp > stallTimeout)
+                {
+                    stalled = true;
+                    log.warn("No progress in the last " + stallTimeout + "ms, aborting git transfer");
+                }
+                else
+                {
+                    return;
+                }
+                stop();
+                abortAction.run();
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop()
+    {
+        if (check != null)
+        {
+            check.cancel(false);
+            check = null;
+        }
+    }
+
+    void progress()
+    {
+        lastProgressTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Records the progress reported as text (e.g. git's progress output). Repeated reports of the same state are not
+     * considered a progress.
+     */
+    synchronized void progress(@Nullable final String progressState)
+    {
+        if (progressState != null && !progressState.equals(lastProgressState))
+        {
+            lastProgressState = progressState;
+            progress();
+        }
+    }
+
+    /**
+     * Marks the transfer as stalled if it has failed because a read timed out.
+     */
+    void checkTimeout(@Nullable Throwable failure)
+    {
+        for (; failure != null; failure = failure.getCause())
+        {
+            if (failure instanceof InterruptedIOException)
+            {
+                stalled = true;
+                return;
+            }
+        }
+    }
+
+    boolean isStalled()
+    {
+        return stalled;
+    }
+
+    boolean isCancelled()
+    {
+        return cancelled || cancellationSignal != null && cancellationSignal.isCancelled();
+    }
+
+    long getStallTimeout()
+    {
+        return stallTimeout;
+    }
+}
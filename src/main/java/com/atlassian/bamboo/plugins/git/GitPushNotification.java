@@ -0,0 +1,124 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.opensymphony.webwork.dispatcher.json.JSONException;
+import com.opensymphony.webwork.dispatcher.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single ref update reported by a remote repository, either through a post-receive hook or a GitHub-style push payload.
+ */
+class GitPushNotification
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+    private static final String GITHUB_BASE_URL = "https://github.com/";
+    // ------------------------------------------------------------------------------------------------- Type Properties
+    private final String repositoryUrl;
+    private final String ref;
+    private final String revision;
+    private final long receivedTimestamp;
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    GitPushNotification(@NotNull final String repositoryUrl, @NotNull final String ref, @NotNull final String revision)
+    {
+        this.repositoryUrl = repositoryUrl;
+        this.ref = ref;
+        this.revision = revision;
+        this.receivedTimestamp = System.currentTimeMillis();
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Parses the payload GitHub posts to its "Post-Receive URLs" service hook.
+     */
+    @NotNull
+    static List<GitPushNotification> fromGitHubPayload(@NotNull final String payload) throws JSONException
+    {
+        final JSONObject json = new JSONObject(payload);
+        final String ref = json.getString("ref");
+        final String revision = json.getString("after");
+
+        final JSONObject repository = json.getJSONObject("repository");
+        String repositoryUrl = repository.optString("url");
+        if (StringUtils.isBlank(repositoryUrl))
+        {
+            final JSONObject owner = repository.getJSONObject("owner");
+            repositoryUrl = GITHUB_BASE_URL + owner.getString("name") + "/" + repository.getString("name");
+        }
+
+        final List<GitPushNotification> notifications = new ArrayList<GitPushNotification>();
+        if (isUpdate(revision))
+        {
+            notifications.add(new GitPushNotification(repositoryUrl, ref, revision));
+        }
+        return notifications;
+    }
+
+    /**
+     * Parses the standard input of a post-receive hook: one {@code <old-value> <new-value> <ref-name>} line per updated ref.
+     */
+    @NotNull
+    static List<GitPushNotification> fromPostReceive(@NotNull final String repositoryUrl, @NotNull final String refLines)
+    {
+        final List<GitPushNotification> notifications = new ArrayList<GitPushNotification>();
+        for (String line : StringUtils.split(refLines, "\r\n"))
+        {
+            final String[] fields = StringUtils.split(line);
+            if (fields.length != 3)
+            {
+                throw new IllegalArgumentException("Invalid post-receive line: `" + line + "'");
+            }
+            if (isUpdate(fields[1]))
+            {
+                notifications.add(new GitPushNotification(repositoryUrl, fields[2], fields[1]));
+            }
+        }
+        return notifications;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    /**
+     * Deleted refs are reported with all-zero new value - there is nothing to build for them.
+     */
+    private static boolean isUpdate(final String revision)
+    {
+        return ObjectId.isId(revision) && !ObjectId.zeroId().getName().equals(revision);
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    @NotNull
+    String getRepositoryUrl()
+    {
+        return repositoryUrl;
+    }
+
+    @NotNull
+    String getRef()
+    {
+        return ref;
+    }
+
+    @NotNull
+    String getRevision()
+    {
+        return revision;
+    }
+
+    long getReceivedTimestamp()
+    {
+        return receivedTimestamp;
+    }
+
+    @Override
+    public String toString()
+    {
+        return repositoryUrl + " " + ref + " -> " + revision;
+    }
+}
@@ -0,0 +1,229 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.chains.Chain;
+import com.atlassian.bamboo.plan.Plan;
+import com.atlassian.bamboo.plan.PlanHelper;
+import com.atlassian.bamboo.repository.RepositoryDefinition;
+import com.atlassian.bamboo.utils.SystemProperty;
+import com.atlassian.bamboo.v2.build.repository.RepositoryV2;
+import com.atlassian.bamboo.v2.events.ChangeDetectionRequiredEvent;
+import com.atlassian.bamboo.ww2.actions.PlanActionSupport;
+import com.atlassian.event.EventManager;
+import com.opensymphony.webwork.dispatcher.json.JSONException;
+import com.opensymphony.webwork.dispatcher.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Accepts push notifications sent by post-receive hooks or by GitHub and triggers change detection for the plans
+ * which use the pushed repository and branch.
+ * <p/>
+ * GitHub posts its payload in the {@code payload} parameter. Post-receive hooks should post the repository URL
+ * in the {@code url} parameter and the hook's standard input in the {@code refs} parameter. Both have to pass
+ * the secret configured with the {@code atlassian.bamboo.git.pushNotification.token} system property.
+ */
+public class GitPushNotificationAction extends PlanActionSupport
+{
+    private static final Logger log = Logger.getLogger(GitPushNotificationAction.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String PUSH_NOTIFICATION_TOKEN = new SystemProperty(false, "atlassian.bamboo.git.pushNotification.token",
+            "ATLASSIAN_BAMBOO_GIT_PUSH_NOTIFICATION_TOKEN").getValue("");
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+    private final String pushNotificationToken;
+
+    private String token;
+    private String payload;
+    private String url;
+    private String refs;
+
+    private final List<String> triggeredPlans = new ArrayList<String>();
+    // ---------------------------------------------------------------------------------------------------- Dependencies
+    private EventManager eventManager;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    public GitPushNotificationAction()
+    {
+        this(PUSH_NOTIFICATION_TOKEN);
+    }
+
+    GitPushNotificationAction(@NotNull final String pushNotificationToken)
+    {
+        this.pushNotificationToken = pushNotificationToken;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    // not doNotify - XWork would resolve method "notify" to Object.notify()
+    public String doPushNotification() throws Exception
+    {
+        if (StringUtils.isBlank(pushNotificationToken) || !isTokenValid(token))
+        {
+            addActionError(getText("repository.git.messages.pushNotification.unauthorized"));
+            return ERROR;
+        }
+
+        final List<GitPushNotification> notifications;
+        try
+        {
+            if (StringUtils.isNotBlank(payload))
+            {
+                notifications = GitPushNotification.fromGitHubPayload(payload);
+            }
+            else if (StringUtils.isNotBlank(url) && refs != null)
+            {
+                notifications = GitPushNotification.fromPostReceive(url, refs);
+            }
+            else
+            {
+                addActionError(getText("repository.git.messages.pushNotification.invalidPayload"));
+                return ERROR;
+            }
+        }
+        catch (JSONException e)
+        {
+            log.info("Invalid push notification payload", e);
+            addActionError(getText("repository.git.messages.pushNotification.invalidPayload"));
+            return ERROR;
+        }
+        catch (IllegalArgumentException e)
+        {
+            log.info("Invalid push notification payload", e);
+            addActionError(getText("repository.git.messages.pushNotification.invalidPayload"));
+            return ERROR;
+        }
+
+        // only pushes to branches which plans build are kept, others would never be read
+        final Set<GitPushNotification> matchingNotifications = new LinkedHashSet<GitPushNotification>();
+        final List<String> affectedPlans = new ArrayList<String>();
+        for (Chain chain : planManager.getAllPlans(Chain.class))
+        {
+            if (collectMatchingNotifications(chain, notifications, matchingNotifications))
+            {
+                affectedPlans.add(chain.getKey());
+            }
+        }
+
+        for (GitPushNotification notification : matchingNotifications)
+        {
+            GitPushNotifications.register(notification);
+        }
+
+        for (String planKey : affectedPlans)
+        {
+            log.info(getText("repository.git.messages.pushNotification.triggering", Arrays.asList(planKey)));
+            eventManager.publishEvent(new ChangeDetectionRequiredEvent(this, planKey));
+            triggeredPlans.add(planKey);
+        }
+        return SUCCESS;
+    }
+
+    // ----------------------------------------------------------------------------------------------- Interface Methods
+
+    @NotNull
+    @Override
+    public JSONObject getJsonObject() throws JSONException
+    {
+        JSONObject jsonObject = super.getJsonObject();
+        jsonObject.put("triggeredPlans", triggeredPlans);
+        return jsonObject;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Private Helper
+
+    /**
+     * @return true if the plan is affected by any of the notifications, which are then added to matchingNotifications
+     */
+    private static boolean collectMatchingNotifications(@NotNull final Plan plan, @NotNull final List<GitPushNotification> notifications,
+                                                        @NotNull final Set<GitPushNotification> matchingNotifications)
+    {
+        boolean affected = false;
+        for (RepositoryDefinition repositoryDefinition : PlanHelper.getRepositoryDefinitions(plan))
+        {
+            final GitRepository gitRepository = asGitRepository(repositoryDefinition.getRepository());
+            if (gitRepository == null)
+            {
+                continue;
+            }
+            final GitRepository.GitRepositoryAccessData accessData = gitRepository.getSubstitutedAccessData();
+            for (GitPushNotification notification : notifications)
+            {
+                if (GitPushNotifications.matches(notification, accessData.repositoryUrl, accessData.branch))
+                {
+                    matchingNotifications.add(notification);
+                    affected = true;
+                }
+            }
+        }
+        return affected;
+    }
+
+    @Nullable
+    private static GitRepository asGitRepository(final RepositoryV2 repository)
+    {
+        if (repository instanceof GitRepository)
+        {
+            return (GitRepository) repository;
+        }
+        if (repository instanceof GitHubRepository)
+        {
+            return ((GitHubRepository) repository).getGitRepository();
+        }
+        return null;
+    }
+
+    /**
+     * Compares the whole token regardless of where the first difference is, so the response time does not reveal it.
+     */
+    private boolean isTokenValid(@Nullable final String token)
+    {
+        if (token == null || token.length() != pushNotificationToken.length())
+        {
+            return false;
+        }
+        int difference = 0;
+        for (int i = 0; i < token.length(); i++)
+        {
+            difference |= token.charAt(i) ^ pushNotificationToken.charAt(i);
+        }
+        return difference == 0;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    public void setToken(final String token)
+    {
+        this.token = token;
+    }
+
+    public void setPayload(final String payload)
+    {
+        this.payload = payload;
+    }
+
+    public void setUrl(final String url)
+    {
+        this.url = url;
+    }
+
+    public void setRefs(final String refs)
+    {
+        this.refs = refs;
+    }
+
+    public void setEventManager(final EventManager eventManager)
+    {
+        this.eventManager = eventManager;
+    }
+}
@@ -0,0 +1,96 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.utils.SystemProperty;
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps ref heads recently pushed to remote repositories, so change detection triggered by a push notification
+ * does not have to ask the remote repository for its refs again.
+ */
+class GitPushNotifications
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+    private static final long NOTIFICATION_TTL = TimeUnit.SECONDS.toMillis(
+            new SystemProperty(false, "atlassian.bamboo.git.pushNotification.ttl", "GIT_PUSH_NOTIFICATION_TTL").getValue(60));
+
+    private static final ConcurrentMap<String, GitPushNotification> pushedRefs = new ConcurrentHashMap<String, GitPushNotification>();
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitPushNotifications()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Registers the notification and forgets the expired ones, which would otherwise be kept for refs that are not
+     * read again.
+     */
+    static void register(@NotNull final GitPushNotification notification)
+    {
+        for (Iterator<GitPushNotification> iterator = pushedRefs.values().iterator(); iterator.hasNext(); )
+        {
+            if (isExpired(iterator.next()))
+            {
+                iterator.remove();
+            }
+        }
+        pushedRefs.put(key(notification.getRepositoryUrl(), notification.getRef()), notification);
+    }
+
+    /**
+     * @return revision pushed recently to the branch of the repository, null if there was no push notification
+     * or if it is too old to be trusted
+     */
+    @Nullable
+    static String getPushedRevision(@NotNull final String repositoryUrl, @Nullable final String branch)
+    {
+        final String key = key(repositoryUrl, normalizeRef(branch));
+        final GitPushNotification notification = pushedRefs.get(key);
+        if (notification == null)
+        {
+            return null;
+        }
+        if (isExpired(notification))
+        {
+            pushedRefs.remove(key, notification);
+            return null;
+        }
+        return notification.getRevision();
+    }
+
+    static boolean matches(@NotNull final GitPushNotification notification, @NotNull final String repositoryUrl, @Nullable final String branch)
+    {
+        return key(notification.getRepositoryUrl(), notification.getRef()).equals(key(repositoryUrl, normalizeRef(branch)));
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static boolean isExpired(@NotNull final GitPushNotification notification)
+    {
+        return System.currentTimeMillis() - notification.getReceivedTimestamp() > NOTIFICATION_TTL;
+    }
+
+    @NotNull
+    static String normalizeRef(@Nullable final String branch)
+    {
+        if (StringUtils.isBlank(branch))
+        {
+            return Constants.R_HEADS + Constants.MASTER;
+        }
+        return branch.startsWith(Constants.R_REFS) ? branch : Constants.R_HEADS + branch;
+    }
+
+    private static String key(final String repositoryUrl, final String ref)
+    {
+        return GitRepositoryUrls.canonicalUrl(repositoryUrl) + " " + ref;
+    }
+}
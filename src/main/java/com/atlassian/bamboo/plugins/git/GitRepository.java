@@ -16,6 +16,7 @@ import com.atlassian.bamboo.repository.MavenPomAccessor;
 import com.atlassian.bamboo.repository.MavenPomAccessorCapableRepository;
 import com.atlassian.bamboo.repository.NameValuePair;
 import com.atlassian.bamboo.repository.Repository;
+import com.atlassian.bamboo.repository.RepositoryDefinition;
 import com.atlassian.bamboo.repository.RepositoryException;
 import com.atlassian.bamboo.repository.SelectableAuthenticationRepository;
 import com.atlassian.bamboo.security.StringEncrypter;
@@ -23,6 +24,7 @@ import com.atlassian.bamboo.ssh.ProxyRegistrationInfo;
 import com.atlassian.bamboo.ssh.SshProxyService;
 import com.atlassian.bamboo.utils.SystemProperty;
 import com.atlassian.bamboo.utils.error.ErrorCollection;
+import com.atlassian.bamboo.v2.build.BuildChanges;
 import com.atlassian.bamboo.v2.build.BuildContext;
 import com.atlassian.bamboo.v2.build.BuildRepositoryChanges;
 import com.atlassian.bamboo.v2.build.BuildRepositoryChangesImpl;
@@ -44,9 +46,11 @@ import com.opensymphony.xwork.TextProvider;
 import com.opensymphony.xwork.util.LocalizedTextUtil;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.math.NumberUtils;
 import org.apache.log4j.Logger;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.transport.URIish;
@@ -64,6 +68,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 
 public class GitRepository extends AbstractStandaloneRepository implements MavenPomAccessorCapableRepository,
                                                                            SelectableAuthenticationRepository,
@@ -84,10 +90,20 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
     private static final String REPOSITORY_GIT_SSH_KEY = "repository.git.ssh.key";
     private static final String REPOSITORY_GIT_SSH_PASSPHRASE = "repository.git.ssh.passphrase";
     private static final String REPOSITORY_GIT_USE_SHALLOW_CLONES = "repository.git.useShallowClones";
+    private static final String REPOSITORY_GIT_SHALLOW_DEPTH = "repository.git.shallowDepth";
+    private static final String REPOSITORY_GIT_AUTOMATIC_SHALLOW_CLONES = "repository.git.automaticShallowClones";
     private static final String REPOSITORY_GIT_USE_SUBMODULES = "repository.git.useSubmodules";
     private static final String REPOSITORY_GIT_MAVEN_PATH = "repository.git.maven.path";
     private static final String REPOSITORY_GIT_COMMAND_TIMEOUT = "repository.git.commandTimeout";
     private static final String REPOSITORY_GIT_VERBOSE_LOGS = "repository.git.verbose.logs";
+    private static final String REPOSITORY_GIT_ENGINE_SELECTION = "repository.git.engineSelection";
+    private static final String REPOSITORY_GIT_OBJECT_POOL = "repository.git.objectPool";
+    private static final String REPOSITORY_GIT_POOL_RELATED_REPOSITORIES = "repository.git.poolRelatedRepositories";
+    private static final String REPOSITORY_GIT_EXPORT_ONLY = "repository.git.exportOnly";
+    private static final String REPOSITORY_GIT_PRESERVE_MODIFICATION_TIMES = "repository.git.preserveModificationTimes";
+    // path of the file listing files changed since the plan's previous build, relative to the directory the repository
+    // is checked out to (which may be a subdirectory of the job's working directory); exports do not list them
+    private static final String REPOSITORY_GIT_CHANGED_FILES = "repository.git.changedFiles";
     private static final String TEMPORARY_GIT_PASSWORD = "temporary.git.password";
     private static final String TEMPORARY_GIT_PASSWORD_CHANGE = "temporary.git.password.change";
     private static final String TEMPORARY_GIT_SSH_PASSPHRASE = "temporary.git.ssh.passphrase";
@@ -99,6 +115,9 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
     private static boolean USE_SHALLOW_CLONES = new SystemProperty(false, "atlassian.bamboo.git.useShallowClones", "ATLASSIAN_BAMBOO_GIT_USE_SHALLOW_CLONES").getValue(true);
 
     final static int DEFAULT_COMMAND_TIMEOUT_IN_MINUTES = 180;
+    final static int DEFAULT_SHALLOW_DEPTH = 1;
+
+    private static final String EXPORT_REPOSITORY_SUFFIX = "-git-export";
 
     // ------------------------------------------------------------------------------------------------- Type Properties
 
@@ -114,9 +133,16 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         String sshPassphrase;
         GitAuthenticationType authenticationType;
         boolean useShallowClones;
+        int shallowDepth = DEFAULT_SHALLOW_DEPTH;
+        boolean automaticShallowClones;
         boolean useSubmodules;
         int commandTimeout;
         boolean verboseLogs;
+        GitEngineSelection engineSelection = GitEngineSelection.DEFAULT;
+        String objectPool;
+        boolean poolRelatedRepositories;
+        boolean exportOnly;
+        boolean preserveModificationTimes;
 
         transient ProxyRegistrationInfo proxyRegistrationInfo;
 
@@ -131,9 +157,16 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
             data.sshPassphrase = this.sshPassphrase;
             data.authenticationType = this.authenticationType;
             data.useShallowClones = this.useShallowClones;
+            data.shallowDepth = this.shallowDepth;
+            data.automaticShallowClones = this.automaticShallowClones;
             data.useSubmodules = this.useSubmodules;
             data.commandTimeout = this.commandTimeout;
             data.verboseLogs = this.verboseLogs;
+            data.engineSelection = this.engineSelection;
+            data.objectPool = this.objectPool;
+            data.poolRelatedRepositories = this.poolRelatedRepositories;
+            data.exportOnly = this.exportOnly;
+            data.preserveModificationTimes = this.preserveModificationTimes;
 
             return data;
         }
@@ -199,7 +232,8 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
             final BuildLogger buildLogger = buildLoggerManager.getBuildLogger(PlanKeys.getPlanKey(planKey));
             final GitOperationHelper helper = GitOperationHelperFactory.createGitOperationHelper(this, substitutedAccessData, sshProxyService, buildLogger, textProvider);
 
-            final String targetRevision = helper.obtainLatestRevision(substitutedAccessData);
+            final String pushedRevision = GitPushNotifications.getPushedRevision(substitutedAccessData.repositoryUrl, substitutedAccessData.branch);
+            final String targetRevision = pushedRevision != null ? pushedRevision : helper.obtainLatestRevision(substitutedAccessData);
 
             if (targetRevision.equals(lastVcsRevisionKey))
             {
@@ -207,6 +241,8 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
             }
 
             final File cacheDirectory = getCacheDirectory();
+            // the pushed revision is replaced if it is not in the fetched cache
+            final AtomicReference<String> fetchedRevision = new AtomicReference<String>(targetRevision);
             if (lastVcsRevisionKey == null)
             {
                 buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.ccRepositoryNeverChecked", Arrays.asList(targetRevision)));
@@ -216,8 +252,8 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
                     {
                         public Void call() throws RepositoryException
                         {
-                            boolean doShallowFetch = USE_SHALLOW_CLONES && substitutedAccessData.useShallowClones && !cacheDirectory.isDirectory();
-                            helper.fetch(cacheDirectory, substitutedAccessData, doShallowFetch);
+                            fetchCache(helper, cacheDirectory, substitutedAccessData, isShallowChangeDetection(cacheDirectory, substitutedAccessData, null), null);
+                            fetchedRevision.set(getFetchedTargetRevision(helper, buildLogger, cacheDirectory, substitutedAccessData, targetRevision, pushedRevision != null, null));
                             return null;
                         }
                     });
@@ -226,27 +262,65 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
                 {
                     throw new RepositoryException(e.getMessage(), e);
                 }
-                return new BuildRepositoryChangesImpl(targetRevision);
+                return new BuildRepositoryChangesImpl(fetchedRevision.get());
             }
 
-            final BuildRepositoryChanges buildChanges = GitCacheDirectory.getCacheLock(cacheDirectory).withLock(new Supplier<BuildRepositoryChanges>()
+            BuildRepositoryChanges buildChanges;
+            try
             {
-                public BuildRepositoryChanges get()
+                GitCacheDirectory.getCacheLock(cacheDirectory).withLock(new Callable<Void>()
                 {
-                    try
+                    public Void call() throws RepositoryException
                     {
-                        helper.fetch(cacheDirectory, substitutedAccessData, false);
-                        return helper.extractCommits(cacheDirectory, lastVcsRevisionKey, targetRevision);
+                        fetchCache(helper, cacheDirectory, substitutedAccessData, isShallowChangeDetection(cacheDirectory, substitutedAccessData, lastVcsRevisionKey), lastVcsRevisionKey);
+                        fetchedRevision.set(getFetchedTargetRevision(helper, buildLogger, cacheDirectory, substitutedAccessData, targetRevision, pushedRevision != null, lastVcsRevisionKey));
+                        deepenCache(helper, cacheDirectory, substitutedAccessData, lastVcsRevisionKey);
+                        return null;
                     }
-                    catch (Exception e) // not just RepositoryException - see HandlingSwitchingRepositoriesToUnrelatedOnesTest.testCollectChangesWithUnrelatedPreviousRevision
+                });
+                // fetches only add objects to the cache, so it can be read without the lock while nothing removes them
+                final Lock readLock = GitCacheDirectory.getReaderLock(cacheDirectory).readLock();
+                readLock.lock();
+                try
+                {
+                    buildChanges = helper.extractCommits(cacheDirectory, lastVcsRevisionKey, fetchedRevision.get());
+                }
+                finally
+                {
+                    readLock.unlock();
+                }
+            }
+            catch (final Exception e) // not just RepositoryException - see HandlingSwitchingRepositoriesToUnrelatedOnesTest.testCollectChangesWithUnrelatedPreviousRevision
+            {
+                buildChanges = GitCacheDirectory.getCacheLock(cacheDirectory).withLock(new Supplier<BuildRepositoryChanges>()
+                {
+                    public BuildRepositoryChanges get()
                     {
                         try
                         {
-                            rethrowOrRemoveDirectory(e, buildLogger, cacheDirectory, "repository.git.messages.ccRecover.failedToCollectChangesets");
-                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.ccRecover.cleanedCacheDirectory", Arrays.asList(cacheDirectory)));
-                            helper.fetch(cacheDirectory, substitutedAccessData, false);
-                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.ccRecover.fetchedRemoteRepository", Arrays.asList(cacheDirectory)));
-                            BuildRepositoryChanges extractedChanges = helper.extractCommits(cacheDirectory, lastVcsRevisionKey, targetRevision);
+                            BuildRepositoryChanges extractedChanges = null;
+                            if (rethrowOrRepairCache(e, buildLogger, cacheDirectory, "repository.git.messages.ccRecover.failedToCollectChangesets"))
+                            {
+                                try
+                                {
+                                    fetchCache(helper, cacheDirectory, substitutedAccessData, isShallowChangeDetection(cacheDirectory, substitutedAccessData, lastVcsRevisionKey), lastVcsRevisionKey);
+                                    fetchedRevision.set(getFetchedTargetRevision(helper, buildLogger, cacheDirectory, substitutedAccessData, targetRevision, pushedRevision != null, lastVcsRevisionKey));
+                                    deepenCache(helper, cacheDirectory, substitutedAccessData, lastVcsRevisionKey);
+                                    extractedChanges = helper.extractCommits(cacheDirectory, lastVcsRevisionKey, fetchedRevision.get());
+                                }
+                                catch (Exception e2)
+                                {
+                                    rethrowOrRemoveCache(e2, buildLogger, cacheDirectory, "repository.git.messages.cacheRepairFailed");
+                                }
+                            }
+                            if (extractedChanges == null)
+                            {
+                                buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.ccRecover.cleanedCacheDirectory", Arrays.asList(cacheDirectory)));
+                                fetchCache(helper, cacheDirectory, substitutedAccessData, false, lastVcsRevisionKey);
+                                fetchedRevision.set(getFetchedTargetRevision(helper, buildLogger, cacheDirectory, substitutedAccessData, targetRevision, pushedRevision != null, lastVcsRevisionKey));
+                                buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.ccRecover.fetchedRemoteRepository", Arrays.asList(cacheDirectory)));
+                                extractedChanges = helper.extractCommits(cacheDirectory, lastVcsRevisionKey, fetchedRevision.get());
+                            }
                             buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.ccRecover.completed"));
                             return extractedChanges;
                         }
@@ -256,8 +330,8 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
                             return null;
                         }
                     }
-                }
-            });
+                });
+            }
 
             if (buildChanges != null && !buildChanges.getChanges().isEmpty())
             {
@@ -265,9 +339,9 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
             }
             else
             {
-                return new BuildRepositoryChangesImpl(targetRevision, Collections.singletonList((CommitContext) CommitContextImpl.builder()
+                return new BuildRepositoryChangesImpl(fetchedRevision.get(), Collections.singletonList((CommitContext) CommitContextImpl.builder()
                         .author(Author.UNKNOWN_AUTHOR)
-                        .comment(textProvider.getText("repository.git.messages.unknownChanges", Arrays.asList(lastVcsRevisionKey, targetRevision)))
+                        .comment(textProvider.getText("repository.git.messages.unknownChanges", Arrays.asList(lastVcsRevisionKey, fetchedRevision.get())))
                         .date(new Date())
                         .build()));
             }
@@ -300,49 +374,146 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
             final GitOperationHelper helper = GitOperationHelperFactory.createGitOperationHelper(this, substitutedAccessData, sshProxyService, buildLogger, textProvider);
             final String targetRevision = nullableTargetRevision != null ? nullableTargetRevision : helper.obtainLatestRevision(substitutedAccessData);
             final String previousRevision = helper.getCurrentRevision(sourceDirectory);
+            final String previousBuildRevision = getPreviousBuildRevision(buildContext);
 
             if (isOnLocalAgent)
             {
                 final File cacheDirectory = getCacheDirectory();
-                return GitCacheDirectory.getCacheLock(cacheDirectory).withLock(new Callable<String>()
+
+                // jobs which check out the same revision on this agent (e.g. the jobs of a stage) share a snapshot of it
+                final File snapshotDirectory = GitCheckoutSnapshots.ENABLED && !substitutedAccessData.exportOnly && ArrayUtils.isEmpty(sourceDirectory.list())
+                        ? GitCheckoutSnapshots.getSnapshotDirectory(buildDirectoryManager.getBaseBuildWorkingDirectory(), cacheDirectory, targetRevision, substitutedAccessData.useSubmodules)
+                        : null;
+                if (snapshotDirectory != null)
                 {
-                    public String call() throws Exception
+                    // the materialized repository reads its objects from the cache, which may have been deleted or
+                    // repaired since the snapshot was taken
+                    final Lock readLock = GitCacheDirectory.getReaderLock(cacheDirectory).readLock();
+                    readLock.lock();
+                    try
                     {
-                        try
-                        {
-                            helper.fetch(cacheDirectory, substitutedAccessData, doShallowFetch);
-                            helper.checkRevisionExistsInCacheRepository(cacheDirectory, targetRevision);
-                        }
-                        catch (Exception e)
+                        if (GitOperationHelper.containsRevision(cacheDirectory, targetRevision) && GitCheckoutSnapshots.materialize(snapshotDirectory, sourceDirectory))
                         {
-                            rethrowOrRemoveDirectory(e, buildLogger, cacheDirectory, "repository.git.messages.rsRecover.failedToFetchCache");
-                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.cleanedCacheDirectory", Arrays.asList(cacheDirectory)));
-                            helper.fetch(cacheDirectory, substitutedAccessData, false);
-                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.fetchingCacheCompleted", Arrays.asList(cacheDirectory)));
+                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.usingCheckoutSnapshot", Arrays.asList(targetRevision, snapshotDirectory)));
+                            // hard linked files share their modification times with the snapshot and the other jobs' copies
+                            if (!GitCheckoutSnapshots.isHardLinked())
+                            {
+                                updateModificationTimes(buildLogger, sourceDirectory, true, substitutedAccessData);
+                            }
+                            helper.writeChangedFiles(sourceDirectory, previousBuildRevision, targetRevision);
+                            return targetRevision;
                         }
+                    }
+                    finally
+                    {
+                        readLock.unlock();
+                    }
+                }
 
+                GitCacheDirectory.getCacheLock(cacheDirectory).withLock(new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
                         try
                         {
-                            return helper.checkout(cacheDirectory, sourceDirectory, targetRevision, previousRevision, accessData.useSubmodules);
+                            fetchCache(helper, cacheDirectory, substitutedAccessData, doShallowFetch, previousRevision);
+                            deepenCache(helper, cacheDirectory, substitutedAccessData, targetRevision);
+                            helper.checkRevisionExistsInCacheRepository(cacheDirectory, targetRevision);
                         }
                         catch (Exception e)
                         {
-                            rethrowOrRemoveDirectory(e, buildLogger, sourceDirectory, "repository.git.messages.rsRecover.failedToCheckout");
-                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.cleanedSourceDirectory", Arrays.asList(sourceDirectory)));
-                            String returnRevision = helper.checkout(cacheDirectory, sourceDirectory, targetRevision, null, accessData.useSubmodules);
-                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.checkoutCompleted"));
-                            return returnRevision;
+                            if (rethrowOrRepairCache(e, buildLogger, cacheDirectory, "repository.git.messages.rsRecover.failedToFetchCache"))
+                            {
+                                try
+                                {
+                                    fetchCache(helper, cacheDirectory, substitutedAccessData, false, previousRevision);
+                                    deepenCache(helper, cacheDirectory, substitutedAccessData, targetRevision);
+                                    helper.checkRevisionExistsInCacheRepository(cacheDirectory, targetRevision);
+                                    return null;
+                                }
+                                catch (Exception e2)
+                                {
+                                    rethrowOrRemoveCache(e2, buildLogger, cacheDirectory, "repository.git.messages.cacheRepairFailed");
+                                }
+                            }
+                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.cleanedCacheDirectory", Arrays.asList(cacheDirectory)));
+                            fetchCache(helper, cacheDirectory, substitutedAccessData, false, previousRevision);
+                            buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.fetchingCacheCompleted", Arrays.asList(cacheDirectory)));
                         }
+                        return null;
                     }
                 });
 
+                if (substitutedAccessData.exportOnly)
+                {
+                    final Lock readLock = GitCacheDirectory.getReaderLock(cacheDirectory).readLock();
+                    readLock.lock();
+                    try
+                    {
+                        return helper.export(cacheDirectory, sourceDirectory, targetRevision, getExportManifestFile(sourceDirectory));
+                    }
+                    finally
+                    {
+                        readLock.unlock();
+                    }
+                }
+
+                String revision;
+                try
+                {
+                    revision = checkoutFromCache(helper, buildLogger, cacheDirectory, sourceDirectory, targetRevision, previousRevision, substitutedAccessData);
+                    updateSubmodules(helper, cacheDirectory, sourceDirectory, substitutedAccessData);
+                }
+                catch (Exception e)
+                {
+                    rethrowOrRemoveDirectory(e, buildLogger, sourceDirectory, "repository.git.messages.rsRecover.failedToCheckout");
+                    buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.cleanedSourceDirectory", Arrays.asList(sourceDirectory)));
+                    revision = checkoutFromCache(helper, buildLogger, cacheDirectory, sourceDirectory, targetRevision, null, substitutedAccessData);
+                    updateSubmodules(helper, cacheDirectory, sourceDirectory, substitutedAccessData);
+                    buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.checkoutCompleted"));
+                }
+                if (snapshotDirectory != null)
+                {
+                    GitCheckoutSnapshots.create(sourceDirectory, snapshotDirectory);
+                }
+                final Lock readLock = GitCacheDirectory.getReaderLock(cacheDirectory).readLock();
+                readLock.lock();
+                try
+                {
+                    helper.writeChangedFiles(sourceDirectory, previousBuildRevision, revision);
+                }
+                finally
+                {
+                    readLock.unlock();
+                }
+                return revision;
+            }
+            else if (substitutedAccessData.exportOnly)
+            {
+                // there is no cache to export from, so the revision is fetched to a repository which is thrown away
+                final File exportRepository = new File(sourceDirectory.getParentFile(), sourceDirectory.getName() + EXPORT_REPOSITORY_SUFFIX);
+                try
+                {
+                    FileUtils.deleteQuietly(exportRepository);
+                    helper.fetch(exportRepository, substitutedAccessData, doShallowFetch ? substitutedAccessData.shallowDepth : 0);
+                    helper.deepenUntilContains(exportRepository, substitutedAccessData, targetRevision);
+                    return helper.export(exportRepository, sourceDirectory, targetRevision, getExportManifestFile(sourceDirectory));
+                }
+                finally
+                {
+                    GitTrash.delete(buildDirectoryManager.getBaseBuildWorkingDirectory(), exportRepository);
+                }
             }
             else //isOnRemoteAgent
             {
                 try
                 {
-                    helper.fetch(sourceDirectory, substitutedAccessData, doShallowFetch);
-                    return helper.checkout(null, sourceDirectory, targetRevision, previousRevision, accessData.useSubmodules);
+                    helper.fetch(sourceDirectory, substitutedAccessData, doShallowFetch ? substitutedAccessData.shallowDepth : 0);
+                    helper.deepenUntilContains(sourceDirectory, substitutedAccessData, targetRevision);
+                    final String revision = checkout(helper, buildLogger, null, sourceDirectory, targetRevision, previousRevision, substitutedAccessData);
+                    updateSubmodules(helper, null, sourceDirectory, substitutedAccessData);
+                    helper.writeChangedFiles(sourceDirectory, previousBuildRevision, revision);
+                    return revision;
                 }
                 catch (Exception e)
                 {
@@ -350,8 +521,10 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
                     buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.cleanedSourceDirectory", Arrays.asList(sourceDirectory)));
                     helper.fetch(sourceDirectory, substitutedAccessData, false);
                     buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.fetchingCompleted", Arrays.asList(sourceDirectory)));
-                    String returnRevision = helper.checkout(null, sourceDirectory, targetRevision, null, accessData.useSubmodules);
+                    String returnRevision = checkout(helper, buildLogger, null, sourceDirectory, targetRevision, null, substitutedAccessData);
+                    updateSubmodules(helper, null, sourceDirectory, substitutedAccessData);
                     buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.rsRecover.checkoutCompleted"));
+                    helper.writeChangedFiles(sourceDirectory, previousBuildRevision, returnRevision);
                     return returnRevision;
                 }
             }
@@ -401,12 +574,21 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         buildConfiguration.setProperty(REPOSITORY_GIT_COMMAND_TIMEOUT, Integer.valueOf(DEFAULT_COMMAND_TIMEOUT_IN_MINUTES));
         buildConfiguration.clearTree(REPOSITORY_GIT_VERBOSE_LOGS);
         buildConfiguration.setProperty(REPOSITORY_GIT_USE_SHALLOW_CLONES, true);
+        buildConfiguration.setProperty(REPOSITORY_GIT_SHALLOW_DEPTH, Integer.valueOf(DEFAULT_SHALLOW_DEPTH));
+        buildConfiguration.clearTree(REPOSITORY_GIT_AUTOMATIC_SHALLOW_CLONES);
         buildConfiguration.clearTree(REPOSITORY_GIT_USE_SUBMODULES);
+        buildConfiguration.setProperty(REPOSITORY_GIT_ENGINE_SELECTION, GitEngineSelection.DEFAULT.name());
+        buildConfiguration.clearTree(REPOSITORY_GIT_OBJECT_POOL);
+        buildConfiguration.clearTree(REPOSITORY_GIT_POOL_RELATED_REPOSITORIES);
+        buildConfiguration.clearTree(REPOSITORY_GIT_EXPORT_ONLY);
+        buildConfiguration.clearTree(REPOSITORY_GIT_PRESERVE_MODIFICATION_TIMES);
     }
 
     public void prepareConfigObject(@NotNull BuildConfiguration buildConfiguration)
     {
         buildConfiguration.setProperty(REPOSITORY_GIT_COMMAND_TIMEOUT, buildConfiguration.getInt(REPOSITORY_GIT_COMMAND_TIMEOUT, DEFAULT_COMMAND_TIMEOUT_IN_MINUTES));
+        final int shallowDepth = NumberUtils.toInt(StringUtils.trim(buildConfiguration.getString(REPOSITORY_GIT_SHALLOW_DEPTH)), 0);
+        buildConfiguration.setProperty(REPOSITORY_GIT_SHALLOW_DEPTH, shallowDepth >= 1 ? shallowDepth : DEFAULT_SHALLOW_DEPTH);
         if (buildConfiguration.getBoolean(TEMPORARY_GIT_PASSWORD_CHANGE))
         {
             buildConfiguration.setProperty(REPOSITORY_GIT_PASSWORD, encrypterRef.get().encrypt(buildConfiguration.getString(TEMPORARY_GIT_PASSWORD)));
@@ -451,9 +633,16 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         accessData.sshPassphrase = config.getString(REPOSITORY_GIT_SSH_PASSPHRASE);
         accessData.authenticationType = safeParseAuthenticationType(config.getString(REPOSITORY_GIT_AUTHENTICATION_TYPE));
         accessData.useShallowClones = config.getBoolean(REPOSITORY_GIT_USE_SHALLOW_CLONES);
+        accessData.shallowDepth = config.getInt(REPOSITORY_GIT_SHALLOW_DEPTH, DEFAULT_SHALLOW_DEPTH);
+        accessData.automaticShallowClones = config.getBoolean(REPOSITORY_GIT_AUTOMATIC_SHALLOW_CLONES, false);
         accessData.useSubmodules = config.getBoolean(REPOSITORY_GIT_USE_SUBMODULES, false);
         accessData.commandTimeout = config.getInt(REPOSITORY_GIT_COMMAND_TIMEOUT, DEFAULT_COMMAND_TIMEOUT_IN_MINUTES);
         accessData.verboseLogs = config.getBoolean(REPOSITORY_GIT_VERBOSE_LOGS, false);
+        accessData.engineSelection = safeParseEngineSelection(config.getString(REPOSITORY_GIT_ENGINE_SELECTION));
+        accessData.objectPool = StringUtils.trimToNull(config.getString(REPOSITORY_GIT_OBJECT_POOL));
+        accessData.poolRelatedRepositories = config.getBoolean(REPOSITORY_GIT_POOL_RELATED_REPOSITORIES, false);
+        accessData.exportOnly = config.getBoolean(REPOSITORY_GIT_EXPORT_ONLY, false);
+        accessData.preserveModificationTimes = config.getBoolean(REPOSITORY_GIT_PRESERVE_MODIFICATION_TIMES, false);
 
         pathToPom = config.getString(REPOSITORY_GIT_MAVEN_PATH);
     }
@@ -471,9 +660,16 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         configuration.setProperty(REPOSITORY_GIT_SSH_PASSPHRASE, accessData.sshPassphrase);
         configuration.setProperty(REPOSITORY_GIT_AUTHENTICATION_TYPE, accessData.authenticationType != null ? accessData.authenticationType.name() : null);
         configuration.setProperty(REPOSITORY_GIT_USE_SHALLOW_CLONES, accessData.useShallowClones);
+        configuration.setProperty(REPOSITORY_GIT_SHALLOW_DEPTH, accessData.shallowDepth);
+        configuration.setProperty(REPOSITORY_GIT_AUTOMATIC_SHALLOW_CLONES, accessData.automaticShallowClones);
         configuration.setProperty(REPOSITORY_GIT_USE_SUBMODULES, accessData.useSubmodules);
         configuration.setProperty(REPOSITORY_GIT_COMMAND_TIMEOUT, accessData.commandTimeout);
         configuration.setProperty(REPOSITORY_GIT_VERBOSE_LOGS, accessData.verboseLogs);
+        configuration.setProperty(REPOSITORY_GIT_ENGINE_SELECTION, accessData.engineSelection.name());
+        configuration.setProperty(REPOSITORY_GIT_OBJECT_POOL, accessData.objectPool);
+        configuration.setProperty(REPOSITORY_GIT_POOL_RELATED_REPOSITORIES, accessData.poolRelatedRepositories);
+        configuration.setProperty(REPOSITORY_GIT_EXPORT_ONLY, accessData.exportOnly);
+        configuration.setProperty(REPOSITORY_GIT_PRESERVE_MODIFICATION_TIMES, accessData.preserveModificationTimes);
         return configuration;
     }
 
@@ -540,6 +736,11 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
             errorCollection.addError(REPOSITORY_GIT_MAVEN_PATH, textProvider.getText("repository.git.messages.invalidPomPath"));
         }
 
+        if (buildConfiguration.getBoolean(REPOSITORY_GIT_USE_SHALLOW_CLONES) && NumberUtils.toInt(StringUtils.trim(buildConfiguration.getString(REPOSITORY_GIT_SHALLOW_DEPTH)), 0) < 1)
+        {
+            errorCollection.addError(REPOSITORY_GIT_SHALLOW_DEPTH, textProvider.getText("repository.git.messages.invalidShallowDepth"));
+        }
+
         return errorCollection;
     }
 
@@ -550,6 +751,10 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         variables.put(REPOSITORY_GIT_REPOSITORY_URL, accessData.repositoryUrl);
         variables.put(REPOSITORY_GIT_BRANCH, accessData.branch);
         variables.put(REPOSITORY_GIT_USERNAME, accessData.username);
+        if (!accessData.exportOnly)
+        {
+            variables.put(REPOSITORY_GIT_CHANGED_FILES, GitOperationHelper.CHANGED_FILES);
+        }
         return variables;
     }
 
@@ -577,6 +782,18 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         return accessData.authenticationType != null ? accessData.authenticationType.name() : defaultAuthenticationType.name();
     }
 
+    public List<NameValuePair> getEngineSelections()
+    {
+        return Lists.transform(Arrays.asList(GitEngineSelection.values()), new Function<GitEngineSelection, NameValuePair>()
+        {
+            public NameValuePair apply(GitEngineSelection from)
+            {
+                final String selectionName = from.name();
+                return new NameValuePair(selectionName, getEngineSelectionName(selectionName));
+            }
+        });
+    }
+
     // -------------------------------------------------------------------------------------------------- Public Methods
 
     // -------------------------------------------------------------------------------------------------- Helper Methods
@@ -602,6 +819,27 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         return textProvider.getText("repository.git.authenticationType." + StringUtils.lowerCase(authType));
     }
 
+    static GitEngineSelection safeParseEngineSelection(String selectionName)
+    {
+        if (selectionName == null)
+        {
+            return GitEngineSelection.DEFAULT;
+        }
+        try
+        {
+            return GitEngineSelection.valueOf(selectionName);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return GitEngineSelection.DEFAULT;
+        }
+    }
+
+    String getEngineSelectionName(String engineSelection)
+    {
+        return textProvider.getText("repository.git.engineSelection." + StringUtils.lowerCase(engineSelection));
+    }
+
     GitRepositoryAccessData getSubstitutedAccessData()
     {
         GitRepositoryAccessData substituted = new GitRepositoryAccessData();
@@ -613,12 +851,276 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         substituted.sshPassphrase = encrypterRef.get().decrypt(accessData.sshPassphrase);
         substituted.authenticationType = accessData.authenticationType;
         substituted.useShallowClones = accessData.useShallowClones;
+        substituted.shallowDepth = accessData.shallowDepth;
+        substituted.automaticShallowClones = accessData.automaticShallowClones;
+        substituted.useSubmodules = accessData.useSubmodules;
         substituted.commandTimeout = accessData.commandTimeout;
         substituted.verboseLogs = accessData.verboseLogs;
+        substituted.engineSelection = accessData.engineSelection;
+        substituted.objectPool = accessData.objectPool != null ? substituteString(accessData.objectPool) : null;
+        substituted.poolRelatedRepositories = accessData.poolRelatedRepositories;
+        substituted.exportOnly = accessData.exportOnly;
+        substituted.preserveModificationTimes = accessData.preserveModificationTimes;
         return substituted;
     }
 
+    /**
+     * Fetches to the cache directory. With automatic shallow clones the depth of a new cache is chosen from what the
+     * previous caches of the repository have needed, and the size of what has been fetched is recorded. Full clones
+     * move the fetched objects to the object directory shared by all caches of the repository. A new full cache starts
+     * from the objects of a related cache which contains the known revision, if there is one - e.g. the cache of the
+     * URL the repository has been moved from - or from the bundle of the repository, so only the missing history is
+     * fetched. Finally the state of the cache is published for the readers which do not take its lock.
+     *
+     * @param useShallow true to fetch shallow history, if the repository is configured to
+     * @param knownRevision revision the repository is expected to contain, e.g. the revision of the previous build
+     */
+    /**
+     * The revision of a push notification is not in the fetched cache if the branch has been force pushed since the
+     * notification; the current head of the branch is then used instead, so change detection does not fail and the
+     * cache is not taken for broken. Must be called with the lock of cacheDirectory held, after fetching it.
+     */
+    @NotNull
+    private String getFetchedTargetRevision(@NotNull final GitOperationHelper helper, @NotNull final BuildLogger buildLogger, @NotNull final File cacheDirectory,
+                                            @NotNull final GitRepositoryAccessData substitutedAccessData, @NotNull final String targetRevision, boolean pushed,
+                                            @Nullable final String lastVcsRevisionKey) throws RepositoryException
+    {
+        if (!pushed || GitOperationHelper.containsRevision(cacheDirectory, targetRevision))
+        {
+            return targetRevision;
+        }
+        buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.pushNotification.revisionGone", Arrays.asList(targetRevision)));
+        final String latestRevision = helper.obtainLatestRevision(substitutedAccessData);
+        if (!GitOperationHelper.containsRevision(cacheDirectory, latestRevision))
+        {
+            fetchCache(helper, cacheDirectory, substitutedAccessData, isShallowChangeDetection(cacheDirectory, substitutedAccessData, lastVcsRevisionKey), lastVcsRevisionKey);
+        }
+        return latestRevision;
+    }
+
+    private void fetchCache(@NotNull final GitOperationHelper helper, @NotNull final File cacheDirectory,
+                            @NotNull final GitRepositoryAccessData substitutedAccessData, boolean useShallow,
+                            @Nullable final String knownRevision) throws RepositoryException
+    {
+        GitCacheDirectory.migrateLegacyCache(cacheDirectory, substitutedAccessData);
+        final boolean initialFetch = !cacheDirectory.isDirectory();
+        boolean seeded = initialFetch && knownRevision != null && !substitutedAccessData.useShallowClones
+                && GitCacheDirectory.reuseRelatedCache(cacheDirectory, knownRevision);
+        if (initialFetch && !seeded && !substitutedAccessData.useShallowClones)
+        {
+            final File bundleFile = GitCacheDirectory.getBundleFile(GitCacheDirectory.getBundlesDirectory(buildDirectoryManager.getBaseBuildWorkingDirectory()), substitutedAccessData);
+            seeded = bundleFile.isFile() && helper.fetchBundle(cacheDirectory, bundleFile);
+        }
+        final GitShallowStatistics statistics = substitutedAccessData.automaticShallowClones && initialFetch && !seeded ? GitShallowStatistics.load(cacheDirectory) : null;
+        int depth = 0;
+        if (statistics != null)
+        {
+            depth = useShallow ? statistics.chooseInitialDepth(substitutedAccessData.shallowDepth) : 0;
+        }
+        else if (useShallow && (!substitutedAccessData.automaticShallowClones || GitOperationHelper.isShallow(cacheDirectory)))
+        {
+            // a cache which has automatically been fetched in full stays complete
+            depth = substitutedAccessData.shallowDepth;
+        }
+        // there are no readers before the first fetch has published the cache
+        GitCacheDirectory.disableAutomaticGc(cacheDirectory);
+        helper.fetch(cacheDirectory, substitutedAccessData, depth);
+        if (seeded)
+        {
+            GitCacheDirectory.forgetSeedRefs(cacheDirectory);
+        }
+        if (statistics != null)
+        {
+            statistics.initialFetchCompleted(cacheDirectory, depth);
+        }
+        final File sharedObjectsDirectory = GitCacheDirectory.getSharedObjectsDirectory(cacheDirectory, substitutedAccessData);
+        if (sharedObjectsDirectory != null)
+        {
+            GitCacheDirectory.shareObjects(cacheDirectory, sharedObjectsDirectory);
+        }
+        GitCacheSnapshot.publish(cacheDirectory);
+    }
+
+    /**
+     * Change detection fetches shallow history to a new cache if it has no previous revision, and to a shallow cache
+     * which does not contain the previous revision - e.g. the cache another branch has created, which all branches
+     * share - as fetching in full would pull the whole history of the branch into it. The previous revision is then
+     * found by deepening. A cache which contains the previous revision is fetched in full, so the history between the
+     * previous and the new revision is complete.
+     */
+    private static boolean isShallowChangeDetection(@NotNull final File cacheDirectory, @NotNull final GitRepositoryAccessData substitutedAccessData,
+                                                    @Nullable final String lastVcsRevisionKey)
+    {
+        if (!USE_SHALLOW_CLONES || !substitutedAccessData.useShallowClones)
+        {
+            return false;
+        }
+        if (!cacheDirectory.isDirectory())
+        {
+            return lastVcsRevisionKey == null;
+        }
+        return GitOperationHelper.isShallow(cacheDirectory) && (lastVcsRevisionKey == null || !GitOperationHelper.containsRevision(cacheDirectory, lastVcsRevisionKey));
+    }
+
+    private void deepenCache(@NotNull final GitOperationHelper helper, @NotNull final File cacheDirectory,
+                             @NotNull final GitRepositoryAccessData substitutedAccessData, @NotNull final String revision) throws RepositoryException
+    {
+        final int depth = helper.deepenUntilContains(cacheDirectory, substitutedAccessData, revision);
+        if (depth != 0)
+        {
+            GitCacheSnapshot.publish(cacheDirectory);
+        }
+        if (depth != 0 && substitutedAccessData.automaticShallowClones)
+        {
+            GitShallowStatistics.load(cacheDirectory).deepeningCompleted(depth);
+        }
+    }
+
+    private String checkout(@NotNull final GitOperationHelper helper, @NotNull final BuildLogger buildLogger, @Nullable final File cacheDirectory,
+                            @NotNull final File sourceDirectory, @NotNull final String targetRevision, @Nullable final String previousRevision,
+                            @NotNull final GitRepositoryAccessData substitutedAccessData) throws RepositoryException
+    {
+        final String revision = helper.checkout(cacheDirectory, sourceDirectory, targetRevision, previousRevision);
+        updateModificationTimes(buildLogger, sourceDirectory, previousRevision == null, substitutedAccessData);
+        return revision;
+    }
+
+    /**
+     * Checkouts read the snapshot published by the last fetch, so they do not wait for the cache lock; they only keep
+     * the cache from being repaired or deleted meanwhile.
+     */
+    private String checkoutFromCache(@NotNull final GitOperationHelper helper, @NotNull final BuildLogger buildLogger, @NotNull final File cacheDirectory,
+                                     @NotNull final File sourceDirectory, @NotNull final String targetRevision, @Nullable final String previousRevision,
+                                     @NotNull final GitRepositoryAccessData substitutedAccessData) throws RepositoryException
+    {
+        final Lock readLock = GitCacheDirectory.getReaderLock(cacheDirectory).readLock();
+        readLock.lock();
+        try
+        {
+            return checkout(helper, buildLogger, cacheDirectory, sourceDirectory, targetRevision, previousRevision, substitutedAccessData);
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Must not be called with the reader lock of the cache held: submodules are fetched under the locks of their own
+     * caches, and the cache would not be repaired or deleted until all of them are fetched.
+     */
+    private void updateSubmodules(@NotNull final GitOperationHelper helper, @Nullable final File cacheDirectory, @NotNull final File sourceDirectory,
+                                  @NotNull final GitRepositoryAccessData substitutedAccessData) throws RepositoryException
+    {
+        if (substitutedAccessData.useSubmodules)
+        {
+            helper.updateSubmodules(cacheDirectory, sourceDirectory, substitutedAccessData);
+        }
+    }
+
+    @NotNull
+    private File getExportManifestFile(@NotNull final File sourceDirectory)
+    {
+        return GitOperationHelper.getExportManifestFile(buildDirectoryManager.getBaseBuildWorkingDirectory(), sourceDirectory);
+    }
+
+    /**
+     * Returns the revision of this repository which the plan's previous build has been built from, so the files
+     * changed since then can be listed whatever the source directory held before (e.g. nothing, when a job runs on
+     * this agent for the first time or copies a checkout snapshot).
+     */
+    @Nullable
+    private String getPreviousBuildRevision(@NotNull final BuildContext buildContext)
+    {
+        final BuildChanges buildChanges = buildContext.getBuildChanges();
+        final Map<Long, RepositoryDefinition> repositoryDefinitions = buildContext.getRepositoryDefinitionMap();
+        if (buildChanges == null || repositoryDefinitions == null)
+        {
+            return null;
+        }
+        for (Map.Entry<Long, RepositoryDefinition> entry : repositoryDefinitions.entrySet())
+        {
+            if (entry.getValue().getRepository() == this)
+            {
+                return buildChanges.getPreviousVcsRevisionKey(entry.getKey());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Files checked out from scratch which have the same content as after the previous checkout to this source
+     * directory get their previous modification times back, so incremental builds do not rebuild everything.
+     */
+    private void updateModificationTimes(@NotNull final BuildLogger buildLogger, @NotNull final File sourceDirectory, boolean checkedOutFromScratch,
+                                         @NotNull final GitRepositoryAccessData substitutedAccessData)
+    {
+        if (substitutedAccessData.preserveModificationTimes)
+        {
+            final File manifestFile = GitModificationTimes.getManifestFile(buildDirectoryManager.getBaseBuildWorkingDirectory(), sourceDirectory);
+            final int restored = GitModificationTimes.update(sourceDirectory, manifestFile, checkedOutFromScratch);
+            if (restored > 0)
+            {
+                buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.modificationTimesRestored", Arrays.asList(restored)));
+            }
+        }
+    }
+
     private void rethrowOrRemoveDirectory(final Exception originalException, final BuildLogger buildLogger, final File directory, final String key) throws Exception
+    {
+        rethrowIfNotBroken(originalException, buildLogger, directory);
+        buildLogger.addBuildLogEntry(textProvider.getText(key, Arrays.asList(directory)));
+        removeDirectory(originalException, directory);
+    }
+
+    /**
+     * Like {@link #rethrowOrRemoveDirectory}, but the cache is repaired if possible. It is deleted only as the last
+     * resort, as it would have to be fetched from scratch while other builds wait for its lock. A repair may not be
+     * enough (e.g. only a stale lock file has been removed), so callers which fail again with the repaired cache
+     * have to remove it with {@link #rethrowOrRemoveCache} and start from scratch.
+     *
+     * @return true if the cache has been repaired, false if it has been deleted
+     */
+    private boolean rethrowOrRepairCache(final Exception originalException, final BuildLogger buildLogger, final File cacheDirectory, final String key) throws Exception
+    {
+        rethrowIfNotBroken(originalException, buildLogger, cacheDirectory);
+        buildLogger.addBuildLogEntry(textProvider.getText(key, Arrays.asList(cacheDirectory)));
+        // repairing and deleting remove what checkouts outside the cache lock may be reading
+        final Lock writeLock = GitCacheDirectory.getReaderLock(cacheDirectory).writeLock();
+        writeLock.lock();
+        try
+        {
+            if (GitCacheRepair.repair(cacheDirectory, originalException))
+            {
+                buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.cacheRepaired", Arrays.asList(cacheDirectory)));
+                return true;
+            }
+            removeDirectory(originalException, cacheDirectory);
+            return false;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    private void rethrowOrRemoveCache(final Exception originalException, final BuildLogger buildLogger, final File cacheDirectory, final String key) throws Exception
+    {
+        rethrowIfNotBroken(originalException, buildLogger, cacheDirectory);
+        buildLogger.addBuildLogEntry(textProvider.getText(key, Arrays.asList(cacheDirectory)));
+        final Lock writeLock = GitCacheDirectory.getReaderLock(cacheDirectory).writeLock();
+        writeLock.lock();
+        try
+        {
+            removeDirectory(originalException, cacheDirectory);
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    private void rethrowIfNotBroken(final Exception originalException, final BuildLogger buildLogger, final File directory) throws Exception
     {
         Throwable e = originalException;
         do
@@ -627,15 +1129,32 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
             {
                 throw originalException;
             }
+            if (e instanceof GitCancelledException)
+            {
+                // the build has been stopped, the directory is not broken - just make it usable for the next build
+                final int removedFiles = GitCacheDirectory.cleanUpAfterInterruptedOperation(directory);
+                buildLogger.addBuildLogEntry(textProvider.getText("repository.git.messages.cleanedAfterCancel", Arrays.asList(directory, removedFiles)));
+                throw originalException;
+            }
             e = e.getCause();
         } while (e!=null);
+    }
 
-        buildLogger.addBuildLogEntry(textProvider.getText(key, Arrays.asList(directory)));
-        log.warn("Deleting directory " + directory, e);
+    private void removeDirectory(final Exception originalException, final File directory)
+    {
+        log.warn("Deleting directory " + directory, originalException);
 
         // This section does not really work on Windows (files open by antivirus software or leaked by jgit - and it does leak handles - will remain on the harddrive),
         // so it should be entered if we know that the cache has to be blown away
-        FileUtils.deleteQuietly(directory);
+        try
+        {
+            // renamed away at once, the directory is refetched while the old contents are deleted in the background
+            GitTrash.delete(buildDirectoryManager.getBaseBuildWorkingDirectory(), directory);
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to delete " + directory, e);
+        }
 
         final String[] filesInDirectory = directory.list();
         if (filesInDirectory !=null)
@@ -651,6 +1170,16 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         return accessData.useShallowClones;
     }
 
+    public int getShallowDepth()
+    {
+        return accessData.shallowDepth;
+    }
+
+    public boolean isAutomaticShallowClones()
+    {
+        return accessData.automaticShallowClones;
+    }
+
     public boolean isUseSubmodules()
     {
         return accessData.useSubmodules;
@@ -671,6 +1200,31 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         return accessData.commandTimeout;
     }
 
+    public String getEngineSelectionName()
+    {
+        return getEngineSelectionName(accessData.engineSelection.name());
+    }
+
+    public String getObjectPool()
+    {
+        return accessData.objectPool;
+    }
+
+    public boolean isPoolRelatedRepositories()
+    {
+        return accessData.poolRelatedRepositories;
+    }
+
+    public boolean isExportOnly()
+    {
+        return accessData.exportOnly;
+    }
+
+    public boolean isPreserveModificationTimes()
+    {
+        return accessData.preserveModificationTimes;
+    }
+
     public boolean getVerboseLogs()
     {
         return accessData.verboseLogs;
@@ -686,6 +1240,11 @@ public class GitRepository extends AbstractStandaloneRepository implements Maven
         return GitCacheDirectory.getCacheDirectory(buildDirectoryManager.getBaseBuildWorkingDirectory(), getSubstitutedAccessData());
     }
 
+    public File getBundleFile()
+    {
+        return GitCacheDirectory.getBundleFile(GitCacheDirectory.getBundlesDirectory(buildDirectoryManager.getBaseBuildWorkingDirectory()), getSubstitutedAccessData());
+    }
+
     @Override
     public synchronized void setTextProvider(TextProvider textProvider) {
         super.setTextProvider(textProvider);
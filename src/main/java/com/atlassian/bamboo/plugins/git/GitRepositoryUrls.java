@@ -0,0 +1,110 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Canonical form of repository URLs, so all the ways of writing the URL of one repository identify it the same way -
+ * in caches and in push notifications.
+ */
+class GitRepositoryUrls
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final Map<String, String> DEFAULT_PORTS = new HashMap<String, String>();
+    static
+    {
+        DEFAULT_PORTS.put("ssh", "22");
+        DEFAULT_PORTS.put("git", "9418");
+        DEFAULT_PORTS.put("http", "80");
+        DEFAULT_PORTS.put("https", "443");
+    }
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitRepositoryUrls()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Reduces repository URL to host and path, so http(s), ssh and scp-like forms of the same URL match. User info,
+     * default ports, trailing slashes and the .git suffix are dropped, and the host is lower cased.
+     */
+    @NotNull
+    static String canonicalUrl(@NotNull final String repositoryUrl)
+    {
+        String url = StringUtils.trim(repositoryUrl);
+        String scheme = "ssh";
+        final int schemeEnd = url.indexOf("://");
+        if (schemeEnd != -1)
+        {
+            scheme = url.substring(0, schemeEnd).toLowerCase();
+            url = url.substring(schemeEnd + 3);
+        }
+        else if (isScpLike(url))
+        {
+            url = url.replaceFirst(":", "/"); // scp-like syntax: [user@]host:path
+        }
+        final int userInfoEnd = url.indexOf('@');
+        if (userInfoEnd != -1 && (url.indexOf('/') == -1 || userInfoEnd < url.indexOf('/')))
+        {
+            url = url.substring(userInfoEnd + 1);
+        }
+
+        String host = StringUtils.substringBefore(url, "/");
+        String path = url.substring(host.length()).replaceAll("/{2,}", "/");
+        while (path.endsWith("/") || path.endsWith(Constants.DOT_GIT_EXT))
+        {
+            path = StringUtils.removeEnd(StringUtils.removeEnd(path, "/"), Constants.DOT_GIT_EXT);
+        }
+        final String defaultPort = DEFAULT_PORTS.get(scheme);
+        if (defaultPort != null)
+        {
+            host = StringUtils.removeEnd(host, ":" + defaultPort);
+        }
+        return host.toLowerCase() + path;
+    }
+
+    /**
+     * @return user given in the repository URL, null if there is none
+     */
+    @Nullable
+    static String getUrlUser(@NotNull final String repositoryUrl)
+    {
+        final String url = StringUtils.trim(repositoryUrl);
+        final String authority;
+        final int schemeEnd = url.indexOf("://");
+        if (schemeEnd != -1)
+        {
+            authority = StringUtils.substringBefore(url.substring(schemeEnd + 3), "/");
+        }
+        else if (isScpLike(url))
+        {
+            authority = StringUtils.substringBefore(url, ":");
+        }
+        else
+        {
+            return null;
+        }
+        return authority.contains("@") ? StringUtils.substringBefore(StringUtils.substringBeforeLast(authority, "@"), ":") : null;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static boolean isScpLike(@NotNull final String url)
+    {
+        final int colon = url.indexOf(':');
+        if (colon == 1 && Character.isLetter(url.charAt(0)))
+        {
+            return false; // windows path, e.g. C:\repositories\repo
+        }
+        return colon > 0 && (url.indexOf('/') == -1 || colon < url.indexOf('/'));
+    }
+}
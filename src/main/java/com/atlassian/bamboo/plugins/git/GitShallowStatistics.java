@@ -0,0 +1,182 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.Constants;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * What a cached repository has actually needed: how deep its history had to be for change detection and checkouts,
+ * and how big it was when fetched shallow and in full. Used to choose the depth of the initial fetch automatically.
+ * Kept next to the cache directory, so it survives removal of the cache.
+ */
+class GitShallowStatistics
+{
+    private static final Logger log = Logger.getLogger(GitShallowStatistics.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String FILE_SUFFIX = ".stats";
+    private static final String REQUIRED_DEPTH = "requiredDepth";
+    private static final String NEEDS_FULL_HISTORY = "needsFullHistory";
+    private static final String SHALLOW_SIZE = "shallowSize";
+    private static final String FULL_SIZE = "fullSize";
+
+    /**
+     * A full fetch is preferred when it is at most this many times bigger than a shallow one.
+     */
+    private static final int FULL_FETCH_SIZE_RATIO = 2;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final File file;
+    private int requiredDepth;
+    private boolean needsFullHistory;
+    private long shallowSize;
+    private long fullSize;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitShallowStatistics(@NotNull final File file)
+    {
+        this.file = file;
+    }
+
+    @NotNull
+    static GitShallowStatistics load(@NotNull final File cacheDirectory)
+    {
+        final GitShallowStatistics statistics = new GitShallowStatistics(new File(cacheDirectory.getParentFile(), cacheDirectory.getName() + FILE_SUFFIX));
+        if (statistics.file.isFile())
+        {
+            final Properties properties = new Properties();
+            InputStream input = null;
+            try
+            {
+                input = new FileInputStream(statistics.file);
+                properties.load(input);
+                statistics.requiredDepth = Integer.parseInt(properties.getProperty(REQUIRED_DEPTH, "0"));
+                statistics.needsFullHistory = Boolean.parseBoolean(properties.getProperty(NEEDS_FULL_HISTORY));
+                statistics.shallowSize = Long.parseLong(properties.getProperty(SHALLOW_SIZE, "0"));
+                statistics.fullSize = Long.parseLong(properties.getProperty(FULL_SIZE, "0"));
+            }
+            catch (Exception e)
+            {
+                log.warn("Ignoring unreadable statistics " + statistics.file, e);
+            }
+            finally
+            {
+                IOUtils.closeQuietly(input);
+            }
+        }
+        return statistics;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @param configuredDepth depth configured for the repository
+     * @return depth of the initial fetch, 0 for a full fetch
+     */
+    int chooseInitialDepth(int configuredDepth)
+    {
+        if (needsFullHistory)
+        {
+            return 0;
+        }
+        if (fullSize > 0 && shallowSize > 0 && fullSize <= FULL_FETCH_SIZE_RATIO * shallowSize)
+        {
+            // shallow history saves too little to be worth deepening it later
+            return 0;
+        }
+        return Math.max(configuredDepth, requiredDepth);
+    }
+
+    /**
+     * Records the size of the repository right after it has been fetched for the first time.
+     */
+    void initialFetchCompleted(@NotNull final File directory, int depth)
+    {
+        final long size = FileUtils.sizeOfDirectory(new File(new File(directory, Constants.DOT_GIT), "objects"));
+        if (depth > 0)
+        {
+            shallowSize = size;
+        }
+        else
+        {
+            fullSize = size;
+        }
+        save();
+    }
+
+    /**
+     * @param depth depth of the history which had to be fetched to find a revision, or -1 if it has not been found
+     */
+    void deepeningCompleted(int depth)
+    {
+        if (depth < 0)
+        {
+            needsFullHistory = true;
+        }
+        else if (depth > requiredDepth)
+        {
+            requiredDepth = depth;
+        }
+        else
+        {
+            return;
+        }
+        save();
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private void save()
+    {
+        final Properties properties = new Properties();
+        properties.setProperty(REQUIRED_DEPTH, String.valueOf(requiredDepth));
+        properties.setProperty(NEEDS_FULL_HISTORY, String.valueOf(needsFullHistory));
+        properties.setProperty(SHALLOW_SIZE, String.valueOf(shallowSize));
+        properties.setProperty(FULL_SIZE, String.valueOf(fullSize));
+
+        final File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        OutputStream output = null;
+        try
+        {
+            FileUtils.forceMkdir(file.getParentFile());
+            output = new FileOutputStream(temporaryFile);
+            properties.store(output, null);
+            output.close();
+            output = null;
+            GitFiles.replaceFile(temporaryFile, file);
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to save statistics " + file, e);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(output);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    int getRequiredDepth()
+    {
+        return requiredDepth;
+    }
+
+    boolean isNeedsFullHistory()
+    {
+        return needsFullHistory;
+    }
+}
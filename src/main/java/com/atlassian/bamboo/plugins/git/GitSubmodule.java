@@ -0,0 +1,196 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.BlobBasedConfig;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Submodule of a checked out revision, as declared in its .gitmodules file and recorded in its tree.
+ */
+class GitSubmodule
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    static final String GIT_MODULES = ".gitmodules";
+
+    private static final String SUBMODULE_SECTION = "submodule";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final String name;
+    private final String path;
+    private final String url;
+    private final String revision;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    GitSubmodule(@NotNull final String name, @NotNull final String path, @NotNull final String url, @NotNull final String revision)
+    {
+        this.name = name;
+        this.path = path;
+        this.url = url;
+        this.revision = revision;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Reads the submodules of the revision. Submodules which are declared but have no gitlink in the tree (e.g. they
+     * have been removed without updating .gitmodules) are skipped.
+     *
+     * @param parentUrl url of the repository, relative submodule urls are resolved against it
+     */
+    @NotNull
+    static List<GitSubmodule> readSubmodules(@NotNull final Repository repository, @NotNull final String revision, @NotNull final String parentUrl)
+            throws IOException
+    {
+        final List<GitSubmodule> submodules = new ArrayList<GitSubmodule>();
+        final RevWalk revWalk = new RevWalk(repository);
+        try
+        {
+            final RevCommit commit = revWalk.parseCommit(repository.resolve(revision));
+            final ObjectId modulesId = findEntry(repository, commit, GIT_MODULES, FileMode.REGULAR_FILE);
+            if (modulesId == null)
+            {
+                return submodules;
+            }
+
+            final BlobBasedConfig modules;
+            try
+            {
+                modules = new BlobBasedConfig(null, repository, modulesId);
+            }
+            catch (ConfigInvalidException e)
+            {
+                throw new IOException("Invalid " + GIT_MODULES + " in revision " + revision + ": " + e.getMessage());
+            }
+
+            for (String name : modules.getSubsections(SUBMODULE_SECTION))
+            {
+                final String path = modules.getString(SUBMODULE_SECTION, name, "path");
+                final String url = modules.getString(SUBMODULE_SECTION, name, "url");
+                if (StringUtils.isBlank(path) || StringUtils.isBlank(url))
+                {
+                    continue;
+                }
+                final ObjectId submoduleRevision = findEntry(repository, commit, path, FileMode.GITLINK);
+                if (submoduleRevision != null)
+                {
+                    submodules.add(new GitSubmodule(name, path, resolveUrl(parentUrl, url), submoduleRevision.getName()));
+                }
+            }
+            return submodules;
+        }
+        finally
+        {
+            revWalk.release();
+        }
+    }
+
+    /**
+     * Resolves urls relative to the parent repository ("./lib.git", "../lib.git") the way git does; other urls are
+     * returned unchanged.
+     */
+    @NotNull
+    static String resolveUrl(@NotNull final String parentUrl, @NotNull final String url)
+    {
+        if (!url.startsWith("./") && !url.startsWith("../"))
+        {
+            return url;
+        }
+        String base = StringUtils.removeEnd(parentUrl, "/");
+        String relative = url;
+        char separator = '/';
+        while (true)
+        {
+            if (relative.startsWith("./"))
+            {
+                relative = relative.substring(2);
+            }
+            else if (relative.startsWith("../"))
+            {
+                relative = relative.substring(3);
+                final int slash = base.lastIndexOf('/');
+                final int colon = base.lastIndexOf(':');
+                if (colon > slash && !base.contains("://"))
+                {
+                    // scp-like url, e.g. git@host:project.git
+                    base = base.substring(0, colon);
+                    separator = ':';
+                }
+                else if (slash >= 0)
+                {
+                    base = base.substring(0, slash);
+                    separator = '/';
+                }
+            }
+            else
+            {
+                return base + separator + relative;
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static ObjectId findEntry(@NotNull final Repository repository, @NotNull final RevCommit commit,
+                                      @NotNull final String path, @NotNull final FileMode fileMode) throws IOException
+    {
+        final TreeWalk treeWalk = TreeWalk.forPath(repository, StringUtils.removeEnd(path, "/"), commit.getTree());
+        if (treeWalk == null)
+        {
+            return null;
+        }
+        try
+        {
+            return treeWalk.getFileMode(0) == fileMode ? treeWalk.getObjectId(0) : null;
+        }
+        finally
+        {
+            treeWalk.release();
+        }
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    @NotNull
+    String getName()
+    {
+        return name;
+    }
+
+    @NotNull
+    String getPath()
+    {
+        return path;
+    }
+
+    @NotNull
+    String getUrl()
+    {
+        return url;
+    }
+
+    @NotNull
+    String getRevision()
+    {
+        return revision;
+    }
+
+    @Override
+    public String toString()
+    {
+        return path + " (" + url + ")";
+    }
+}
@@ -0,0 +1,153 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.utils.SystemProperty;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.Constants;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes directories without making the caller wait: a directory is renamed to the trash, which frees its path at
+ * once, and is then deleted in the background, its parts in parallel. Whatever is left in the trash (e.g. after a
+ * restart) is deleted the next time something is put there.
+ * <p/>
+ * There is one trash, in the base build working directory, so directories being deleted never show up inside a job's
+ * working directory (e.g. when a repository checked out to a subdirectory of it is removed), where builds, artifact
+ * patterns or the checkouts of other repositories would see them.
+ */
+class GitTrash
+{
+    private static final Logger log = Logger.getLogger(GitTrash.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    static final String TRASH_DIRECTORY = "_git-trash";
+
+    private static final int DELETE_THREADS = new SystemProperty(false, "atlassian.bamboo.git.trash.threads",
+            "ATLASSIAN_BAMBOO_GIT_TRASH_THREADS").getValue(4);
+
+    private static final ExecutorService executor = GitConcurrency.newDaemonExecutor(DELETE_THREADS, "GitTrash-%d");
+
+    private static final Set<File> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private static final AtomicLong trashedCount = new AtomicLong();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private GitTrash()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Moves the directory to the trash in the working directory and deletes it in the background. If it cannot be
+     * moved (e.g. files in it are open on Windows, or it is on another file system), it is deleted right away.
+     */
+    static void delete(@NotNull final File workingDirectory, @NotNull final File directory) throws IOException
+    {
+        if (!directory.exists())
+        {
+            return;
+        }
+        final File trashDirectory = getTrashDirectory(workingDirectory);
+        final File trashed = new File(trashDirectory, directory.getName() + "-" + System.currentTimeMillis() + "-" + trashedCount.incrementAndGet());
+        if (!trashDirectory.isDirectory() && !trashDirectory.mkdirs() || !directory.renameTo(trashed))
+        {
+            log.info("Unable to move " + directory + " to the trash, deleting it right away");
+            FileUtils.forceDelete(directory);
+            return;
+        }
+        emptyTrash(trashDirectory);
+    }
+
+    @NotNull
+    static File getTrashDirectory(@NotNull final File workingDirectory)
+    {
+        return new File(workingDirectory, TRASH_DIRECTORY);
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static void emptyTrash(@NotNull final File trashDirectory)
+    {
+        final File[] trashedDirectories = trashDirectory.listFiles();
+        for (File trashed : trashedDirectories != null ? trashedDirectories : new File[0])
+        {
+            if (scheduled.add(trashed))
+            {
+                deleteInParallel(trashed);
+            }
+        }
+    }
+
+    /**
+     * The top level entries and the object directories of a git repository are deleted by separate tasks, the
+     * remaining empty directories by the last one to finish.
+     */
+    private static void deleteInParallel(@NotNull final File trashed)
+    {
+        final List<File> parts = new ArrayList<File>();
+        addParts(trashed, parts);
+        final AtomicInteger remaining = new AtomicInteger(parts.size() + 1);
+        final Runnable finish = new Runnable()
+        {
+            public void run()
+            {
+                if (remaining.decrementAndGet() == 0)
+                {
+                    FileUtils.deleteQuietly(trashed);
+                    if (trashed.exists())
+                    {
+                        log.warn("Unable to delete " + trashed + " from the trash");
+                    }
+                    scheduled.remove(trashed);
+                }
+            }
+        };
+        for (final File part : parts)
+        {
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        FileUtils.deleteQuietly(part);
+                    }
+                    finally
+                    {
+                        finish.run();
+                    }
+                }
+            });
+        }
+        executor.execute(finish);
+    }
+
+    private static void addParts(@NotNull final File directory, @NotNull final List<File> parts)
+    {
+        final File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0])
+        {
+            if (file.isDirectory() && (file.getName().equals(Constants.DOT_GIT) || file.getName().equals("objects")))
+            {
+                addParts(file, parts);
+            }
+            else
+            {
+                parts.add(file);
+            }
+        }
+    }
+}
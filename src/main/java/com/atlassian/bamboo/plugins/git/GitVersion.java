@@ -0,0 +1,93 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Version of a git executable as reported by {@code git version}, together with the command line options it is known
+ * to support.
+ */
+class GitVersion implements Serializable
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final Pattern versionNumberPattern = Pattern.compile("^(\\d+)(?:\\.(\\d+))?(?:\\.(\\d+))?");
+
+    /**
+     * Options which are used only if the executable supports them.
+     */
+    enum Feature
+    {
+        /** {@code git fetch --progress} */
+        FETCH_PROGRESS(1, 7, 1),
+        /** {@code git submodule update --recursive} */
+        SUBMODULE_RECURSIVE(1, 6, 5);
+
+        private final int[] minimalVersion;
+
+        Feature(int... minimalVersion)
+        {
+            this.minimalVersion = minimalVersion;
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final String version;
+    private final int[] versionNumbers;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    GitVersion(@NotNull final String version)
+    {
+        this.version = version;
+        this.versionNumbers = new int[3];
+
+        final Matcher matcher = versionNumberPattern.matcher(version);
+        if (matcher.find())
+        {
+            for (int i = 0; i < versionNumbers.length; i++)
+            {
+                final String number = matcher.group(i + 1);
+                versionNumbers[i] = number != null ? Integer.parseInt(number) : 0;
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    boolean supports(@NotNull final Feature feature)
+    {
+        return isAtLeast(feature.minimalVersion);
+    }
+
+    boolean isAtLeast(int... minimalVersion)
+    {
+        for (int i = 0; i < minimalVersion.length; i++)
+        {
+            final int number = i < versionNumbers.length ? versionNumbers[i] : 0;
+            if (number != minimalVersion[i])
+            {
+                return number > minimalVersion[i];
+            }
+        }
+        return true;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    @NotNull
+    String getVersion()
+    {
+        return version;
+    }
+
+    @Override
+    public String toString()
+    {
+        return version;
+    }
+}
@@ -1,7 +1,6 @@
 package com.atlassian.bamboo.plugins.git;
 
 
-import com.atlassian.bamboo.build.CommandLogEntry;
 import com.atlassian.bamboo.build.logger.BuildLogger;
 import com.atlassian.bamboo.repository.RepositoryException;
 import com.opensymphony.xwork.TextProvider;
@@ -24,6 +23,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 public class JGitOperationHelper extends GitOperationHelper
 {
@@ -42,24 +42,46 @@ public class JGitOperationHelper extends GitOperationHelper
 
     // ----------------------------------------------------------------------------------------------- Interface Methods
 
+    @NotNull
     @Override
-    protected void doFetch(@NotNull final Transport transport, @NotNull final File sourceDirectory, @NotNull final GitRepository.GitRepositoryAccessData accessData, final RefSpec refSpec, final boolean useShallow) throws RepositoryException
+    JGitOperationHelper createConcurrentHelper()
+    {
+        return this;
+    }
+
+    @Override
+    protected void doFetch(@NotNull final Transport transport, @NotNull final File sourceDirectory, @NotNull final GitRepository.GitRepositoryAccessData accessData, final RefSpec refSpec, final int depth, @NotNull final GitProgressWatchdog watchdog) throws RepositoryException
     {
         String branchDescription = "(unresolved) " + accessData.branch;
         try
         {
             transport.setTagOpt(TagOpt.AUTO_FOLLOW);
+            // a read blocked for the whole stall window fails with a timeout
+            final int stallTimeout = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(watchdog.getStallTimeout()));
+            if (transport.getTimeout() <= 0 || transport.getTimeout() > stallTimeout)
+            {
+                transport.setTimeout(stallTimeout);
+            }
+            watchdog.start(new Runnable()
+            {
+                public void run()
+                {
+                    transport.close();
+                }
+            });
 
-            FetchResult fetchResult = transport.fetch(new BuildLoggerProgressMonitor(buildLogger), Arrays.asList(refSpec), useShallow ? 1 : 0);
+            FetchResult fetchResult = transport.fetch(new BuildLoggerProgressMonitor(buildLogger, watchdog), Arrays.asList(refSpec), depth);
             buildLogger.addBuildLogEntry("Git: " + fetchResult.getMessages());
         }
         catch (IOException e)
         {
+            watchdog.checkTimeout(e);
             String message = textProvider.getText("repository.git.messages.fetchingFailed", Arrays.asList(accessData.repositoryUrl, branchDescription, sourceDirectory));
             throw new RepositoryException(buildLogger.addErrorLogEntry(message + " " + e.getMessage()), e);
         }
         finally
         {
+            watchdog.stop();
             if (transport != null)
             {
                 transport.close();
@@ -68,13 +90,8 @@ public class JGitOperationHelper extends GitOperationHelper
     }
 
     @Override
-    protected String doCheckout(@NotNull final FileRepository localRepository, @NotNull final File sourceDirectory, @NotNull final String targetRevision, @Nullable final String previousRevision, final boolean useSubmodules) throws RepositoryException
+    protected String doCheckout(@NotNull final FileRepository localRepository, @NotNull final File sourceDirectory, @NotNull final String targetRevision, @Nullable final String previousRevision) throws RepositoryException
     {
-        if (useSubmodules)
-        {
-            buildLogger.addBuildLogEntry(new CommandLogEntry(textProvider.getText("repository.git.messages.jgit.submodules.not.supported")));
-        }
-
         RevWalk revWalk = null;
         DirCache dirCache = null;
         try
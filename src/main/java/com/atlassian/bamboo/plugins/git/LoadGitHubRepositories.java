@@ -5,7 +5,6 @@ import com.atlassian.bamboo.repository.RepositoryData;
 import com.atlassian.bamboo.repository.RepositoryDataEntity;
 import com.atlassian.bamboo.repository.RepositoryDataImpl;
 import com.atlassian.bamboo.repository.RepositoryDefinitionManager;
-import com.atlassian.bamboo.rest.util.Get;
 import com.atlassian.bamboo.security.StringEncrypter;
 import com.atlassian.bamboo.util.Narrow;
 import com.atlassian.bamboo.utils.SystemProperty;
@@ -14,7 +13,6 @@ import com.atlassian.bamboo.ww2.aware.permissions.PlanEditSecurityAware;
 import com.opensymphony.webwork.dispatcher.json.JSONArray;
 import com.opensymphony.webwork.dispatcher.json.JSONException;
 import com.opensymphony.webwork.dispatcher.json.JSONObject;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -22,10 +20,15 @@ import org.jetbrains.annotations.NotNull;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class LoadGitHubRepositories extends PlanActionSupport implements PlanEditSecurityAware
 {
@@ -36,12 +39,16 @@ public class LoadGitHubRepositories extends PlanActionSupport implements PlanEdi
 
     private static final String GITHUB_API_BASE_URL = new SystemProperty(false, "atlassian.bamboo.github.api.base.url",
             "ATLASSIAN_BAMBOO_GITHUB_API_BASE_URL").getValue("http://github.com/api/v2/json/");
+    private static final long BRANCH_LOADING_TIME_BUDGET = TimeUnit.SECONDS.toMillis(new SystemProperty(false, "atlassian.bamboo.github.branches.timeBudget",
+            "ATLASSIAN_BAMBOO_GITHUB_BRANCHES_TIME_BUDGET").getValue(10));
 
     // ------------------------------------------------------------------------------------------------- Type Properties
     private String username;
     private String password;
     private long repositoryId;
     private GitHubRepository githubRepository;
+    private GitHubApiClient gitHubApiClient;
+    private final List<String> pendingRepositories = new ArrayList<String>();
     // ---------------------------------------------------------------------------------------------------- Dependencies
     private RepositoryDefinitionManager repositoryDefinitionManager;
 
@@ -130,6 +137,7 @@ public class LoadGitHubRepositories extends PlanActionSupport implements PlanEdi
         }
         jsonObject.put("repositoryBranchFilter", new JSONObject().put("data", data));
         jsonObject.put("gitHubRepositories", gitHubRepositories);
+        jsonObject.put("pendingRepositories", pendingRepositories);
 
         return jsonObject;
     }
@@ -137,26 +145,19 @@ public class LoadGitHubRepositories extends PlanActionSupport implements PlanEdi
     // -------------------------------------------------------------------------------------------------- Public Methods
     // -------------------------------------------------------------------------------------------------- Private Helper
 
-    private JSONObject getJSONResponseFromUrl(String url) throws Exception
+    private JSONObject getJSONResponseFromUrl(String path) throws Exception
     {
-        Get call = new Get(url);
-        call.setBasicCredentials(username, password);
-        try
+        if (gitHubApiClient == null)
         {
-            call.execute();
-            return new JSONObject(IOUtils.toString(call.getResponseAsStream()));
-        }
-        finally
-        {
-            call.release();
+            gitHubApiClient = new GitHubApiClient(GITHUB_API_BASE_URL, username, password);
         }
+        return gitHubApiClient.getJsonObject(path);
     }
 
     @NotNull
-    private List<String> getRepositoryBranches(String repository) throws Exception
+    private static List<String> getRepositoryBranches(@NotNull final JSONObject json) throws Exception
     {
         final List<String> repositoryBranches = new ArrayList<String>();
-        final JSONObject json = getJSONResponseFromUrl(GITHUB_API_BASE_URL + "repos/show/" + repository + "/branches");
         final JSONObject branches = json.getJSONObject("branches");
         if (branches != null)
         {
@@ -169,12 +170,15 @@ public class LoadGitHubRepositories extends PlanActionSupport implements PlanEdi
         return repositoryBranches;
     }
 
-    private void addRepositoriesFromJson(@NotNull final Map<String, List<String>> repositories, @NotNull final JSONObject json) throws Exception
+    private void addRepositoriesFromJson(@NotNull final Map<String, Future<JSONObject>> repositories, @NotNull final JSONObject json) throws Exception
     {
         addRepositoriesFromJson(repositories, json, false);
     }
 
-    private void addRepositoriesFromJson(@NotNull final Map<String, List<String>> repositories, @NotNull final JSONObject json, boolean skipPublic) throws Exception
+    /**
+     * Schedules branch lookups of the listed repositories, so they are run concurrently.
+     */
+    private void addRepositoriesFromJson(@NotNull final Map<String, Future<JSONObject>> repositories, @NotNull final JSONObject json, boolean skipPublic) throws Exception
     {
         final JSONArray jsonRepositories = json.getJSONArray("repositories");
         for (int index = 0; index < jsonRepositories.length(); index++)
@@ -187,18 +191,52 @@ public class LoadGitHubRepositories extends PlanActionSupport implements PlanEdi
             final String owner = jsonRepository.getString("owner");
             final String name = jsonRepository.getString("name");
             final String repository = owner + "/" + name;
-            repositories.put(repository, getRepositoryBranches(repository));
+            if (!repositories.containsKey(repository))
+            {
+                repositories.put(repository, gitHubApiClient.getJsonObjectAsync("repos/show/" + repository + "/branches"));
+            }
         }
     }
 
+    /**
+     * Waits for branch lookups no longer than the time budget. Repositories whose branches are still being loaded are
+     * returned with no branches and listed as pending - the lookups keep running and the client asks again.
+     */
     @NotNull
-    private Map<String, List<String>> getGitHubRepositores() throws Exception
+    private Map<String, List<String>> collectRepositoryBranches(@NotNull final Map<String, Future<JSONObject>> repositories) throws Exception
     {
         final Map<String, List<String>> githubRepositories = new LinkedHashMap<String, List<String>>();
+        final long deadline = System.currentTimeMillis() + BRANCH_LOADING_TIME_BUDGET;
+        for (Map.Entry<String, Future<JSONObject>> entry : repositories.entrySet())
+        {
+            final String repository = entry.getKey();
+            try
+            {
+                final long timeout = Math.max(0, deadline - System.currentTimeMillis());
+                githubRepositories.put(repository, getRepositoryBranches(entry.getValue().get(timeout, TimeUnit.MILLISECONDS)));
+            }
+            catch (TimeoutException e)
+            {
+                githubRepositories.put(repository, Collections.<String>emptyList());
+                pendingRepositories.add(repository);
+            }
+            catch (ExecutionException e)
+            {
+                log.warn("Could not load branches of GitHub repository " + repository + ".", e.getCause());
+                githubRepositories.put(repository, Collections.<String>emptyList());
+            }
+        }
+        return githubRepositories;
+    }
+
+    @NotNull
+    private Map<String, List<String>> getGitHubRepositores() throws Exception
+    {
+        final Map<String, Future<JSONObject>> repositories = new LinkedHashMap<String, Future<JSONObject>>();
 
         if (StringUtils.isNotBlank(password))
         {
-            final JSONObject json = getJSONResponseFromUrl(GITHUB_API_BASE_URL + "repos/pushable");
+            final JSONObject json = getJSONResponseFromUrl("repos/pushable");
             if (json.has("error") && json.getString("error").equals("not authorized"))
             {
                 if (getPlan() != null)
@@ -209,11 +247,11 @@ public class LoadGitHubRepositories extends PlanActionSupport implements PlanEdi
                 {
                     addFieldError("temporary.password", getText("repository.github.error.notAuthorized"));
                 }
-                return githubRepositories;
+                return collectRepositoryBranches(repositories);
             }
-            addRepositoriesFromJson(githubRepositories, json);
+            addRepositoriesFromJson(repositories, json);
 
-            JSONObject organizationJson = getJSONResponseFromUrl(GITHUB_API_BASE_URL + "organizations/repositories?owned=1");
+            JSONObject organizationJson = getJSONResponseFromUrl("organizations/repositories?owned=1");
             if (organizationJson.has("error") && organizationJson.getString("error").equals("not authorized"))
             {
                 if (getPlan() != null)
@@ -224,17 +262,18 @@ public class LoadGitHubRepositories extends PlanActionSupport implements PlanEdi
                 {
                     addFieldError("temporary.password", getText("repository.github.error.notAuthorized"));
                 }
-                return githubRepositories;
+                return collectRepositoryBranches(repositories);
             }
-            addRepositoriesFromJson(githubRepositories, organizationJson, true);
+            addRepositoriesFromJson(repositories, organizationJson, true);
 
-            organizationJson = getJSONResponseFromUrl(GITHUB_API_BASE_URL + "organizations/repositories");
-            addRepositoriesFromJson(githubRepositories, organizationJson);
+            organizationJson = getJSONResponseFromUrl("organizations/repositories");
+            addRepositoriesFromJson(repositories, organizationJson);
         }
 
-        final JSONObject json = getJSONResponseFromUrl(GITHUB_API_BASE_URL + "repos/show/" + username);
-        addRepositoriesFromJson(githubRepositories, json);
+        final JSONObject json = getJSONResponseFromUrl("repos/show/" + username);
+        addRepositoriesFromJson(repositories, json);
 
+        final Map<String, List<String>> githubRepositories = collectRepositoryBranches(repositories);
         if (githubRepositories.isEmpty())
         {
             addFieldError("username", getText("repository.bitbucket.error.noRepositories", Arrays.asList(username)));
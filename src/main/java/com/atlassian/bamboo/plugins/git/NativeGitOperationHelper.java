@@ -9,6 +9,10 @@ import com.atlassian.config.HomeLocator;
 import com.opensymphony.xwork.TextProvider;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileRepository;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.Transport;
@@ -20,6 +24,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Map;
 
 public class NativeGitOperationHelper extends GitOperationHelper
 {
@@ -29,6 +35,7 @@ public class NativeGitOperationHelper extends GitOperationHelper
     // ------------------------------------------------------------------------------------------------- Type Properties
     protected SshProxyService sshProxyService;
     protected GitCommandProcessor gitCommandProcessor;
+    protected File workingDirectory;
     // ---------------------------------------------------------------------------------------------------- Dependencies
     // ---------------------------------------------------------------------------------------------------- Constructors
 
@@ -40,20 +47,31 @@ public class NativeGitOperationHelper extends GitOperationHelper
     {
         super(buildLogger, textProvider);
         this.sshProxyService = sshProxyService;
+        this.workingDirectory = repository.getWorkingDirectory();
         this.gitCommandProcessor = new GitCommandProcessor(repository.getGitCapability(), buildLogger, accessData.commandTimeout, accessData.verboseLogs);
         this.gitCommandProcessor.checkGitExistenceInSystem(repository.getWorkingDirectory());
         this.gitCommandProcessor.setSshCommand(repository.getSshCapability());
+        this.gitCommandProcessor.setCancellationSignal(cancellationSignal);
+    }
+
+    private NativeGitOperationHelper(final @NotNull NativeGitOperationHelper helper)
+    {
+        super(helper.buildLogger, helper.textProvider);
+        this.sshProxyService = helper.sshProxyService;
+        this.workingDirectory = helper.workingDirectory;
+        this.gitCommandProcessor = helper.gitCommandProcessor.copy();
+        setCancellationSignal(helper.cancellationSignal);
     }
 
     // ----------------------------------------------------------------------------------------------- Interface Methods
 
     @Override
-    protected void doFetch(@NotNull final Transport transport, @NotNull final File sourceDirectory, @NotNull final GitRepository.GitRepositoryAccessData accessData, final RefSpec refSpec, final boolean useShallow) throws RepositoryException
+    protected void doFetch(@NotNull final Transport transport, @NotNull final File sourceDirectory, @NotNull final GitRepository.GitRepositoryAccessData accessData, final RefSpec refSpec, final int depth, @NotNull final GitProgressWatchdog watchdog) throws RepositoryException
     {
         final GitRepository.GitRepositoryAccessData proxiedAccessData = adjustRepositoryAccess(accessData);
         try
         {
-            gitCommandProcessor.runFetchCommand(sourceDirectory, proxiedAccessData, refSpec, useShallow);
+            gitCommandProcessor.runFetchCommand(sourceDirectory, proxiedAccessData, refSpec, depth, watchdog);
         }
         finally
         {
@@ -62,20 +80,107 @@ public class NativeGitOperationHelper extends GitOperationHelper
     }
 
     @Override
-    protected String doCheckout(@NotNull FileRepository localRepository, @NotNull final File sourceDirectory, @NotNull final String targetRevision, @Nullable final String previousRevision, final boolean useSubmodules) throws RepositoryException
+    protected String doCheckout(@NotNull FileRepository localRepository, @NotNull final File sourceDirectory, @NotNull final String targetRevision, @Nullable final String previousRevision) throws RepositoryException
     {
-        gitCommandProcessor.runCheckoutCommand(sourceDirectory, targetRevision);
-        if (useSubmodules)
+        try
+        {
+            // checking out a branch which points to the revision avoids a detached HEAD
+            final String branch = findBranchForRevision(localRepository, targetRevision);
+            gitCommandProcessor.runCheckoutCommand(sourceDirectory, branch != null ? branch : targetRevision);
+        }
+        finally
         {
-            gitCommandProcessor.runSubmoduleUpdateCommand(sourceDirectory);
+            localRepository.close();
         }
         return targetRevision;
     }
 
     // -------------------------------------------------------------------------------------------------- Action Methods
     // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Lists the remote refs with {@code git ls-remote}.
+     */
+    @NotNull
+    @Override
+    public String obtainLatestRevision(@NotNull final GitRepository.GitRepositoryAccessData repositoryData) throws RepositoryException
+    {
+        final GitRepository.GitRepositoryAccessData proxiedAccessData = adjustRepositoryAccess(repositoryData);
+        try
+        {
+            final Map<String, String> remoteRefs = gitCommandProcessor.runLsRemoteCommand(workingDirectory, proxiedAccessData.repositoryUrl);
+            for (String candidate : getRefCandidates(repositoryData))
+            {
+                final String revision = remoteRefs.get(candidate);
+                if (revision != null)
+                {
+                    return revision;
+                }
+            }
+            throw new RepositoryException(textProvider.getText("repository.git.messages.cannotDetermineHead", Arrays.asList(repositoryData.repositoryUrl, repositoryData.branch)));
+        }
+        finally
+        {
+            closeProxy(proxiedAccessData);
+        }
+    }
+
     // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
 
+    /**
+     * @return short name of a local branch whose head is the revision, preferring the current branch; null if there
+     * is no such branch
+     */
+    @Nullable
+    protected String findBranchForRevision(@NotNull final Repository repository, @NotNull final String revision)
+    {
+        try
+        {
+            final ObjectId revisionId = repository.resolve(revision);
+            if (revisionId == null)
+            {
+                return null;
+            }
+            final Map<String, Ref> branches = repository.getRefDatabase().getRefs(Constants.R_HEADS);
+            final String currentBranch = repository.getBranch();
+            final Ref currentBranchRef = currentBranch != null ? branches.get(currentBranch) : null;
+            if (currentBranchRef != null && revisionId.equals(currentBranchRef.getObjectId()))
+            {
+                return currentBranch;
+            }
+            for (Map.Entry<String, Ref> branch : branches.entrySet())
+            {
+                if (revisionId.equals(branch.getValue().getObjectId()))
+                {
+                    return branch.getKey();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Cannot find a branch for revision " + revision + ", it will be checked out as a detached HEAD", e);
+        }
+        return null;
+    }
+
+    /**
+     * The command processor receives the errors of the SSH proxies of its commands, so concurrent operations need
+     * their own.
+     */
+    @NotNull
+    @Override
+    NativeGitOperationHelper createConcurrentHelper()
+    {
+        return new NativeGitOperationHelper(this);
+    }
+
+    @Override
+    public void setCancellationSignal(@NotNull final BuildCancellationSignal cancellationSignal)
+    {
+        super.setCancellationSignal(cancellationSignal);
+        gitCommandProcessor.setCancellationSignal(cancellationSignal);
+    }
+
     protected GitRepository.GitRepositoryAccessData adjustRepositoryAccess(@NotNull final GitRepository.GitRepositoryAccessData accessData) throws RepositoryException
     {
         if (accessData.authenticationType == GitAuthenticationType.SSH_KEYPAIR)
@@ -0,0 +1,142 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.bamboo.v2.build.BuildRepositoryChanges;
+import com.opensymphony.xwork.TextProvider;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.Transport;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+
+/**
+ * Runs each operation with the engine chosen by a {@link GitEnginePolicy}, e.g. remote refs can be listed by JGit
+ * while big fetches and checkouts are done by native git. Everything else is done in-process by JGit.
+ */
+class RoutingGitOperationHelper extends GitOperationHelper
+{
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final GitEnginePolicy policy;
+    private final GitRepository.GitRepositoryAccessData accessData;
+    private final JGitOperationHelper jGitOperationHelper;
+    private final NativeGitOperationHelper nativeGitOperationHelper;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    RoutingGitOperationHelper(@NotNull final GitEnginePolicy policy,
+                              @NotNull final GitRepository.GitRepositoryAccessData accessData,
+                              @NotNull final JGitOperationHelper jGitOperationHelper,
+                              @NotNull final NativeGitOperationHelper nativeGitOperationHelper,
+                              @NotNull final BuildLogger buildLogger,
+                              @NotNull final TextProvider textProvider)
+    {
+        super(buildLogger, textProvider);
+        this.policy = policy;
+        this.accessData = accessData;
+        this.jGitOperationHelper = jGitOperationHelper;
+        this.nativeGitOperationHelper = nativeGitOperationHelper;
+    }
+
+    // ----------------------------------------------------------------------------------------------- Interface Methods
+
+    @Override
+    protected void doFetch(@NotNull final Transport transport, @NotNull final File sourceDirectory, @NotNull final GitRepository.GitRepositoryAccessData accessData, final RefSpec refSpec, final int depth, @NotNull final GitProgressWatchdog watchdog) throws RepositoryException
+    {
+        final GitOperation operation = hasRefs(sourceDirectory) ? GitOperation.FETCH : GitOperation.CLONE;
+        final GitEngine engine = selectEngine(operation);
+        final long start = System.currentTimeMillis();
+        getHelper(engine).doFetch(transport, sourceDirectory, accessData, refSpec, depth, watchdog);
+        completed(operation, engine, start);
+    }
+
+    @Override
+    protected String doCheckout(@NotNull final FileRepository localRepository, @NotNull final File sourceDirectory, @NotNull final String targetRevision, @Nullable final String previousRevision) throws RepositoryException
+    {
+        final GitEngine engine = selectEngine(GitOperation.CHECKOUT);
+        final long start = System.currentTimeMillis();
+        final String revision = getHelper(engine).doCheckout(localRepository, sourceDirectory, targetRevision, previousRevision);
+        completed(GitOperation.CHECKOUT, engine, start);
+        return revision;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    @NotNull
+    @Override
+    public String obtainLatestRevision(@NotNull final GitRepository.GitRepositoryAccessData repositoryData) throws RepositoryException
+    {
+        final GitEngine engine = selectEngine(GitOperation.RESOLVE_REFS);
+        final long start = System.currentTimeMillis();
+        final String revision = getHelper(engine).obtainLatestRevision(repositoryData);
+        completed(GitOperation.RESOLVE_REFS, engine, start);
+        return revision;
+    }
+
+    @Override
+    BuildRepositoryChanges extractCommits(@NotNull final File directory, @Nullable final String previousRevision, @Nullable final String targetRevision) throws RepositoryException
+    {
+        final GitEngine engine = selectEngine(GitOperation.EXTRACT_CHANGES);
+        final long start = System.currentTimeMillis();
+        final BuildRepositoryChanges changes = getHelper(engine).extractCommits(directory, previousRevision, targetRevision);
+        completed(GitOperation.EXTRACT_CHANGES, engine, start);
+        return changes;
+    }
+
+    @NotNull
+    @Override
+    RoutingGitOperationHelper createConcurrentHelper()
+    {
+        final RoutingGitOperationHelper helper = new RoutingGitOperationHelper(policy, accessData, jGitOperationHelper.createConcurrentHelper(),
+                                                                               nativeGitOperationHelper.createConcurrentHelper(), buildLogger, textProvider);
+        helper.setCancellationSignal(cancellationSignal);
+        return helper;
+    }
+
+    @Override
+    public void setCancellationSignal(@NotNull final BuildCancellationSignal cancellationSignal)
+    {
+        super.setCancellationSignal(cancellationSignal);
+        jGitOperationHelper.setCancellationSignal(cancellationSignal);
+        nativeGitOperationHelper.setCancellationSignal(cancellationSignal);
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    @NotNull
+    private GitEngine selectEngine(@NotNull final GitOperation operation)
+    {
+        final GitEngine engine = policy.selectEngine(operation, accessData);
+        if (engine == GitEngine.NATIVE && !operation.isNativeSupported())
+        {
+            return GitEngine.JGIT;
+        }
+        return engine;
+    }
+
+    @NotNull
+    private GitOperationHelper getHelper(@NotNull final GitEngine engine)
+    {
+        return engine == GitEngine.NATIVE ? nativeGitOperationHelper : jGitOperationHelper;
+    }
+
+    private void completed(@NotNull final GitOperation operation, @NotNull final GitEngine engine, long start)
+    {
+        policy.operationCompleted(operation, engine, accessData, System.currentTimeMillis() - start);
+    }
+
+    private static boolean hasRefs(@NotNull final File sourceDirectory)
+    {
+        final File gitDirectory = new File(sourceDirectory, Constants.DOT_GIT);
+        if (new File(gitDirectory, Constants.PACKED_REFS).isFile())
+        {
+            return true;
+        }
+        final String[] branches = new File(gitDirectory, Constants.R_HEADS).list();
+        return branches != null && branches.length > 0;
+    }
+}
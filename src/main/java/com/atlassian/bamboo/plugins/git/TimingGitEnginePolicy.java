@@ -0,0 +1,105 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Picks the engine which has been faster for the operation on the repository. Each engine is measured a few times
+ * first, and the slower one is tried again now and then, so the choice follows changes of the repository.
+ */
+class TimingGitEnginePolicy implements GitEnginePolicy
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    static final int MIN_SAMPLES = 2;
+    static final int EXPLORATION_INTERVAL = 20;
+    private static final double SMOOTHING = 0.3;
+
+    private static final TimingGitEnginePolicy sharedInstance = new TimingGitEnginePolicy(new DefaultGitEnginePolicy());
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final GitEnginePolicy initialPolicy;
+    private final ConcurrentMap<String, OperationTimings> timings = new ConcurrentHashMap<String, OperationTimings>();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    /**
+     * @param initialPolicy decides which engine gets measured first
+     */
+    TimingGitEnginePolicy(@NotNull final GitEnginePolicy initialPolicy)
+    {
+        this.initialPolicy = initialPolicy;
+    }
+
+    /**
+     * @return policy with the timings recorded by all builds
+     */
+    @NotNull
+    static TimingGitEnginePolicy getSharedInstance()
+    {
+        return sharedInstance;
+    }
+
+    // ----------------------------------------------------------------------------------------------- Interface Methods
+
+    @NotNull
+    public GitEngine selectEngine(@NotNull final GitOperation operation, @NotNull final GitRepository.GitRepositoryAccessData accessData)
+    {
+        final GitEngine first = initialPolicy.selectEngine(operation, accessData);
+        if (!operation.isNativeSupported())
+        {
+            return first;
+        }
+        final GitEngine second = first == GitEngine.NATIVE ? GitEngine.JGIT : GitEngine.NATIVE;
+        return getTimings(operation, accessData).selectEngine(first, second);
+    }
+
+    public void operationCompleted(@NotNull final GitOperation operation, @NotNull final GitEngine engine,
+                                   @NotNull final GitRepository.GitRepositoryAccessData accessData, long durationMillis)
+    {
+        getTimings(operation, accessData).record(engine, durationMillis);
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    @NotNull
+    private OperationTimings getTimings(@NotNull final GitOperation operation, @NotNull final GitRepository.GitRepositoryAccessData accessData)
+    {
+        final String key = operation + " " + accessData.repositoryUrl;
+        final OperationTimings newTimings = new OperationTimings();
+        final OperationTimings existingTimings = timings.putIfAbsent(key, newTimings);
+        return existingTimings != null ? existingTimings : newTimings;
+    }
+
+    private static class OperationTimings
+    {
+        private final int[] samples = new int[GitEngine.values().length];
+        private final double[] averages = new double[GitEngine.values().length];
+        private int selections;
+
+        synchronized GitEngine selectEngine(@NotNull final GitEngine first, @NotNull final GitEngine second)
+        {
+            if (samples[first.ordinal()] < MIN_SAMPLES)
+            {
+                return first;
+            }
+            if (samples[second.ordinal()] < MIN_SAMPLES)
+            {
+                return second;
+            }
+            final boolean firstIsFaster = averages[first.ordinal()] <= averages[second.ordinal()];
+            final boolean explore = ++selections % EXPLORATION_INTERVAL == 0;
+            return firstIsFaster != explore ? first : second;
+        }
+
+        synchronized void record(@NotNull final GitEngine engine, long durationMillis)
+        {
+            final int i = engine.ordinal();
+            averages[i] = samples[i] == 0 ? durationMillis : SMOOTHING * durationMillis + (1 - SMOOTHING) * averages[i];
+            samples[i]++;
+        }
+    }
+}
@@ -29,7 +29,11 @@
 
 <div id="loadedGitHubRepositoriesDiv" class="hidden">
     [@ww.select labelKey='repository.github.branch' name='repository.github.branch' /]
-    [@ww.checkbox labelKey='repository.github.useShallowClones' name='repository.github.useShallowClones' /]
+    [@ww.checkbox labelKey='repository.github.useShallowClones' toggle='true' name='repository.github.useShallowClones' /]
+    [@ui.bambooSection dependsOn='repository.github.useShallowClones' showOn='true']
+        [@ww.textfield labelKey='repository.github.shallowDepth' name='repository.github.shallowDepth' /]
+        [@ww.checkbox labelKey='repository.github.automaticShallowClones' name='repository.github.automaticShallowClones' /]
+    [/@ui.bambooSection]
 </div>
 
 <script type="text/javascript">
@@ -41,7 +45,11 @@ BAMBOO.LoadGitHubRepositoriesAsynchronously = function ($) {
         actionUrl = baseActionUrl[#if plan?has_content] + "?planKey=${plan.key}"[/#if],
         repositoryBranchFilter,
         selectedRepository,
-        selectedBranch;
+        selectedBranch,
+        refreshTimeout,
+        refreshDelay = 1000,
+        maxRefreshes = 30,
+        refreshes = 0;
 
     [#if buildConfiguration.getString('repository.github.repository')?has_content]
         selectedRepository = "${buildConfiguration.getString('repository.github.repository')}";
@@ -74,7 +82,20 @@ BAMBOO.LoadGitHubRepositoriesAsynchronously = function ($) {
     }
 
     function loadGitHubRepositories(e) {
+        refreshes = 0;
         startFetching();
+        requestGitHubRepositories();
+    }
+
+    // branches of some repositories were still being loaded - ask again, keeping the current selection
+    function refreshGitHubRepositories() {
+        refreshTimeout = null;
+        selectedRepository = $repositories.val();
+        selectedBranch = $branches.val();
+        requestGitHubRepositories();
+    }
+
+    function requestGitHubRepositories() {
         $.ajax({
             type: "POST",
             url: actionUrl,
@@ -106,6 +127,7 @@ BAMBOO.LoadGitHubRepositoriesAsynchronously = function ($) {
                     readyForFetching();
                 } else if (json.status == "OK") {
                     $loadedGitHubRepositoriesDiv.show();
+                    $repositories.empty();
                     var options = $repositories.get(0).options;
                     for (var repository in json.gitHubRepositories) {
                         options[options.length] = new Option(repository, repository);
@@ -122,6 +144,9 @@ BAMBOO.LoadGitHubRepositoriesAsynchronously = function ($) {
                         $branches.val(selectedBranch);
                         selectedBranch = null;
                     }
+                    if (json.pendingRepositories && json.pendingRepositories.length && refreshes++ < maxRefreshes) {
+                        refreshTimeout = setTimeout(refreshGitHubRepositories, refreshDelay);
+                    }
                     readyForFetching();
                 }
             },
@@ -134,6 +159,10 @@ BAMBOO.LoadGitHubRepositoriesAsynchronously = function ($) {
     }
 
     function startFetching() {
+        if (refreshTimeout) {
+            clearTimeout(refreshTimeout);
+            refreshTimeout = null;
+        }
         repositoryBranchFilter = null;
         $repositories.empty().hide();
         $repositories_desc.hide();
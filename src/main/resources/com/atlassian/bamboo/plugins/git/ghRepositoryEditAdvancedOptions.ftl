@@ -2,3 +2,8 @@
 [@ww.checkbox labelKey='repository.github.useSubmodules' name='repository.github.useSubmodules' /]
 [@ww.textfield labelKey='repository.github.commandTimeout' name='repository.github.commandTimeout' /]
 [@ww.checkbox labelKey='repository.github.verbose.logs' name='repository.github.verbose.logs' /]
+[@ww.select labelKey='repository.github.engineSelection' name='repository.github.engineSelection' list=repository.engineSelections listKey='name' listValue='label' /]
+[@ww.textfield labelKey='repository.github.objectPool' name='repository.github.objectPool' /]
+[@ww.checkbox labelKey='repository.github.poolRelatedRepositories' name='repository.github.poolRelatedRepositories' /]
+[@ww.checkbox labelKey='repository.github.exportOnly' name='repository.github.exportOnly' /]
+[@ww.checkbox labelKey='repository.github.preserveModificationTimes' name='repository.github.preserveModificationTimes' /]
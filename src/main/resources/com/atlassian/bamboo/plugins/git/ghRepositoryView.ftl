@@ -3,6 +3,15 @@
 [@ww.label labelKey='repository.github.repository' value=repository.repository /]
 [@ww.label labelKey='repository.github.branch' value=repository.branch! hideOnNull=true /]
 [@ww.label labelKey='repository.github.useShallowClones' value=repository.useShallowClones?string hideOnNull=true /]
+[#if repository.useShallowClones]
+    [@ww.label labelKey='repository.github.shallowDepth' value=repository.shallowDepth /]
+    [@ww.label labelKey='repository.github.automaticShallowClones' value=repository.automaticShallowClones?string /]
+[/#if]
 [@ww.label labelKey='repository.github.useSubmodules' value=repository.useSubmodules?string hideOnNull=true /]
 [@ww.label labelKey='repository.github.commandTimeout' value=repository.commandTimeout! hideOnNull=true /]
 [@ww.label labelKey='repository.github.verbose.logs' value=repository.verboseLogs?string hideOnNull=true /]
+[@ww.label labelKey='repository.github.engineSelection' value=repository.engineSelectionName /]
+[@ww.label labelKey='repository.github.objectPool' value=repository.objectPool! hideOnNull=true /]
+[@ww.label labelKey='repository.github.poolRelatedRepositories' value=repository.poolRelatedRepositories?string hideOnNull=true /]
+[@ww.label labelKey='repository.github.exportOnly' value=repository.exportOnly?string hideOnNull=true /]
+[@ww.label labelKey='repository.github.preserveModificationTimes' value=repository.preserveModificationTimes?string hideOnNull=true /]
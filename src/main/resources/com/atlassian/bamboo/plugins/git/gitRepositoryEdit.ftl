@@ -48,6 +48,10 @@
         [/#if]
     [/@ui.bambooSection]
 
-    [@ww.checkbox labelKey='repository.git.useShallowClones' name='repository.git.useShallowClones' /]
+    [@ww.checkbox labelKey='repository.git.useShallowClones' toggle='true' name='repository.git.useShallowClones' /]
+    [@ui.bambooSection dependsOn='repository.git.useShallowClones' showOn='true']
+        [@ww.textfield labelKey='repository.git.shallowDepth' name='repository.git.shallowDepth' /]
+        [@ww.checkbox labelKey='repository.git.automaticShallowClones' name='repository.git.automaticShallowClones' /]
+    [/@ui.bambooSection]
 
 [/@ui.bambooSection]
\ No newline at end of file
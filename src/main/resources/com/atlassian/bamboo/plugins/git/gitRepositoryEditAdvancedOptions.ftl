@@ -2,3 +2,8 @@
 [@ww.checkbox labelKey='repository.git.useSubmodules' name='repository.git.useSubmodules' /]
 [@ww.textfield labelKey='repository.git.commandTimeout' name='repository.git.commandTimeout' /]
 [@ww.checkbox labelKey='repository.git.verbose.logs' name='repository.git.verbose.logs' /]
+[@ww.select labelKey='repository.git.engineSelection' name='repository.git.engineSelection' list=repository.engineSelections listKey='name' listValue='label' /]
+[@ww.textfield labelKey='repository.git.objectPool' name='repository.git.objectPool' /]
+[@ww.checkbox labelKey='repository.git.poolRelatedRepositories' name='repository.git.poolRelatedRepositories' /]
+[@ww.checkbox labelKey='repository.git.exportOnly' name='repository.git.exportOnly' /]
+[@ww.checkbox labelKey='repository.git.preserveModificationTimes' name='repository.git.preserveModificationTimes' /]
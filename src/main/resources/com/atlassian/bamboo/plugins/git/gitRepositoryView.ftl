@@ -4,9 +4,18 @@
 [@ww.label labelKey='repository.git.branch' value=repository.branch hideOnNull=true /]
 [@ww.label labelKey='repository.git.authenticationType' value=repository.authTypeName /]
 [@ww.label labelKey='repository.git.useShallowClones' value=repository.useShallowClones?string hideOnNull=true /]
+[#if repository.useShallowClones]
+    [@ww.label labelKey='repository.git.shallowDepth' value=repository.shallowDepth /]
+    [@ww.label labelKey='repository.git.automaticShallowClones' value=repository.automaticShallowClones?string /]
+[/#if]
 [@ww.label labelKey='repository.git.useSubmodules' value=repository.useSubmodules?string hideOnNull=true /]
 [@ww.label labelKey='repository.git.commandTimeout' value=repository.commandTimeout! hideOnNull=true /]
 [@ww.label labelKey='repository.git.verbose.logs' value=repository.verboseLogs?string hideOnNull=true /]
+[@ww.label labelKey='repository.git.engineSelection' value=repository.engineSelectionName /]
+[@ww.label labelKey='repository.git.objectPool' value=repository.objectPool! hideOnNull=true /]
+[@ww.label labelKey='repository.git.poolRelatedRepositories' value=repository.poolRelatedRepositories?string hideOnNull=true /]
+[@ww.label labelKey='repository.git.exportOnly' value=repository.exportOnly?string hideOnNull=true /]
+[@ww.label labelKey='repository.git.preserveModificationTimes' value=repository.preserveModificationTimes?string hideOnNull=true /]
 [@ww.label labelKey='repository.git.cacheDirectory' value=repository.cacheDirectory/]
 
 [#if plan?? && fn.hasGlobalAdminPermission() && repository.cacheDirectory?? && repository.cacheDirectory.exists()]
@@ -16,4 +25,9 @@
            title="[@ww.text name='repository.git.cacheDirectory.cleanTitle' /]"
            href="[@ww.url action='deleteGitCacheDirectory' namespace='/build/admin' buildKey=plan.key/]">[@ww.text name='global.buttons.delete' /]</a>
     [/@ui.messageBox]
+    [@ui.messageBox type='info']
+        [@ww.text name='repository.git.cacheDirectory.exportMessage'/]
+        <a title="[@ww.text name='repository.git.cacheDirectory.exportTitle' /]"
+           href="[@ww.url action='exportGitCacheBundle' namespace='/build/admin' buildKey=plan.key/]">[@ww.text name='repository.git.cacheDirectory.export' /]</a>
+    [/@ui.messageBox]
 [/#if]
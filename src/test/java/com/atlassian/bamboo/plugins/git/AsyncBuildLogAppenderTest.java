@@ -0,0 +1,65 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class AsyncBuildLogAppenderTest
+{
+    @Test
+    public void testLinesAreLoggedInOrder() throws Exception
+    {
+        BuildLogger buildLogger = Mockito.mock(BuildLogger.class);
+        AsyncBuildLogAppender appender = new AsyncBuildLogAppender(buildLogger, 100, 0, 1024);
+
+        appender.append("first");
+        appender.append("second");
+        appender.append("third");
+        appender.flush();
+
+        Assert.assertEquals(getLoggedLines(buildLogger, 3), Arrays.asList("first", "second", "third"));
+    }
+
+    @Test
+    public void testLinesAboveRateLimitAreSkipped() throws Exception
+    {
+        BuildLogger buildLogger = Mockito.mock(BuildLogger.class);
+        AsyncBuildLogAppender appender = new AsyncBuildLogAppender(buildLogger, 100, 2, 1024);
+
+        for (int i = 0; i < 10; i++)
+        {
+            appender.append("line " + i);
+        }
+        appender.flush();
+
+        List<String> loggedLines = getLoggedLines(buildLogger, 3);
+        Assert.assertEquals(loggedLines.subList(0, 2), Arrays.asList("line 0", "line 1"));
+        Assert.assertTrue(loggedLines.get(2).startsWith("Git: 8 lines of output were skipped"), loggedLines.get(2));
+        Assert.assertTrue(appender.getTail().endsWith("line 8\nline 9\n"), "Skipped lines should be kept in the tail");
+    }
+
+    @Test
+    public void testTailKeepsOnlyLastOutput() throws Exception
+    {
+        AsyncBuildLogAppender appender = new AsyncBuildLogAppender(Mockito.mock(BuildLogger.class), 100, 0, 10);
+
+        Assert.assertEquals(appender.getTail(), "");
+        appender.append("1234");
+        Assert.assertEquals(appender.getTail(), "1234\n");
+        appender.append("abcdefg");
+
+        Assert.assertEquals(appender.getTail(), "[...]\n4\nabcdefg\n");
+    }
+
+    private static List<String> getLoggedLines(BuildLogger buildLogger, int expectedCount)
+    {
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(buildLogger, Mockito.times(expectedCount)).addBuildLogEntry(captor.capture());
+        return captor.getAllValues();
+    }
+}
@@ -1,15 +1,18 @@
 package com.atlassian.bamboo.plugins.git;
 
+import org.apache.commons.io.FileUtils;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 public class GitCacheDirectoryTest extends GitAbstractTest
 {
@@ -39,8 +42,8 @@ public class GitCacheDirectoryTest extends GitAbstractTest
         return new Object[][] {
                 {"repositoryUrl", true},
                 {"username", true},
-                {"branch", true},
 
+                {"branch", false},
                 {"password", false},
                 {"sshKey", false},
                 {"sshPassphrase", false},
@@ -100,6 +103,283 @@ public class GitCacheDirectoryTest extends GitAbstractTest
 
     }
 
+    @DataProvider
+    Object[][] equivalentUrls()
+    {
+        return new Object[][] {
+                {"git@example.com:org/repo.git", "ssh://git@example.com/org/repo", true},
+                {"git@example.com:org/repo.git", "ssh://git@Example.com:22/org/repo.git/", true},
+                {"https://example.com/org/repo.git", "https://example.com:443/org//repo/", true},
+                {"https://example.com/org/repo.git", "https://example.com/org/other.git", false},
+                {"https://example.com/org/repo.git", "git@example.com:org/repo.git", false}, // different users
+        };
+    }
+
+    @Test(dataProvider = "equivalentUrls")
+    public void testEquivalentUrlsShareCache(String url, String otherUrl, boolean same) throws Exception
+    {
+        File baseDir = createTempDirectory();
+        File cache1 = GitCacheDirectory.getCacheDirectory(baseDir, createAccessData(url));
+        File cache2 = GitCacheDirectory.getCacheDirectory(baseDir, createAccessData(otherUrl));
+
+        Assert.assertEquals(cache1.equals(cache2), same);
+    }
+
+    @Test
+    public void testUsersShareObjectsButNotRefs() throws Exception
+    {
+        GitRepository.GitRepositoryAccessData accessData = createSampleAccessData(false);
+        GitRepository.GitRepositoryAccessData accessData2 = createSampleAccessData(false);
+        accessData2.username = "otherUser";
+
+        File baseDir = createTempDirectory();
+        File cache1 = GitCacheDirectory.getCacheDirectory(baseDir, accessData);
+        File cache2 = GitCacheDirectory.getCacheDirectory(baseDir, accessData2);
+
+        Assert.assertFalse(cache1.equals(cache2));
+        Assert.assertEquals(GitCacheDirectory.getSharedObjectsDirectory(cache1, accessData), GitCacheDirectory.getSharedObjectsDirectory(cache2, accessData2));
+        Assert.assertNull(GitCacheDirectory.getSharedObjectsDirectory(cache1, createSampleAccessData(true)));
+    }
+
+    @Test
+    public void testLegacyCacheIsMovedToCanonicalLocation() throws Exception
+    {
+        GitRepository.GitRepositoryAccessData accessData = createAccessData("ssh://git@example.com/org/repo.git/");
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(createTempDirectory(), accessData);
+        File legacyCacheDirectory = GitCacheDirectory.getLegacyCacheDirectory(cacheDirectory, accessData);
+        FileUtils.writeStringToFile(new File(legacyCacheDirectory, ".git/HEAD"), "ref: refs/heads/master");
+
+        GitCacheDirectory.migrateLegacyCache(cacheDirectory, accessData);
+
+        Assert.assertFalse(legacyCacheDirectory.exists());
+        Assert.assertEquals(FileUtils.readFileToString(new File(cacheDirectory, ".git/HEAD")), "ref: refs/heads/master");
+    }
+
+    @Test
+    public void testDuplicateLegacyCacheIsFoldedIntoSharedObjects() throws Exception
+    {
+        GitRepository.GitRepositoryAccessData accessData = createAccessData("ssh://git@example.com/org/repo.git/");
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(createTempDirectory(), accessData);
+        File legacyCacheDirectory = GitCacheDirectory.getLegacyCacheDirectory(cacheDirectory, accessData);
+        File sharedObjectsDirectory = GitCacheDirectory.getSharedObjectsDirectory(cacheDirectory, accessData);
+        FileUtils.writeStringToFile(new File(cacheDirectory, ".git/HEAD"), "ref: refs/heads/master");
+        FileUtils.writeStringToFile(new File(legacyCacheDirectory, ".git/objects/pack/pack-123.pack"), "pack");
+        FileUtils.writeStringToFile(new File(legacyCacheDirectory, ".git/objects/pack/pack-123.idx"), "index");
+        FileUtils.writeStringToFile(new File(legacyCacheDirectory, ".git/objects/ab/cdef0123"), "object");
+        FileUtils.writeStringToFile(new File(legacyCacheDirectory, ".git/objects/pack/tmp_pack_abc"), "partial");
+
+        GitCacheDirectory.migrateLegacyCache(cacheDirectory, accessData);
+
+        Assert.assertFalse(legacyCacheDirectory.exists());
+        Assert.assertTrue(new File(sharedObjectsDirectory, "pack/pack-123.pack").isFile());
+        Assert.assertTrue(new File(sharedObjectsDirectory, "pack/pack-123.idx").isFile());
+        Assert.assertTrue(new File(sharedObjectsDirectory, "ab/cdef0123").isFile());
+        Assert.assertFalse(new File(sharedObjectsDirectory, "pack/tmp_pack_abc").exists());
+    }
+
+    @Test
+    public void testSharedObjectsAreUsedAsAlternate() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String revision = srcRepo.commitFileContents("contents").getName();
+
+        GitRepository.GitRepositoryAccessData accessData = createAccessData(srcRepo.srcDir, "master");
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(createTempDirectory(), accessData);
+        File sharedObjectsDirectory = GitCacheDirectory.getSharedObjectsDirectory(cacheDirectory, accessData);
+
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, accessData, false);
+        GitCacheDirectory.shareObjects(cacheDirectory, sharedObjectsDirectory);
+
+        Assert.assertEquals(FileUtils.readFileToString(new File(cacheDirectory, ".git/objects/info/alternates")).trim(), sharedObjectsDirectory.getAbsolutePath());
+        Assert.assertTrue(GitOperationHelper.containsRevision(cacheDirectory, revision));
+        Assert.assertTrue(FileUtils.listFiles(new File(cacheDirectory, ".git/objects"), new String[] {"pack"}, true).isEmpty(), "Packs should be moved");
+
+        File sourceDirectory = createTempDirectory();
+        helper.checkout(cacheDirectory, sourceDirectory, revision, null);
+        Assert.assertEquals(FileUtils.readFileToString(new File(sourceDirectory, "file.txt")), "contents");
+    }
+
+    @Test
+    public void testNamedObjectPoolIsSharedByDifferentRepositories() throws Exception
+    {
+        File baseDir = createTempDirectory();
+        GitRepository.GitRepositoryAccessData accessData = createAccessData("ssh://example.com/org/repo.git");
+        GitRepository.GitRepositoryAccessData otherAccessData = createAccessData("ssh://example.com/fork/repo.git");
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, accessData);
+        File otherCacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, otherAccessData);
+
+        Assert.assertFalse(GitCacheDirectory.getSharedObjectsDirectory(cacheDirectory, accessData).equals(GitCacheDirectory.getSharedObjectsDirectory(otherCacheDirectory, otherAccessData)));
+
+        accessData.objectPool = "repo";
+        otherAccessData.objectPool = "repo";
+        Assert.assertEquals(GitCacheDirectory.getSharedObjectsDirectory(cacheDirectory, accessData), GitCacheDirectory.getSharedObjectsDirectory(otherCacheDirectory, otherAccessData));
+    }
+
+    @Test
+    public void testForksArePooledByRootCommit() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String rootRevision = srcRepo.commitFileContents("root").getName();
+        File forkDir = createTempDirectory();
+        FileUtils.copyDirectory(srcRepo.srcDir, forkDir);
+        String revision = srcRepo.commitFileContents("contents").getName();
+
+        File baseDir = createTempDirectory();
+        GitRepository.GitRepositoryAccessData accessData = createAccessData(srcRepo.srcDir, "master");
+        GitRepository.GitRepositoryAccessData forkAccessData = createAccessData(forkDir, "master");
+        accessData.poolRelatedRepositories = true;
+        forkAccessData.poolRelatedRepositories = true;
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, accessData);
+        File forkCacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, forkAccessData);
+
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, accessData, false);
+        helper.fetch(forkCacheDirectory, forkAccessData, false);
+        File pool = GitCacheDirectory.getSharedObjectsDirectory(cacheDirectory, accessData);
+        Assert.assertEquals(GitCacheDirectory.getSharedObjectsDirectory(forkCacheDirectory, forkAccessData), pool);
+
+        GitCacheDirectory.shareObjects(cacheDirectory, pool);
+        GitCacheDirectory.shareObjects(forkCacheDirectory, pool);
+        Assert.assertTrue(GitOperationHelper.containsRevision(cacheDirectory, revision));
+        Assert.assertTrue(GitOperationHelper.containsRevision(forkCacheDirectory, rootRevision));
+        Assert.assertTrue(FileUtils.listFiles(new File(forkCacheDirectory, ".git/objects"), new String[] {"pack"}, true).isEmpty(), "Packs should be moved to the pool");
+    }
+
+    @Test
+    public void testMovedRepositoryStartsFromRelatedCache() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String previousRevision = srcRepo.commitFileContents("previous").getName();
+        File movedDir = createTempDirectory();
+        FileUtils.copyDirectory(srcRepo.srcDir, movedDir);
+
+        File baseDir = createTempDirectory();
+        GitRepository.GitRepositoryAccessData accessData = createAccessData(srcRepo.srcDir, "master");
+        GitRepository.GitRepositoryAccessData movedAccessData = createAccessData(movedDir, "master");
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, accessData);
+        File movedCacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, movedAccessData);
+
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, accessData, false);
+        GitCacheDirectory.shareObjects(cacheDirectory, GitCacheDirectory.getSharedObjectsDirectory(cacheDirectory, accessData));
+
+        Assert.assertFalse(GitCacheDirectory.reuseRelatedCache(movedCacheDirectory, "0123456789012345678901234567890123456789"));
+        Assert.assertFalse(movedCacheDirectory.exists());
+
+        Assert.assertTrue(GitCacheDirectory.reuseRelatedCache(movedCacheDirectory, previousRevision));
+        Assert.assertTrue(GitOperationHelper.containsRevision(movedCacheDirectory, previousRevision), "History of the related cache should be available before fetching");
+
+        helper.fetch(movedCacheDirectory, movedAccessData, false);
+        GitCacheDirectory.forgetSeedRefs(movedCacheDirectory);
+        Assert.assertTrue(GitOperationHelper.containsRevision(movedCacheDirectory, "refs/heads/master"));
+        Assert.assertFalse(GitOperationHelper.containsRevision(movedCacheDirectory, "refs/bamboo/seed/related"));
+    }
+
+    @Test
+    public void testNewCacheIsSeededFromExportedBundle() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String bundledRevision = srcRepo.commitFileContents("contents").getName();
+
+        File baseDir = createTempDirectory();
+        GitRepository.GitRepositoryAccessData accessData = createAccessData(srcRepo.srcDir, "master");
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, accessData);
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, accessData, false);
+        GitCacheSnapshot.publish(cacheDirectory);
+
+        File bundleFile = GitCacheDirectory.getBundleFile(baseDir, accessData);
+        GitCacheDirectory.exportBundle(cacheDirectory, bundleFile);
+        Assert.assertTrue(bundleFile.isFile());
+
+        String revision = srcRepo.commitFileContents("more contents").getName();
+        File seededCacheDirectory = GitCacheDirectory.getCacheDirectory(createTempDirectory(), accessData);
+        Assert.assertTrue(helper.fetchBundle(seededCacheDirectory, bundleFile));
+        Assert.assertTrue(GitOperationHelper.containsRevision(seededCacheDirectory, bundledRevision), "History of the bundle should be available before fetching");
+
+        helper.fetch(seededCacheDirectory, accessData, false);
+        GitCacheDirectory.forgetSeedRefs(seededCacheDirectory);
+        Assert.assertTrue(GitOperationHelper.containsRevision(seededCacheDirectory, revision));
+        Assert.assertFalse(GitOperationHelper.containsRevision(seededCacheDirectory, "refs/bamboo/seed/heads/master"));
+    }
+
+    @Test
+    public void testMissingBundleDoesNotSeedCache() throws Exception
+    {
+        File cacheDirectory = createTempDirectory();
+        Assert.assertFalse(createGitOperationHelper().fetchBundle(cacheDirectory, new File(createTempDirectory(), "missing.bundle")));
+    }
+
+    @Test
+    public void testDeletingCacheKeepsObjectPoolOthersUse() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String revision = srcRepo.commitFileContents("contents").getName();
+
+        File baseDir = createTempDirectory();
+        GitRepository.GitRepositoryAccessData accessData = createAccessData(srcRepo.srcDir, "master");
+        GitRepository.GitRepositoryAccessData otherAccessData = createAccessData(srcRepo.srcDir, "master");
+        otherAccessData.username = "other";
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, accessData);
+        File otherCacheDirectory = GitCacheDirectory.getCacheDirectory(baseDir, otherAccessData);
+        File sharedObjectsDirectory = GitCacheDirectory.getSharedObjectsDirectory(cacheDirectory, accessData);
+
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, accessData, false);
+        helper.fetch(otherCacheDirectory, otherAccessData, false);
+        GitCacheDirectory.shareObjects(cacheDirectory, sharedObjectsDirectory);
+        GitCacheDirectory.shareObjects(otherCacheDirectory, sharedObjectsDirectory);
+
+        GitCacheDirectory.deleteCache(cacheDirectory);
+        Assert.assertFalse(cacheDirectory.exists());
+        Assert.assertTrue(GitOperationHelper.containsRevision(otherCacheDirectory, revision));
+
+        GitCacheDirectory.deleteCache(otherCacheDirectory);
+        Assert.assertFalse(sharedObjectsDirectory.exists(), "Unused shared objects should be deleted");
+    }
+
+    @Test(timeOut = 5000)
+    public void testDeletingCacheWaitsForReaders() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        srcRepo.commitFileContents("contents");
+        final File cacheDirectory = GitCacheDirectory.getCacheDirectory(createTempDirectory(), createAccessData(srcRepo.srcDir, "master"));
+        createGitOperationHelper().fetch(cacheDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+
+        final CountDownLatch deleted = new CountDownLatch(1);
+        Lock readLock = GitCacheDirectory.getReaderLock(cacheDirectory).readLock();
+        readLock.lock();
+        try
+        {
+            new Thread("Deleting thread")
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        GitCacheDirectory.deleteCache(cacheDirectory);
+                        deleted.countDown();
+                    }
+                    catch (IOException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }.start();
+
+            Assert.assertFalse(deleted.await(500, TimeUnit.MILLISECONDS), "Cache should not be deleted while it is read");
+            Assert.assertTrue(cacheDirectory.isDirectory());
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+        Assert.assertTrue(deleted.await(2000, TimeUnit.MILLISECONDS), "Cache should be deleted once it is not read");
+        Assert.assertFalse(cacheDirectory.exists());
+    }
+
     private static GitRepository.GitRepositoryAccessData createSampleAccessData(boolean shallow)
     {
         GitRepository.GitRepositoryAccessData accessData = createAccessData(
@@ -196,4 +476,34 @@ public class GitCacheDirectoryTest extends GitAbstractTest
         Assert.assertEquals(hasBlocked.take(), Boolean.valueOf(blockExpected), "Second thread blocking");
         Assert.assertTrue(secondCalled.await(2000, TimeUnit.MILLISECONDS), "Second thread should be eventually let in");
     }
+
+    @Test
+    public void testCleanUpAfterInterruptedOperationKeepsCompleteData() throws Exception
+    {
+        File directory = createTempDirectory();
+        File gitDirectory = new File(directory, ".git");
+        String[] leftovers = {"index.lock", "HEAD.lock", "refs/heads/master.lock", "objects/pack/tmp_pack_abc",
+                "objects/pack/incoming_123.pack", "objects/ab/tmp_obj_xyz", "objects/noz123.tmp"};
+        String[] kept = {"HEAD", "config", "refs/heads/master", "refs/heads/tmp_branch", "objects/pack/pack-123.pack",
+                "objects/ab/cdef0123"};
+        for (String path : leftovers)
+        {
+            FileUtils.writeStringToFile(new File(gitDirectory, path), "leftover");
+        }
+        for (String path : kept)
+        {
+            FileUtils.writeStringToFile(new File(gitDirectory, path), "data");
+        }
+
+        Assert.assertEquals(GitCacheDirectory.cleanUpAfterInterruptedOperation(directory), leftovers.length);
+
+        for (String path : leftovers)
+        {
+            Assert.assertFalse(new File(gitDirectory, path).exists(), path);
+        }
+        for (String path : kept)
+        {
+            Assert.assertTrue(new File(gitDirectory, path).exists(), path);
+        }
+    }
 }
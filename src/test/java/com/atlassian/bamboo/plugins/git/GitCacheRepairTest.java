@@ -0,0 +1,70 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+public class GitCacheRepairTest extends GitAbstractTest
+{
+    private static final String CORRUPT_OBJECT = "0123456789012345678901234567890123456789";
+
+    @Test
+    public void testHealthyCacheIsNotRepairable() throws Exception
+    {
+        File cacheDirectory = createFetchedCache();
+        long notRepairable = GitCacheRepair.Outcome.NOT_REPAIRABLE.getCount();
+
+        Assert.assertFalse(GitCacheRepair.repair(cacheDirectory, new RuntimeException("unknown revision")));
+        Assert.assertEquals(GitCacheRepair.Outcome.NOT_REPAIRABLE.getCount(), notRepairable + 1);
+    }
+
+    @Test
+    public void testStaleLocksAreRemoved() throws Exception
+    {
+        File cacheDirectory = createFetchedCache();
+        File lock = new File(cacheDirectory, ".git/refs/heads/master.lock");
+        FileUtils.writeStringToFile(lock, "");
+        long staleFilesRemoved = GitCacheRepair.Outcome.STALE_FILES_REMOVED.getCount();
+
+        Assert.assertTrue(GitCacheRepair.repair(cacheDirectory, new RuntimeException("lock exists")));
+        Assert.assertFalse(lock.exists());
+        Assert.assertEquals(GitCacheRepair.Outcome.STALE_FILES_REMOVED.getCount(), staleFilesRemoved + 1);
+    }
+
+    @Test
+    public void testCorruptLooseObjectIsRemoved() throws Exception
+    {
+        File cacheDirectory = createFetchedCache();
+        File looseObject = new File(cacheDirectory, ".git/objects/" + CORRUPT_OBJECT.substring(0, 2) + "/" + CORRUPT_OBJECT.substring(2));
+        FileUtils.writeStringToFile(looseObject, "not a git object");
+
+        Assert.assertTrue(GitCacheRepair.repair(cacheDirectory, new RuntimeException("Object " + CORRUPT_OBJECT + " is corrupt")));
+        Assert.assertFalse(looseObject.exists());
+        Assert.assertTrue(GitOperationHelper.containsRevision(cacheDirectory, "refs/heads/master"), "Healthy refs should be kept");
+    }
+
+    @Test
+    public void testRefWithMissingHistoryIsRemoved() throws Exception
+    {
+        File cacheDirectory = createFetchedCache();
+        File brokenRef = new File(cacheDirectory, ".git/refs/heads/broken");
+        FileUtils.writeStringToFile(brokenRef, CORRUPT_OBJECT + "\n");
+        long refsRemoved = GitCacheRepair.Outcome.REFS_REMOVED.getCount();
+
+        Assert.assertTrue(GitCacheRepair.repair(cacheDirectory, new RuntimeException("Missing unknown " + CORRUPT_OBJECT)));
+        Assert.assertFalse(brokenRef.exists());
+        Assert.assertTrue(GitOperationHelper.containsRevision(cacheDirectory, "refs/heads/master"), "Healthy refs should be kept");
+        Assert.assertEquals(GitCacheRepair.Outcome.REFS_REMOVED.getCount(), refsRemoved + 1);
+    }
+
+    private File createFetchedCache() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        srcRepo.commitFileContents("contents");
+        File cacheDirectory = createTempDirectory();
+        createGitOperationHelper().fetch(cacheDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+        return cacheDirectory;
+    }
+}
@@ -0,0 +1,49 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+public class GitCacheSnapshotTest extends GitAbstractTest
+{
+    @Test
+    public void testPublishedSnapshotIsLoaded() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String revision = srcRepo.commitFileContents("contents").getName();
+        File cacheDirectory = createTempDirectory();
+        createGitOperationHelper().fetch(cacheDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+
+        Assert.assertNull(GitCacheSnapshot.load(new File(cacheDirectory, ".git")));
+        GitCacheSnapshot.publish(cacheDirectory);
+
+        GitCacheSnapshot snapshot = GitCacheSnapshot.load(new File(cacheDirectory, ".git"));
+        Assert.assertNotNull(snapshot);
+        Assert.assertEquals(snapshot.getHead(), "refs/heads/master");
+        Assert.assertEquals(snapshot.getRefs().get("refs/heads/master"), revision);
+        Assert.assertTrue(snapshot.getShallows().isEmpty());
+    }
+
+    @Test
+    public void testCheckoutSeesOnlyPublishedRefs() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String revision = srcRepo.commitFileContents("contents").getName();
+        File cacheDirectory = createTempDirectory();
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+        GitCacheSnapshot.publish(cacheDirectory);
+
+        // a fetch in progress, not published yet
+        FileUtils.writeStringToFile(new File(cacheDirectory, ".git/refs/heads/inProgress"), revision + "\n");
+
+        File sourceDirectory = createTempDirectory();
+        helper.checkout(cacheDirectory, sourceDirectory, revision, null);
+
+        Assert.assertTrue(new File(sourceDirectory, ".git/refs/heads/master").isFile());
+        Assert.assertFalse(new File(sourceDirectory, ".git/refs/heads/inProgress").exists());
+        Assert.assertEquals(FileUtils.readFileToString(new File(sourceDirectory, "file.txt")), "contents");
+    }
+}
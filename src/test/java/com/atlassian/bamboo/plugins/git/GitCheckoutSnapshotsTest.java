@@ -0,0 +1,95 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class GitCheckoutSnapshotsTest extends GitAbstractTest
+{
+    private static final String REVISION = "0123456789012345678901234567890123456789";
+
+    @Test
+    public void testSnapshotIsMaterializedWithEveryMethod() throws Exception
+    {
+        File sourceDirectory = createTempDirectory();
+        FileUtils.writeStringToFile(new File(sourceDirectory, "dir/file.txt"), "contents");
+        FileUtils.writeStringToFile(new File(sourceDirectory, ".git/HEAD"), REVISION + "\n");
+        File script = new File(sourceDirectory, "build.sh");
+        FileUtils.writeStringToFile(script, "#!/bin/sh");
+        script.setExecutable(true);
+
+        GitCheckoutSnapshots.Method method = GitCheckoutSnapshots.METHOD;
+        try
+        {
+            for (GitCheckoutSnapshots.Method snapshotMethod : GitCheckoutSnapshots.Method.values())
+            {
+                GitCheckoutSnapshots.METHOD = snapshotMethod;
+                File snapshotDirectory = GitCheckoutSnapshots.getSnapshotDirectory(createTempDirectory(), createTempDirectory(), REVISION, false);
+                Assert.assertNotNull(snapshotDirectory);
+
+                File jobSourceDirectory = createTempDirectory();
+                Assert.assertFalse(GitCheckoutSnapshots.materialize(snapshotDirectory, jobSourceDirectory), "There is no snapshot yet");
+
+                GitCheckoutSnapshots.create(sourceDirectory, snapshotDirectory);
+                Assert.assertTrue(GitCheckoutSnapshots.materialize(snapshotDirectory, jobSourceDirectory));
+                Assert.assertEquals(FileUtils.readFileToString(new File(jobSourceDirectory, "dir/file.txt")), "contents", snapshotMethod.name());
+                Assert.assertEquals(FileUtils.readFileToString(new File(jobSourceDirectory, ".git/HEAD")), REVISION + "\n", snapshotMethod.name());
+                Assert.assertTrue(new File(jobSourceDirectory, "build.sh").canExecute(), snapshotMethod.name());
+            }
+        }
+        finally
+        {
+            GitCheckoutSnapshots.METHOD = method;
+        }
+    }
+
+    @Test
+    public void testDirectoriesWithSymbolicLinksAreNotCopiedFileByFile() throws Exception
+    {
+        if (SystemUtils.IS_OS_WINDOWS)
+        {
+            return;
+        }
+        File sourceDirectory = createTempDirectory();
+        FileUtils.writeStringToFile(new File(sourceDirectory, "dir/file.txt"), "contents");
+        Assert.assertEquals(new ProcessBuilder("ln", "-s", "dir", "link").directory(sourceDirectory).start().waitFor(), 0);
+
+        try
+        {
+            GitCheckoutSnapshots.copyInParallel(sourceDirectory, createTempDirectory());
+            Assert.fail("Symbolic links would become regular directories");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOnlyFullRevisionsAreSnapshotted() throws Exception
+    {
+        Assert.assertNull(GitCheckoutSnapshots.getSnapshotDirectory(createTempDirectory(), createTempDirectory(), "master", false));
+    }
+
+    @Test
+    public void testRepositoriesWithDifferentCachesDoNotShareSnapshots() throws Exception
+    {
+        File workingDirectory = createTempDirectory();
+        File sourceDirectory = createTempDirectory();
+        FileUtils.writeStringToFile(new File(sourceDirectory, ".git/objects/info/alternates"), "/cache/objects\n");
+
+        File snapshotDirectory = GitCheckoutSnapshots.getSnapshotDirectory(workingDirectory, createTempDirectory(), REVISION, false);
+        File forkSnapshotDirectory = GitCheckoutSnapshots.getSnapshotDirectory(workingDirectory, createTempDirectory(), REVISION, false);
+        Assert.assertNotNull(snapshotDirectory);
+        Assert.assertNotNull(forkSnapshotDirectory);
+        Assert.assertFalse(snapshotDirectory.equals(forkSnapshotDirectory));
+
+        GitCheckoutSnapshots.create(sourceDirectory, snapshotDirectory);
+        Assert.assertFalse(GitCheckoutSnapshots.materialize(forkSnapshotDirectory, createTempDirectory()), "A fork must not get a snapshot of another cache");
+        Assert.assertTrue(GitCheckoutSnapshots.materialize(snapshotDirectory, createTempDirectory()));
+    }
+}
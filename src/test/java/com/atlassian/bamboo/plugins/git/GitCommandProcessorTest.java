@@ -0,0 +1,68 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.build.logger.NullBuildLogger;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class GitCommandProcessorTest extends GitAbstractTest
+{
+    @DataProvider
+    Object[][] versionsData()
+    {
+        return new Object[][] {
+                {"1.7.10.4", GitVersion.Feature.FETCH_PROGRESS, true},
+                {"1.7.0.msysgit.0", GitVersion.Feature.FETCH_PROGRESS, false},
+                {"1.7.0.msysgit.0", GitVersion.Feature.SUBMODULE_RECURSIVE, true},
+                {"1.6.4", GitVersion.Feature.SUBMODULE_RECURSIVE, false},
+                {"1.6.5", GitVersion.Feature.SUBMODULE_RECURSIVE, true},
+                {"2.0 (Apple Git-1)", GitVersion.Feature.FETCH_PROGRESS, true},
+        };
+    }
+
+    @Test(dataProvider = "versionsData")
+    public void testParsingVersionFeatures(String version, GitVersion.Feature feature, boolean expected) throws Exception
+    {
+        Assert.assertEquals(new GitVersion(version).supports(feature), expected);
+    }
+
+    @Test
+    public void testProbeResultIsCachedPerExecutable() throws Exception
+    {
+        File directory = createTempDirectory();
+        File probes = new File(directory, "probes");
+        File executable = new File(directory, "git");
+        FileUtils.writeStringToFile(executable, "#!/bin/sh\necho probed >> " + probes.getAbsolutePath() + "\necho git version 1.7.10\n");
+        Assert.assertTrue(executable.setExecutable(true));
+
+        createCommandProcessor(executable).checkGitExistenceInSystem(directory);
+        GitCommandProcessor commandProcessor = createCommandProcessor(executable);
+        commandProcessor.checkGitExistenceInSystem(directory);
+
+        Assert.assertEquals(readLines(probes).size(), 1);
+        Assert.assertEquals(commandProcessor.getGitVersion().getVersion(), "1.7.10");
+
+        FileUtils.writeStringToFile(executable, "#!/bin/sh\necho probed >> " + probes.getAbsolutePath() + "\necho git version 1.6.0.2\n");
+        Assert.assertTrue(executable.setLastModified(executable.lastModified() + 2000));
+        commandProcessor = createCommandProcessor(executable);
+        commandProcessor.checkGitExistenceInSystem(directory);
+
+        Assert.assertEquals(readLines(probes).size(), 2);
+        Assert.assertFalse(commandProcessor.getGitVersion().supports(GitVersion.Feature.FETCH_PROGRESS));
+    }
+
+    private static GitCommandProcessor createCommandProcessor(File executable)
+    {
+        return new GitCommandProcessor(executable.getAbsolutePath(), new NullBuildLogger(), 1, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> readLines(File file) throws Exception
+    {
+        return FileUtils.readLines(file);
+    }
+}
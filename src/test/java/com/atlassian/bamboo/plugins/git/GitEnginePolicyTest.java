@@ -0,0 +1,80 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class GitEnginePolicyTest extends GitAbstractTest
+{
+    @DataProvider
+    Object[][] defaultEngines()
+    {
+        return new Object[][] {
+                {GitOperation.CLONE, GitEngine.NATIVE},
+                {GitOperation.FETCH, GitEngine.NATIVE},
+                {GitOperation.CHECKOUT, GitEngine.NATIVE},
+                {GitOperation.RESOLVE_REFS, GitEngine.JGIT},
+                {GitOperation.EXTRACT_CHANGES, GitEngine.JGIT},
+        };
+    }
+
+    @Test(dataProvider = "defaultEngines")
+    public void testDefaultPolicyKeepsPreviousEngines(GitOperation operation, GitEngine expectedEngine) throws Exception
+    {
+        GitEnginePolicy policy = GitEngineSelection.DEFAULT.createPolicy();
+        Assert.assertEquals(policy.selectEngine(operation, createAccessData("url", null)), expectedEngine);
+    }
+
+    @Test
+    public void testTimingPolicyPicksFasterEngine() throws Exception
+    {
+        GitRepository.GitRepositoryAccessData accessData = createAccessData("url", null);
+        TimingGitEnginePolicy policy = new TimingGitEnginePolicy(new DefaultGitEnginePolicy());
+
+        // both engines are measured first
+        for (int i = 0; i < TimingGitEnginePolicy.MIN_SAMPLES; i++)
+        {
+            Assert.assertEquals(policy.selectEngine(GitOperation.FETCH, accessData), GitEngine.NATIVE);
+            policy.operationCompleted(GitOperation.FETCH, GitEngine.NATIVE, accessData, 1000);
+        }
+        for (int i = 0; i < TimingGitEnginePolicy.MIN_SAMPLES; i++)
+        {
+            Assert.assertEquals(policy.selectEngine(GitOperation.FETCH, accessData), GitEngine.JGIT);
+            policy.operationCompleted(GitOperation.FETCH, GitEngine.JGIT, accessData, 100);
+        }
+
+        int nativeSelections = 0;
+        for (int i = 0; i < TimingGitEnginePolicy.EXPLORATION_INTERVAL; i++)
+        {
+            if (policy.selectEngine(GitOperation.FETCH, accessData) == GitEngine.NATIVE)
+            {
+                nativeSelections++;
+            }
+        }
+        Assert.assertEquals(nativeSelections, 1, "Slower engine should only be tried again now and then");
+
+        // other repositories and operations are measured separately
+        Assert.assertEquals(policy.selectEngine(GitOperation.FETCH, createAccessData("otherUrl", null)), GitEngine.NATIVE);
+        Assert.assertEquals(policy.selectEngine(GitOperation.CHECKOUT, accessData), GitEngine.NATIVE);
+    }
+
+    @Test
+    public void testTimingPolicyDoesNotUseNativeGitForUnsupportedOperations() throws Exception
+    {
+        GitRepository.GitRepositoryAccessData accessData = createAccessData("url", null);
+        TimingGitEnginePolicy policy = new TimingGitEnginePolicy(new FixedGitEnginePolicy(GitEngine.JGIT));
+        for (int i = 0; i < 10; i++)
+        {
+            Assert.assertEquals(policy.selectEngine(GitOperation.EXTRACT_CHANGES, accessData), GitEngine.JGIT);
+            policy.operationCompleted(GitOperation.EXTRACT_CHANGES, GitEngine.JGIT, accessData, 1000);
+        }
+    }
+
+    @Test
+    public void testEngineSelectionIsParsedSafely() throws Exception
+    {
+        Assert.assertEquals(GitRepository.safeParseEngineSelection("AUTOMATIC"), GitEngineSelection.AUTOMATIC);
+        Assert.assertEquals(GitRepository.safeParseEngineSelection("unknown"), GitEngineSelection.DEFAULT);
+        Assert.assertEquals(GitRepository.safeParseEngineSelection(null), GitEngineSelection.DEFAULT);
+    }
+}
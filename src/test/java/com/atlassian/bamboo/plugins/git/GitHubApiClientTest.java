@@ -0,0 +1,191 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.opensymphony.webwork.dispatcher.json.JSONObject;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang.CharEncoding;
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GitHubApiClientTest extends GitAbstractTest
+{
+    private static final String ETAG = "\"c0ffee\"";
+    private static final long RESPONSE_DELAY = 500;
+
+    private Server server;
+    private String baseUrl;
+
+    // test methods run in parallel, so requests are counted per user and every test uses its own users
+    private final ConcurrentMap<String, RequestCounters> requestCounters = new ConcurrentHashMap<String, RequestCounters>();
+
+    private static class RequestCounters
+    {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger notModifiedResponses = new AtomicInteger();
+        final AtomicInteger runningRequests = new AtomicInteger();
+        final AtomicInteger maxRunningRequests = new AtomicInteger();
+    }
+
+    @BeforeClass
+    public void setUp() throws Exception
+    {
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(0);
+        connector.setHost("localhost");
+
+        server = new Server();
+        server.setConnectors(new Connector[]{connector});
+        server.setHandler(new AbstractHandler()
+        {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                RequestCounters counters = getRequestCounters(getUser(request));
+                counters.requests.incrementAndGet();
+                int running = counters.runningRequests.incrementAndGet();
+                try
+                {
+                    int max;
+                    while (running > (max = counters.maxRunningRequests.get()) && !counters.maxRunningRequests.compareAndSet(max, running))
+                    {
+                    }
+                    if (target.startsWith("/slow/"))
+                    {
+                        Thread.sleep(RESPONSE_DELAY);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    counters.runningRequests.decrementAndGet();
+                }
+
+                if (ETAG.equals(request.getHeader("If-None-Match")))
+                {
+                    counters.notModifiedResponses.incrementAndGet();
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                }
+                else
+                {
+                    response.setHeader("ETag", ETAG);
+                    response.setContentType("application/json");
+                    response.getWriter().write("{\"path\": \"" + target + "\"}");
+                }
+                baseRequest.setHandled(true);
+            }
+        });
+
+        server.setStopAtShutdown(true);
+        server.start();
+        baseUrl = "http://localhost:" + connector.getLocalPort() + "/";
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void testResponsesAreCachedWithinTtl() throws Exception
+    {
+        GitHubApiClient client = new GitHubApiClient(baseUrl, "cachedUser", "password", TimeUnit.HOURS.toMillis(1));
+
+        JSONObject first = client.getJsonObject("repos/show/cachedUser");
+        JSONObject second = client.getJsonObject("repos/show/cachedUser");
+
+        Assert.assertEquals(first.getString("path"), "/repos/show/cachedUser");
+        Assert.assertEquals(second.getString("path"), "/repos/show/cachedUser");
+        Assert.assertEquals(getRequestCounters("cachedUser").requests.get(), 1);
+    }
+
+    @Test
+    public void testResponsesAreNotSharedBetweenUsers() throws Exception
+    {
+        new GitHubApiClient(baseUrl, "firstUser", "password", TimeUnit.HOURS.toMillis(1)).getJsonObject("repos/pushable");
+        new GitHubApiClient(baseUrl, "secondUser", "password", TimeUnit.HOURS.toMillis(1)).getJsonObject("repos/pushable");
+
+        Assert.assertEquals(getRequestCounters("firstUser").requests.get(), 1);
+        Assert.assertEquals(getRequestCounters("secondUser").requests.get(), 1);
+    }
+
+    @Test
+    public void testExpiredResponsesAreRevalidated() throws Exception
+    {
+        GitHubApiClient client = new GitHubApiClient(baseUrl, "revalidatedUser", "password", 0);
+
+        JSONObject first = client.getJsonObject("repos/show/revalidatedUser");
+        JSONObject second = client.getJsonObject("repos/show/revalidatedUser");
+
+        Assert.assertEquals(second.getString("path"), first.getString("path"));
+        Assert.assertEquals(getRequestCounters("revalidatedUser").requests.get(), 2);
+        Assert.assertEquals(getRequestCounters("revalidatedUser").notModifiedResponses.get(), 1);
+    }
+
+    @Test
+    public void testBranchLookupsRunConcurrently() throws Exception
+    {
+        GitHubApiClient client = new GitHubApiClient(baseUrl, "concurrentUser", "password", TimeUnit.HOURS.toMillis(1));
+
+        final int repositories = 4;
+        long start = System.currentTimeMillis();
+        List<Future<JSONObject>> futures = new ArrayList<Future<JSONObject>>();
+        for (int i = 0; i < repositories; i++)
+        {
+            futures.add(client.getJsonObjectAsync("slow/repos/show/concurrentUser/repository" + i + "/branches"));
+        }
+        for (int i = 0; i < repositories; i++)
+        {
+            Assert.assertEquals(futures.get(i).get().getString("path"), "/slow/repos/show/concurrentUser/repository" + i + "/branches");
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        Assert.assertTrue(getRequestCounters("concurrentUser").maxRunningRequests.get() > 1, "Requests were not run concurrently");
+        Assert.assertTrue(elapsed < repositories * RESPONSE_DELAY, "Loading took " + elapsed + "ms");
+    }
+
+    @Test
+    public void testConcurrentRequestsForTheSamePathAreShared() throws Exception
+    {
+        GitHubApiClient client = new GitHubApiClient(baseUrl, "sharedUser", "password", TimeUnit.HOURS.toMillis(1));
+
+        Future<JSONObject> first = client.getJsonObjectAsync("slow/repos/show/sharedUser/repository/branches");
+        Future<JSONObject> second = client.getJsonObjectAsync("slow/repos/show/sharedUser/repository/branches");
+
+        Assert.assertEquals(second.get().getString("path"), first.get().getString("path"));
+        Assert.assertEquals(getRequestCounters("sharedUser").requests.get(), 1);
+    }
+
+    private RequestCounters getRequestCounters(String user)
+    {
+        requestCounters.putIfAbsent(user, new RequestCounters());
+        return requestCounters.get(user);
+    }
+
+    private static String getUser(HttpServletRequest request) throws IOException
+    {
+        String authorization = StringUtils.removeStart(request.getHeader("Authorization"), "Basic ");
+        return StringUtils.substringBefore(new String(Base64.decodeBase64(authorization.getBytes(CharEncoding.US_ASCII)), CharEncoding.UTF_8), ":");
+    }
+}
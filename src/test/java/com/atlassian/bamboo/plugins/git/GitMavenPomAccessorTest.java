@@ -126,6 +126,37 @@ public class GitMavenPomAccessorTest extends GitAbstractTest
         }
     }
 
+    @Test
+    public void testCheckoutMavenPomMaterializesOnlyPom() throws Exception
+    {
+        GitRepository repository = createGitRepository();
+        GitRepositoryTest.setRepositoryProperties(repository, repoWithPoms.getAbsolutePath(), Collections.singletonMap("repository.git.maven.path", "relative/path"));
+
+        final File destDir = createTempDirectory();
+        File pom = repository.getMavenPomAccessor().checkoutMavenPom(destDir);
+
+        Assert.assertEquals(pom, new File(destDir, "relative/path/pom.xml"));
+        Assert.assertEquals(destDir.list(), new String[]{"relative"});
+        Assert.assertEquals(new File(destDir, "relative/path").list(), new String[]{"pom.xml"});
+        Assert.assertFalse(repository.getCacheDirectory().exists(), "Cache directory should not be created");
+    }
+
+    @Test
+    public void testCheckoutMavenPomReusesCacheDirectory() throws Exception
+    {
+        GitRepository repository = createGitRepository();
+        setRepositoryProperties(repository, repoWithPoms);
+
+        File cacheDirectory = repository.getCacheDirectory();
+        createGitOperationHelper().fetch(cacheDirectory, repository.getSubstitutedAccessData(), false);
+
+        final File destDir = createTempDirectory();
+        File pom = repository.getMavenPomAccessor().checkoutMavenPom(destDir);
+
+        Assert.assertEquals(pom, new File(destDir, "pom.xml"));
+        Assert.assertEquals(destDir.list(), new String[]{"pom.xml"});
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void testRejectPathWithDots() throws Exception
     {
@@ -0,0 +1,65 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+public class GitModificationTimesTest extends GitAbstractTest
+{
+    private static final long PREVIOUS_BUILD_TIME = 1300000000000L;
+
+    @Test
+    public void testUnchangedFilesGetTheirModificationTimesBack() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String revision = srcRepo.commitFileContents("contents").getName();
+        File manifestFile = new File(createTempDirectory(), "manifest");
+
+        File sourceDirectory = checkout(srcRepo, revision);
+        File file = new File(sourceDirectory, "file.txt");
+        Assert.assertTrue(file.setLastModified(PREVIOUS_BUILD_TIME));
+        Assert.assertEquals(GitModificationTimes.update(sourceDirectory, manifestFile, false), 0);
+
+        FileUtils.deleteDirectory(sourceDirectory);
+        checkout(srcRepo, revision, sourceDirectory);
+        Assert.assertTrue(file.lastModified() != PREVIOUS_BUILD_TIME);
+
+        Assert.assertEquals(GitModificationTimes.update(sourceDirectory, manifestFile, true), 1);
+        Assert.assertEquals(file.lastModified(), PREVIOUS_BUILD_TIME);
+    }
+
+    @Test
+    public void testChangedFilesKeepNewModificationTimes() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String revision = srcRepo.commitFileContents("contents").getName();
+        File manifestFile = new File(createTempDirectory(), "manifest");
+
+        File sourceDirectory = checkout(srcRepo, revision);
+        File file = new File(sourceDirectory, "file.txt");
+        Assert.assertTrue(file.setLastModified(PREVIOUS_BUILD_TIME));
+        GitModificationTimes.update(sourceDirectory, manifestFile, false);
+
+        String changedRevision = srcRepo.commitFileContents("changed contents").getName();
+        FileUtils.deleteDirectory(sourceDirectory);
+        checkout(srcRepo, changedRevision, sourceDirectory);
+
+        Assert.assertEquals(GitModificationTimes.update(sourceDirectory, manifestFile, true), 0);
+        Assert.assertTrue(file.lastModified() != PREVIOUS_BUILD_TIME);
+    }
+
+    private File checkout(GitTestRepository srcRepo, String revision) throws Exception
+    {
+        return checkout(srcRepo, revision, createTempDirectory());
+    }
+
+    private File checkout(GitTestRepository srcRepo, String revision, File sourceDirectory) throws Exception
+    {
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(sourceDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+        helper.checkout(null, sourceDirectory, revision, null);
+        return sourceDirectory;
+    }
+}
@@ -1,13 +1,18 @@
 package com.atlassian.bamboo.plugins.git;
 
+import com.atlassian.bamboo.build.logger.NullBuildLogger;
 import com.atlassian.bamboo.commit.CommitContext;
 import com.atlassian.bamboo.commit.CommitContextImpl;
 import com.atlassian.bamboo.commit.CommitFile;
 import com.atlassian.bamboo.commit.CommitFileImpl;
+import com.atlassian.bamboo.ssh.SshProxyService;
 import com.atlassian.bamboo.v2.build.BuildRepositoryChanges;
 import com.atlassian.testtools.ZipResourceDirectory;
+import com.opensymphony.xwork.TextProvider;
+import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.storage.file.FileRepository;
 import org.eclipse.jgit.transport.Transport;
+import org.mockito.Mockito;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -17,6 +22,9 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
 
 public class GitOperationHelperTest extends GitAbstractTest
 {
@@ -80,7 +88,7 @@ public class GitOperationHelperTest extends GitAbstractTest
         {
             String targetRevision = testCase[0];
             String expectedContentsInZip = testCase[1];
-            String result = helper.checkout(null, tmp, targetRevision, previousRevision, false);
+            String result = helper.checkout(null, tmp, targetRevision, previousRevision);
             previousRevision = result;
 
             assertEquals(result, targetRevision);
@@ -315,4 +323,147 @@ public class GitOperationHelperTest extends GitAbstractTest
 
         assertEquals(transport instanceof TransportAllTrustingHttps, expectCustomized);
     }
+
+    @Test(expectedExceptions = GitCancelledException.class)
+    public void testFetchIsNotStartedWhenBuildIsStopped() throws Exception
+    {
+        File tmp = createTempDirectory();
+        ZipResourceDirectory.copyZipResourceToDirectory("basic-repository.zip", tmp);
+        File target = createTempDirectory();
+
+        GitOperationHelper helper = createGitOperationHelper();
+        BuildCancellationSignal cancellationSignal = new BuildCancellationSignal(null);
+        cancellationSignal.cancel();
+        helper.setCancellationSignal(cancellationSignal);
+        try
+        {
+            helper.fetch(target, createAccessData(tmp.getAbsolutePath()), false);
+        }
+        finally
+        {
+            assertFalse(new File(target, ".git").exists(), "Nothing should be fetched");
+        }
+    }
+
+    @Test
+    public void testNativeCheckoutOfBranchHeadDoesNotDetachHead() throws Exception
+    {
+        File repository = createTempDirectory();
+        ZipResourceDirectory.copyZipResourceToDirectory("basic-repository.zip", repository);
+        File sourceDirectory = createTempDirectory();
+        GitRepository.GitRepositoryAccessData accessData = createAccessData(repository, "myBranch");
+
+        GitOperationHelper helper = createNativeGitOperationHelper(accessData);
+        helper.fetch(sourceDirectory, accessData, false);
+        helper.checkout(null, sourceDirectory, "4367e71d438f091a5e85304618a8f78f9db6738e", null);
+
+        FileRepository localRepository = register(new FileRepository(new File(sourceDirectory, ".git")));
+        assertEquals(localRepository.getFullBranch(), "refs/heads/myBranch");
+    }
+
+    @Test
+    public void testExportWritesFilesWithoutGitMetadata() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String revision = srcRepo.commitFileContents("contents").getName();
+        File cacheDirectory = createTempDirectory();
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+
+        File sourceDirectory = createTempDirectory();
+        File manifestFile = GitOperationHelper.getExportManifestFile(createTempDirectory(), sourceDirectory);
+
+        assertEquals(helper.export(cacheDirectory, sourceDirectory, revision, manifestFile), revision);
+        assertEquals(FileUtils.readFileToString(new File(sourceDirectory, "file.txt")), "contents");
+        assertFalse(new File(sourceDirectory, ".git").exists(), "Export should not create git metadata");
+    }
+
+    @Test
+    public void testExportRemovesGitMetadataOfPreviousCheckout() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String revision = srcRepo.commitFileContents("contents").getName();
+        File cacheDirectory = createTempDirectory();
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+
+        File sourceDirectory = createTempDirectory();
+        helper.fetch(sourceDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+        helper.checkout(null, sourceDirectory, revision, null);
+        File manifestFile = GitOperationHelper.getExportManifestFile(createTempDirectory(), sourceDirectory);
+
+        helper.export(cacheDirectory, sourceDirectory, revision, manifestFile);
+        assertEquals(FileUtils.readFileToString(new File(sourceDirectory, "file.txt")), "contents");
+        assertFalse(new File(sourceDirectory, ".git").exists(), "Git metadata of the previous checkout should be removed");
+    }
+
+    @Test
+    public void testExportRemovesOnlyWhatPreviousExportHasWritten() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        FileUtils.writeStringToFile(new File(srcRepo.srcDir, "removed/file.txt"), "removed");
+        String previousRevision = srcRepo.commitFileContents("contents").getName();
+        srcRepo.git.rm().addFilepattern("removed/file.txt").call();
+        String revision = srcRepo.commitFileContents("changed contents").getName();
+        File cacheDirectory = createTempDirectory();
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+
+        File sourceDirectory = createTempDirectory();
+        File manifestFile = GitOperationHelper.getExportManifestFile(createTempDirectory(), sourceDirectory);
+        FileUtils.writeStringToFile(new File(sourceDirectory, "other-repository/file.txt"), "checked out by another repository");
+
+        helper.export(cacheDirectory, sourceDirectory, previousRevision, manifestFile);
+        assertTrue(new File(sourceDirectory, "removed/file.txt").isFile());
+        FileUtils.writeStringToFile(new File(sourceDirectory, "build/output.txt"), "built");
+
+        helper.export(cacheDirectory, sourceDirectory, revision, manifestFile);
+        assertEquals(FileUtils.readFileToString(new File(sourceDirectory, "file.txt")), "changed contents");
+        assertFalse(new File(sourceDirectory, "removed").exists(), "Files of the previous export should be removed");
+        assertTrue(new File(sourceDirectory, "other-repository/file.txt").isFile(), "Files which have not been exported should be kept");
+        assertTrue(new File(sourceDirectory, "build/output.txt").isFile(), "Build outputs should be kept");
+    }
+
+    @Test
+    public void testChangedFilesAreListedOnce() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String previousRevision = srcRepo.commitFileContents("contents").getName();
+        srcRepo.commitFileContents("changed contents");
+        String revision = srcRepo.commitFileContents("changed again").getName();
+
+        File sourceDirectory = createTempDirectory();
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(sourceDirectory, createAccessData(srcRepo.srcDir, "master"), false);
+        helper.checkout(null, sourceDirectory, revision, null);
+
+        File changedFiles = new File(sourceDirectory, GitOperationHelper.CHANGED_FILES);
+        helper.writeChangedFiles(sourceDirectory, previousRevision, revision);
+        assertEquals(FileUtils.readLines(changedFiles), Arrays.asList("file.txt"));
+
+        helper.writeChangedFiles(sourceDirectory, revision, revision);
+        assertEquals(FileUtils.readLines(changedFiles).size(), 0);
+
+        helper.writeChangedFiles(sourceDirectory, null, revision);
+        assertFalse(changedFiles.exists(), "Without a previous revision everything has changed");
+    }
+
+    @Test
+    public void testConcurrentNativeHelpersHaveTheirOwnCommandProcessors() throws Exception
+    {
+        NativeGitOperationHelper helper = (NativeGitOperationHelper) createNativeGitOperationHelper(createAccessData(createTempDirectory().getAbsolutePath()));
+        NativeGitOperationHelper concurrentHelper = helper.createConcurrentHelper();
+
+        assertNotSame(concurrentHelper, helper);
+        assertNotSame(concurrentHelper.gitCommandProcessor, helper.gitCommandProcessor, "SSH proxy errors of concurrent fetches must not mix");
+    }
+
+    private GitOperationHelper createNativeGitOperationHelper(GitRepository.GitRepositoryAccessData accessData) throws Exception
+    {
+        GitRepository repository = Mockito.mock(GitRepository.class);
+        Mockito.when(repository.getGitCapability()).thenReturn("git");
+        Mockito.when(repository.getWorkingDirectory()).thenReturn(createTempDirectory());
+
+        return new NativeGitOperationHelper(repository, accessData, Mockito.mock(SshProxyService.class), new NullBuildLogger(), Mockito.mock(TextProvider.class));
+    }
 }
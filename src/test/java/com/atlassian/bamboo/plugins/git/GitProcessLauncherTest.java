@@ -0,0 +1,134 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.utils.process.ExternalProcess;
+import com.atlassian.utils.process.ExternalProcessBuilder;
+import com.atlassian.utils.process.PluggableProcessHandler;
+import com.atlassian.utils.process.StringOutputHandler;
+import org.apache.log4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class GitProcessLauncherTest extends GitAbstractTest
+{
+    private static final Logger log = Logger.getLogger(GitProcessLauncherTest.class);
+
+    private GitProcessLauncher launcher;
+
+    @BeforeClass
+    public void setUpLauncher()
+    {
+        launcher = new GitProcessLauncher("/bin/sh", 2);
+    }
+
+    @AfterClass
+    public void shutDownLauncher()
+    {
+        launcher.shutdown();
+    }
+
+    @DataProvider
+    Object[][] outputData()
+    {
+        return new Object[][] {
+                {"abc", "abc"},
+                {"abc\\n", "abc\n"},
+                {"abc\\n\\n", "abc\n\n"},
+                {"", ""},
+                {"\\nquote ' inside\\n", "\nquote ' inside\n"},
+        };
+    }
+
+    @Test(dataProvider = "outputData")
+    public void testOutputOfEachCommandIsDelimited(String format, String expectedOutput) throws Exception
+    {
+        // helpers are reused, so the output must not leak into the next command
+        for (int i = 0; i < 3; i++)
+        {
+            StringOutputHandler outputHandler = new StringOutputHandler();
+            GitProcessLauncher.Execution execution = launcher.start(Arrays.asList("printf", format), createTempDirectory(),
+                                                                    Collections.<String, String>emptyMap(), outputHandler);
+            execution.waitFor(10000);
+
+            Assert.assertTrue(execution.succeeded());
+            Assert.assertEquals(outputHandler.getOutput(), expectedOutput);
+        }
+    }
+
+    @Test
+    public void testCommandGetsDirectoryEnvironmentAndExitCode() throws Exception
+    {
+        File directory = createTempDirectory();
+        StringOutputHandler outputHandler = new StringOutputHandler();
+        Map<String, String> environment = Collections.singletonMap("GIT_TEST_VARIABLE", "it's set");
+        GitProcessLauncher.Execution execution = launcher.start(Arrays.asList("sh", "-c", "pwd; echo $GIT_TEST_VARIABLE; echo error >&2; exit 3"),
+                                                                directory, environment, outputHandler);
+        execution.waitFor(10000);
+
+        Assert.assertFalse(execution.succeeded());
+        Assert.assertEquals(execution.getExitCode(), 3);
+        Assert.assertEquals(outputHandler.getOutput(), directory.getAbsolutePath() + "\nit's set\nerror\n");
+    }
+
+    @Test(timeOut = 20000)
+    public void testCommandIsKilledWhenTimedOut() throws Exception
+    {
+        GitProcessLauncher.Execution execution = launcher.start(Arrays.asList("sleep", "60"), createTempDirectory(),
+                                                                Collections.<String, String>emptyMap(), new StringOutputHandler());
+        execution.waitFor(500);
+
+        Assert.assertFalse(execution.succeeded());
+
+        StringOutputHandler outputHandler = new StringOutputHandler();
+        execution = launcher.start(Arrays.asList("printf", "next"), createTempDirectory(), Collections.<String, String>emptyMap(), outputHandler);
+        execution.waitFor(10000);
+        Assert.assertEquals(outputHandler.getOutput(), "next");
+    }
+
+    /**
+     * Compares the latency of starting git through a helper and directly from this JVM. The difference grows with the
+     * heap size of the JVM, so run it with the -Xmx of the server.
+     */
+    @Test(enabled = false, groups = "manual")
+    public void benchmarkLaunchLatency() throws Exception
+    {
+        final int count = 500;
+        final File directory = createTempDirectory();
+        final List<String> command = Arrays.asList("git", "--version");
+
+        for (int round = 0; round < 2; round++) // the first round warms up
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+            {
+                GitProcessLauncher.Execution execution = launcher.start(command, directory, Collections.<String, String>emptyMap(), new StringOutputHandler());
+                execution.waitFor(10000);
+                Assert.assertTrue(execution.succeeded());
+            }
+            final long launcherLatency = (System.nanoTime() - start) / count / 1000;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+            {
+                PluggableProcessHandler handler = new PluggableProcessHandler();
+                handler.setOutputHandler(new StringOutputHandler());
+                handler.setErrorHandler(new StringOutputHandler());
+                ExternalProcess process = new ExternalProcessBuilder().command(command, directory).handler(handler).build();
+                process.execute();
+                Assert.assertTrue(handler.succeeded());
+            }
+            final long directLatency = (System.nanoTime() - start) / count / 1000;
+
+            log.info("git --version: " + launcherLatency + "us per command through the helper, "
+                     + directLatency + "us per command started directly (heap " + Runtime.getRuntime().maxMemory() / 1024 / 1024 + "MB)");
+        }
+    }
+}
@@ -18,6 +18,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Collections;
 
 import static org.testng.Assert.*;
 
@@ -61,6 +62,26 @@ public class GitRepositoryTest extends GitAbstractTest
         }
     }
 
+    @Test
+    public void testPushedRevisionMissingFromTheRemoteIsReplacedByBranchHead() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        String previousRevision = srcRepo.commitFileContents("contents").getName();
+        String revision = srcRepo.commitFileContents("changed contents").getName();
+
+        GitRepository gitRepository = createGitRepository();
+        setRepositoryProperties(gitRepository, srcRepo.srcDir, "master");
+        gitRepository.collectChangesSinceLastBuild(PLAN_KEY.getKey(), null);
+
+        // the branch has been force pushed after the notification
+        GitPushNotifications.register(new GitPushNotification(srcRepo.srcDir.getAbsolutePath(), "refs/heads/master", "0123456789012345678901234567890123456789"));
+        BuildRepositoryChanges changes = gitRepository.collectChangesSinceLastBuild(PLAN_KEY.getKey(), previousRevision);
+
+        assertEquals(changes.getVcsRevisionKey(), revision);
+        assertEquals(changes.getChanges().size(), 1);
+        assertTrue(GitOperationHelper.containsRevision(gitRepository.getCacheDirectory(), previousRevision), "The cache should not be removed");
+    }
+
     @DataProvider(parallel = false)
     Object[][] testSourceCodeRetrievalData()
     {
@@ -125,6 +146,17 @@ public class GitRepositoryTest extends GitAbstractTest
         gitRepository.retrieveSourceCode(mockBuildContext(), changes.getVcsRevisionKey(), getCheckoutDir(gitRepository));
     }
 
+    @Test
+    public void testChangedFilesVariableIsNotSetForExports() throws Exception
+    {
+        GitRepository gitRepository = createGitRepository();
+        setRepositoryProperties(gitRepository, "git://github.com/cixot/test.git");
+        assertEquals(gitRepository.getCustomVariables().get("repository.git.changedFiles"), GitOperationHelper.CHANGED_FILES);
+
+        setRepositoryProperties(gitRepository, "git://github.com/cixot/test.git", Collections.singletonMap("repository.git.exportOnly", true));
+        assertFalse(gitRepository.getCustomVariables().containsKey("repository.git.changedFiles"), "Exports do not list changed files");
+    }
+
     @Test
     public void testAuthenticationTypesHaveValidLabels() throws Exception
     {
@@ -0,0 +1,71 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+public class GitShallowStatisticsTest extends GitAbstractTest
+{
+    @Test
+    public void testConfiguredDepthIsUsedWithoutStatistics() throws Exception
+    {
+        File cacheDirectory = new File(createTempDirectory(), "cache");
+        Assert.assertEquals(GitShallowStatistics.load(cacheDirectory).chooseInitialDepth(3), 3);
+    }
+
+    @Test
+    public void testRequiredDepthIsRememberedAcrossCaches() throws Exception
+    {
+        File cacheDirectory = new File(createTempDirectory(), "cache");
+        GitShallowStatistics.load(cacheDirectory).deepeningCompleted(50);
+        GitShallowStatistics.load(cacheDirectory).deepeningCompleted(20);
+
+        FileUtils.deleteDirectory(cacheDirectory);
+        GitShallowStatistics statistics = GitShallowStatistics.load(cacheDirectory);
+        Assert.assertEquals(statistics.getRequiredDepth(), 50);
+        Assert.assertEquals(statistics.chooseInitialDepth(1), 50);
+        Assert.assertEquals(statistics.chooseInitialDepth(100), 100);
+    }
+
+    @Test
+    public void testFullHistoryIsFetchedOnceItHasBeenNeeded() throws Exception
+    {
+        File cacheDirectory = new File(createTempDirectory(), "cache");
+        GitShallowStatistics.load(cacheDirectory).deepeningCompleted(-1);
+
+        GitShallowStatistics statistics = GitShallowStatistics.load(cacheDirectory);
+        Assert.assertTrue(statistics.isNeedsFullHistory());
+        Assert.assertEquals(statistics.chooseInitialDepth(1), 0);
+    }
+
+    @Test
+    public void testFullHistoryIsFetchedWhenNotMuchBigger() throws Exception
+    {
+        File cacheDirectory = new File(createTempDirectory(), "cache");
+        File objects = new File(cacheDirectory, ".git/objects");
+
+        FileUtils.writeByteArrayToFile(new File(objects, "shallow.pack"), new byte[1000]);
+        GitShallowStatistics.load(cacheDirectory).initialFetchCompleted(cacheDirectory, 1);
+        Assert.assertEquals(GitShallowStatistics.load(cacheDirectory).chooseInitialDepth(1), 1);
+
+        FileUtils.writeByteArrayToFile(new File(objects, "history.pack"), new byte[500]);
+        GitShallowStatistics.load(cacheDirectory).initialFetchCompleted(cacheDirectory, 0);
+        Assert.assertEquals(GitShallowStatistics.load(cacheDirectory).chooseInitialDepth(1), 0);
+    }
+
+    @Test
+    public void testShallowHistoryIsFetchedWhenMuchSmaller() throws Exception
+    {
+        File cacheDirectory = new File(createTempDirectory(), "cache");
+        File objects = new File(cacheDirectory, ".git/objects");
+
+        FileUtils.writeByteArrayToFile(new File(objects, "shallow.pack"), new byte[1000]);
+        GitShallowStatistics.load(cacheDirectory).initialFetchCompleted(cacheDirectory, 1);
+
+        FileUtils.writeByteArrayToFile(new File(objects, "history.pack"), new byte[10000]);
+        GitShallowStatistics.load(cacheDirectory).initialFetchCompleted(cacheDirectory, 0);
+        Assert.assertEquals(GitShallowStatistics.load(cacheDirectory).chooseInitialDepth(1), 1);
+    }
+}
@@ -0,0 +1,47 @@
+package com.atlassian.bamboo.plugins.git;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+public class GitTrashTest extends GitAbstractTest
+{
+    @Test(timeOut = 10000)
+    public void testDirectoryIsMovedAwayAndDeletedInBackground() throws Exception
+    {
+        File workingDirectory = createTempDirectory();
+        File directory = new File(workingDirectory, "build-dir/checkout/cache");
+        FileUtils.writeStringToFile(new File(directory, ".git/objects/ab/cdef"), "object");
+        FileUtils.writeStringToFile(new File(directory, ".git/HEAD"), "ref: refs/heads/master");
+        FileUtils.writeStringToFile(new File(directory, "file.txt"), "contents");
+
+        GitTrash.delete(workingDirectory, directory);
+        Assert.assertFalse(directory.exists());
+        Assert.assertEquals(directory.getParentFile().list().length, 0, "The trash should not be in the parent directory");
+
+        File trashDirectory = GitTrash.getTrashDirectory(workingDirectory);
+        while (trashDirectory.list().length > 0)
+        {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testLeftoversAreDeletedWithNextDirectory() throws Exception
+    {
+        File workingDirectory = createTempDirectory();
+        File directory = new File(workingDirectory, "cache");
+        File leftover = new File(GitTrash.getTrashDirectory(workingDirectory), "old-cache");
+        FileUtils.writeStringToFile(new File(leftover, ".git/HEAD"), "ref: refs/heads/master");
+        FileUtils.writeStringToFile(new File(directory, ".git/HEAD"), "ref: refs/heads/master");
+
+        GitTrash.delete(workingDirectory, directory);
+
+        while (leftover.exists())
+        {
+            Thread.sleep(50);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.atlassian.bamboo.plugins.git;
 
+import com.atlassian.bamboo.build.fileserver.BuildDirectoryManager;
 import com.atlassian.bamboo.repository.RepositoryException;
 import com.atlassian.bamboo.v2.build.BuildRepositoryChanges;
 import com.google.common.collect.Iterables;
@@ -10,6 +11,8 @@ import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.storage.file.FileRepository;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.mockito.Mockito;
+import org.mockito.internal.stubbing.answers.Returns;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
@@ -25,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 public class ShallowClonesTest extends GitAbstractTest
@@ -131,7 +135,7 @@ public class ShallowClonesTest extends GitAbstractTest
             for (String[] currentFetch : successiveFetches)
             {
                 helper.fetch(tmp, createAccessData(protocol + currentFetch[0]), true);
-                revision = helper.checkout(null, tmp, currentFetch[1], revision, false);
+                revision = helper.checkout(null, tmp, currentFetch[1], revision);
                 verifyContents(tmp, currentFetch[2]);
             }
         }
@@ -229,7 +233,7 @@ public class ShallowClonesTest extends GitAbstractTest
 
         helper.fetch(tmp, createAccessData("git://github.com/pstefaniak/72parents.git"), true);
         assertEquals(FileUtils.readLines(new File(tmp, ".git/shallow")).size(), 72);
-        helper.checkout(null, tmp, "f9a3b37fcbf5298c1bfa", null, false);
+        helper.checkout(null, tmp, "f9a3b37fcbf5298c1bfa", null);
         verifyContents(tmp, "shallow-clones/72parents-contents.zip");
     }
 
@@ -243,7 +247,7 @@ public class ShallowClonesTest extends GitAbstractTest
         assertEquals(FileUtils.readFileToString(new File(tmp, ".git/shallow")), "4c9d0c7e6167407deff1d31af5884911202dd3db\n");
         helper.fetch(tmp, createAccessData("git://github.com/pstefaniak/7.git"), false);
         assertEquals(FileUtils.readFileToString(new File(tmp, ".git/shallow")), "4c9d0c7e6167407deff1d31af5884911202dd3db\n");
-        helper.checkout(null, tmp, "1070f438270b8cf1ca36", null, false);
+        helper.checkout(null, tmp, "1070f438270b8cf1ca36", null);
         verifyContents(tmp, "shallow-clones/5-contents.zip");
 
         FileRepository repository = new FileRepository(new File(tmp, Constants.DOT_GIT));
@@ -262,6 +266,71 @@ public class ShallowClonesTest extends GitAbstractTest
         repository.close();
     }
 
+    @Test
+    public void testShallowHistoryIsDeepenedUntilRevisionIsFound() throws Exception
+    {
+        File tmp = createTempDirectory();
+        GitOperationHelper helper = createGitOperationHelper();
+        GitRepository.GitRepositoryAccessData accessData = createAccessData("git://github.com/pstefaniak/7.git");
+
+        helper.fetch(tmp, accessData, true);
+        assertEquals(helper.extractCommits(tmp, null, "728b4f095a115a91be26").getChanges().size(), 2);
+        assertFalse(GitOperationHelper.containsRevision(tmp, "728b4f095a115a91be26~4"));
+
+        assertTrue(helper.deepenUntilContains(tmp, accessData, "728b4f095a115a91be26~4", 2, 1000) > 0);
+        assertTrue(helper.extractCommits(tmp, null, "728b4f095a115a91be26").getChanges().size() > 4);
+    }
+
+    @Test
+    public void testDeepeningStopsAtMaximumDepth() throws Exception
+    {
+        File tmp = createTempDirectory();
+        GitOperationHelper helper = createGitOperationHelper();
+        GitRepository.GitRepositoryAccessData accessData = createAccessData("git://github.com/pstefaniak/7.git");
+
+        helper.fetch(tmp, accessData, true);
+
+        assertEquals(helper.deepenUntilContains(tmp, accessData, "728b4f095a115a91be26~6", 1, 2), -1);
+        assertTrue(new File(tmp, ".git/shallow").exists(), "Repository should stay shallow");
+    }
+
+    @Test
+    public void testBranchesShareShallowCache() throws Exception
+    {
+        GitTestRepository srcRepo = new GitTestRepository(createTempDirectory());
+        RevCommit first = srcRepo.commitFileContents("first");
+        RevCommit second = srcRepo.commitFileContents("second");
+        RevCommit masterTip = srcRepo.commitFileContents("master");
+        srcRepo.git.checkout().setCreateBranch(true).setName("branch").setStartPoint(second).call();
+        RevCommit branchTip = srcRepo.commitFileContents("branch");
+
+        GitRepository masterRepository = createGitRepository();
+        setShallowRepositoryProperties(masterRepository, srcRepo.srcDir, "master");
+        File workingDirectory = masterRepository.getCacheDirectory().getParentFile().getParentFile();
+        GitRepository branchRepository = createGitRepository();
+        branchRepository.setBuildDirectoryManager(Mockito.mock(BuildDirectoryManager.class, new Returns(workingDirectory)));
+        setShallowRepositoryProperties(branchRepository, srcRepo.srcDir, "branch");
+
+        File cacheDirectory = masterRepository.getCacheDirectory();
+        assertEquals(branchRepository.getCacheDirectory(), cacheDirectory);
+
+        masterRepository.collectChangesSinceLastBuild(PLAN_KEY.getKey(), null);
+        branchRepository.collectChangesSinceLastBuild(PLAN_KEY.getKey(), null);
+
+        assertTrue(GitOperationHelper.containsRevision(cacheDirectory, masterTip.getName()));
+        assertTrue(GitOperationHelper.containsRevision(cacheDirectory, branchTip.getName()));
+        assertFalse(GitOperationHelper.containsRevision(cacheDirectory, first.getName()));
+        assertEquals(FileUtils.readLines(new File(cacheDirectory, ".git/shallow")).size(), 2);
+    }
+
+    private static void setShallowRepositoryProperties(GitRepository gitRepository, File repositorySourceDir, String branch) throws Exception
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("repository.git.useShallowClones", "true");
+        params.put("repository.git.shallowDepth", "1");
+        setRepositoryProperties(gitRepository, repositorySourceDir.getAbsolutePath(), branch, null, null, params);
+    }
+
     @Test
     public void testShallowDoesNotContainTooMuch() throws Exception
     {
@@ -0,0 +1,111 @@
+package com.atlassian.bamboo.plugins.git;
+
+import com.atlassian.bamboo.plugins.git.GitRepository.GitRepositoryAccessData;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+public class SubmodulesTest extends GitAbstractTest
+{
+    @DataProvider
+    Object[][] submoduleUrls()
+    {
+        return new Object[][] {
+                {"https://host/group/parent.git", "https://other/lib.git", "https://other/lib.git"},
+                {"https://host/group/parent.git", "../lib.git", "https://host/group/lib.git"},
+                {"https://host/group/parent.git/", "../../lib.git", "https://host/lib.git"},
+                {"https://host/group/parent.git", "./lib.git", "https://host/group/parent.git/lib.git"},
+                {"git@host:group/parent.git", "../lib.git", "git@host:group/lib.git"},
+                {"git@host:parent.git", "../lib.git", "git@host:lib.git"},
+                {"/repositories/parent", "../lib", "/repositories/lib"},
+        };
+    }
+
+    @Test(dataProvider = "submoduleUrls")
+    public void testRelativeUrlsAreResolvedAgainstParent(String parentUrl, String url, String expectedUrl) throws Exception
+    {
+        Assert.assertEquals(GitSubmodule.resolveUrl(parentUrl, url), expectedUrl);
+    }
+
+    @Test
+    public void testCredentialsArePassedOnlyToSameHost() throws Exception
+    {
+        GitRepositoryAccessData parentAccessData = createAccessData("https://host/parent.git", "branch", "user", "password", null, null);
+        parentAccessData.authenticationType = GitAuthenticationType.PASSWORD;
+
+        GitRepositoryAccessData sameHost = GitOperationHelper.createSubmoduleAccessData(parentAccessData, "https://host/lib.git");
+        Assert.assertEquals(sameHost.authenticationType, GitAuthenticationType.PASSWORD);
+        Assert.assertEquals(sameHost.password, "password");
+        Assert.assertEquals(sameHost.branch, "refs/heads/*");
+
+        GitRepositoryAccessData otherHost = GitOperationHelper.createSubmoduleAccessData(parentAccessData, "https://other/lib.git");
+        Assert.assertEquals(otherHost.authenticationType, GitAuthenticationType.NONE);
+        Assert.assertNull(otherHost.username);
+        Assert.assertNull(otherHost.password);
+    }
+
+    @Test
+    public void testSubmodulesAreCheckedOutFromOwnCaches() throws Exception
+    {
+        File submoduleDirectory = createTempDirectory();
+        GitTestRepository submodule = new GitTestRepository(submoduleDirectory);
+        RevCommit submoduleCommit = submodule.commitFileContents("submodule contents");
+        submodule.commitFileContents("newer submodule contents");
+
+        GitTestRepository parent = new GitTestRepository(createTempDirectory());
+        parent.commitFileContents("parent contents");
+        FileUtils.writeStringToFile(new File(parent.srcDir, ".gitmodules"),
+                                    "[submodule \"lib\"]\n\tpath = lib\n\turl = " + submoduleDirectory.getAbsolutePath() + "\n");
+        addGitlink(parent, "lib", submoduleCommit);
+        parent.git.add().addFilepattern(".gitmodules").call();
+        RevCommit parentCommit = parent.git.commit().setMessage("submodule").setCommitter("testUser", "testUser@testDomain").call();
+
+        GitRepositoryAccessData accessData = createAccessData(parent.srcDir, "master");
+        File workingDirectory = createTempDirectory();
+        File cacheDirectory = GitCacheDirectory.getCacheDirectory(workingDirectory, accessData);
+        File sourceDirectory = createTempDirectory();
+
+        GitOperationHelper helper = createGitOperationHelper();
+        helper.fetch(cacheDirectory, accessData, false);
+        helper.checkout(cacheDirectory, sourceDirectory, parentCommit.getName(), null);
+        helper.updateSubmodules(cacheDirectory, sourceDirectory, accessData);
+
+        Assert.assertEquals(FileUtils.readFileToString(new File(sourceDirectory, "lib/file.txt")), "submodule contents");
+        Assert.assertEquals(helper.getCurrentRevision(new File(sourceDirectory, "lib")), submoduleCommit.getName());
+
+        File submoduleCacheDirectory = GitCacheDirectory.getCacheDirectory(workingDirectory, createAccessData(submoduleDirectory.getAbsolutePath()));
+        Assert.assertTrue(new File(submoduleCacheDirectory, ".git").isDirectory(), "Submodule should have its own cache");
+        String alternates = FileUtils.readFileToString(new File(sourceDirectory, "lib/.git/objects/info/alternates"));
+        Assert.assertTrue(alternates.contains(submoduleCacheDirectory.getAbsolutePath()), "Submodule cache should be used as an alternate");
+
+        // nothing to fetch when the submodule has not changed
+        FileUtils.deleteDirectory(submoduleDirectory);
+        helper.updateSubmodules(cacheDirectory, sourceDirectory, accessData);
+        Assert.assertEquals(helper.getCurrentRevision(new File(sourceDirectory, "lib")), submoduleCommit.getName());
+    }
+
+    private static void addGitlink(GitTestRepository repository, String path, final ObjectId commit) throws Exception
+    {
+        DirCache index = repository.srcRepo.lockDirCache();
+        DirCacheEditor editor = index.editor();
+        editor.add(new DirCacheEditor.PathEdit(path)
+        {
+            @Override
+            public void apply(DirCacheEntry entry)
+            {
+                entry.setFileMode(FileMode.GITLINK);
+                entry.setObjectId(commit);
+            }
+        });
+        editor.commit();
+    }
+}
@@ -4,11 +4,14 @@ package com.atlassian.bamboo.plugins.git.timeouts;
 import com.atlassian.bamboo.build.logger.NullBuildLogger;
 import com.atlassian.bamboo.plugins.git.GitAbstractTest;
 import com.atlassian.bamboo.plugins.git.GitOperationHelper;
+import com.atlassian.bamboo.plugins.git.GitRepository;
 import com.atlassian.bamboo.plugins.git.JGitOperationHelper;
+import com.atlassian.bamboo.plugins.git.NativeGitOperationHelper;
 import com.atlassian.bamboo.repository.RepositoryException;
 import com.atlassian.bamboo.ssh.SshProxyService;
 import com.opensymphony.xwork.TextProvider;
 import org.mockito.Mockito;
+import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
@@ -42,6 +45,14 @@ public class TimeoutsTest extends GitAbstractTest
         timeout.setAccessible(true);
         timeout.setInt(null, 1);
 
+        Class<?> watchdog = Class.forName("com.atlassian.bamboo.plugins.git.GitProgressWatchdog");
+        Field stallTimeout = watchdog.getDeclaredField("STALL_TIMEOUT");
+        stallTimeout.setAccessible(true);
+        stallTimeout.setLong(null, 1000);
+        Field stallRetries = watchdog.getDeclaredField("STALL_RETRIES");
+        stallRetries.setAccessible(true);
+        stallRetries.setInt(null, 1);
+
         serverSocket = new ServerSocket(0);
 
         servingThread = new Thread()
@@ -93,6 +104,17 @@ public class TimeoutsTest extends GitAbstractTest
             textProvider);
     }
 
+    public GitOperationHelper createNativeGitOperationHelper(String url) throws Exception
+    {
+        GitRepository repository = Mockito.mock(GitRepository.class);
+        Mockito.when(repository.getGitCapability()).thenReturn("git");
+        Mockito.when(repository.getWorkingDirectory()).thenReturn(createTempDirectory());
+        TextProvider textProvider = mock(TextProvider.class);
+        SshProxyService sshProxyService = mock(SshProxyService.class);
+
+        return new NativeGitOperationHelper(repository, createAccessData(url), sshProxyService, new NullBuildLogger(), textProvider);
+    }
+
     @Test
     public void testTimeoutIsSufficientToCheckOutBigRepo() throws Exception
     {
@@ -101,7 +123,7 @@ public class TimeoutsTest extends GitAbstractTest
         File directory = createTempDirectory();
         System.out.println(directory);
         helper.fetch(directory, createAccessData("git://git.jetbrains.org/idea/community.git"), false);
-        helper.checkout(null, directory, s, null, false);
+        helper.checkout(null, directory, s, null);
     }
 
     @DataProvider
@@ -126,7 +148,46 @@ public class TimeoutsTest extends GitAbstractTest
         File directory = createTempDirectory();
         String targetRevision = createGitOperationHelper().obtainLatestRevision(createAccessData(url));
         createGitOperationHelper().fetch(directory, createAccessData(url), false);
-        createGitOperationHelper().checkout(null, directory, targetRevision, null, false);
+        createGitOperationHelper().checkout(null, directory, targetRevision, null);
+    }
+
+    @DataProvider
+    Object[][] urlsToStall()
+    {
+        return new String[][] {
+                {"http://localhost:" + serverSocket.getLocalPort() + "/path/to/repo"},
+                {"git://localhost:" + serverSocket.getLocalPort() + "/path/to/repo"},
+        };
     }
 
+    @Test(dataProvider = "urlsToStall", timeOut = 10000)
+    public void testStalledFetchIsRetriedAndAborted(String url) throws Exception
+    {
+        int connections = connectedSockets.size();
+        try
+        {
+            createGitOperationHelper().fetch(createTempDirectory(), createAccessData(url, "refs/heads/master"), false);
+            Assert.fail("Fetch should have stalled");
+        }
+        catch (RepositoryException e)
+        {
+            Assert.assertEquals(connectedSockets.size() - connections, 2, "Stalled fetch should be retried once");
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testStalledNativeFetchIsRetriedAndAborted() throws Exception
+    {
+        String url = "git://localhost:" + serverSocket.getLocalPort() + "/path/to/repo";
+        int connections = connectedSockets.size();
+        try
+        {
+            createNativeGitOperationHelper(url).fetch(createTempDirectory(), createAccessData(url, "refs/heads/master"), false);
+            Assert.fail("Fetch should have stalled");
+        }
+        catch (RepositoryException e)
+        {
+            Assert.assertEquals(connectedSockets.size() - connections, 2, "Stalled fetch should be retried once");
+        }
+    }
 }